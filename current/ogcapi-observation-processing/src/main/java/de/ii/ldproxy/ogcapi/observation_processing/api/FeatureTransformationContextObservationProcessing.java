@@ -11,6 +11,7 @@ import de.ii.ldproxy.ogcapi.features.core.domain.FeatureTransformationContext;
 import de.ii.ldproxy.ogcapi.features.core.domain.processing.FeatureProcessChain;
 import de.ii.ldproxy.ogcapi.observation_processing.application.ObservationProcessingConfiguration;
 import de.ii.ldproxy.ogcapi.observation_processing.application.Variable;
+import de.ii.ldproxy.ogcapi.observation_processing.data.Observations;
 import de.ii.xtraplatform.codelists.domain.Codelist;
 import org.immutables.value.Value;
 
@@ -29,6 +30,9 @@ public abstract class FeatureTransformationContextObservationProcessing implemen
     public abstract FeatureProcessChain getProcesses();
     public abstract Map<String, Object> getProcessingParameters();
     public abstract DapaResultFormatExtension getOutputFormat();
+    public abstract Optional<ObservationProcessingQueriesHandler.ObservationCacheRequest> getCacheRequest();
+    public abstract Optional<Observations> getSelectedObservations();
+    public abstract ObservationProcessingScheduler getScheduler();
 
     // public abstract ViewRenderer getMustacheRenderer();
 
@@ -7,19 +7,17 @@
  */
 package de.ii.ldproxy.ogcapi.observation_processing.api;
 
-import com.google.common.base.Splitter;
-import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
 import de.ii.ldproxy.ogcapi.domain.FeatureTypeConfigurationOgcApi;
-import de.ii.ldproxy.ogcapi.features.core.domain.FeatureTransformerBase;
 import de.ii.ldproxy.ogcapi.features.core.domain.processing.FeatureProcess;
 import de.ii.ldproxy.ogcapi.features.core.domain.processing.FeatureProcessChain;
-import de.ii.ldproxy.ogcapi.features.geojson.domain.GeoJsonConfiguration;
 import de.ii.ldproxy.ogcapi.observation_processing.application.ObservationProcessingConfiguration;
-import de.ii.ldproxy.ogcapi.observation_processing.application.ResultFormatExtensionGeoJson;
 import de.ii.ldproxy.ogcapi.observation_processing.application.Variable;
 import de.ii.ldproxy.ogcapi.observation_processing.data.DataArrayXy;
 import de.ii.ldproxy.ogcapi.observation_processing.data.DataArrayXyt;
+import de.ii.ldproxy.ogcapi.observation_processing.data.DataArrayXytBands;
 import de.ii.ldproxy.ogcapi.observation_processing.data.GeometryPoint;
+import de.ii.ldproxy.ogcapi.observation_processing.data.ObservationChunk;
 import de.ii.ldproxy.ogcapi.observation_processing.data.ObservationCollectionArea;
 import de.ii.ldproxy.ogcapi.observation_processing.data.ObservationCollectionAreaTimeSeries;
 import de.ii.ldproxy.ogcapi.observation_processing.data.ObservationCollectionPoint;
@@ -28,12 +26,6 @@ import de.ii.ldproxy.ogcapi.observation_processing.data.ObservationCollectionPoi
 import de.ii.ldproxy.ogcapi.observation_processing.data.ObservationCollectionPointTimeSeriesList;
 import de.ii.ldproxy.ogcapi.observation_processing.data.Observations;
 import de.ii.xtraplatform.crs.domain.CrsTransformer;
-import de.ii.xtraplatform.features.domain.FeatureProperty;
-import de.ii.xtraplatform.features.domain.FeatureType;
-import de.ii.xtraplatform.features.domain.transform.FeaturePropertySchemaTransformer;
-import de.ii.xtraplatform.features.domain.transform.FeaturePropertyValueTransformer;
-import de.ii.xtraplatform.geometries.domain.ImmutableCoordinatesTransformer;
-import de.ii.xtraplatform.geometries.domain.SimpleFeatureGeometry;
 import de.ii.xtraplatform.streams.domain.HttpClient;
 import io.dropwizard.views.ViewRenderer;
 import org.slf4j.Logger;
@@ -43,18 +35,16 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.time.LocalDate;
 import java.time.temporal.Temporal;
-import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Optional;
-import java.util.OptionalLong;
+import java.util.TreeMap;
 import java.util.Vector;
 import java.util.concurrent.ConcurrentMap;
-import java.util.regex.Pattern;
 
-public class FeatureTransformerObservationProcessing extends FeatureTransformerBase {
+public class FeatureTransformerObservationProcessing extends FeatureTransformerObservations {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(FeatureTransformerObservationProcessing.class);
 
@@ -62,7 +52,6 @@ public class FeatureTransformerObservationProcessing extends FeatureTransformerB
 
     private final boolean isFeatureCollection;
     private final ViewRenderer mustacheRenderer;
-    private final int pageSize;
     private CrsTransformer crsTransformer;
     private final FeatureTransformationContextObservationProcessing transformationContext;
     private final ObservationProcessingConfiguration configuration;
@@ -70,39 +59,14 @@ public class FeatureTransformerObservationProcessing extends FeatureTransformerB
     private final Map<String, Object> processingParameters;
     private final List<Variable> variables;
     private final DapaResultFormatExtension outputFormat;
-    private final TemporalInterval interval;
-
-    private ImmutableCoordinatesTransformer.Builder coordinatesTransformerBuilder;
-    private SimpleFeatureGeometry currentGeometryType;
-    private ImmutableCoordinatesTransformer.Builder currentCoordinatesTransformerBuilder;
-    private int currentGeometryNesting;
-
-    private Object currentFeature;
-    private StringBuilder currentValueBuilder = new StringBuilder();
-    private String currentValue = null;
-    private FeatureProperty currentProperty = null;
-    private ArrayList<FeatureProperty> currentFeatureProperties = null;
-    private Observations observations;
-    private int observationCount = 0;
-    private Float currentResult;
-    private Float currentLon;
-    private Float currentLat;
-    private Temporal currentTime;
-    private String currentVar;
-    private String currentUom;
-    private Integer currentVarIdx;
-    private String currentLocationCode;
-    private String currentLocationName;
-    private String currentId;
 
     public FeatureTransformerObservationProcessing(FeatureTransformationContextObservationProcessing transformationContext, HttpClient httpClient) {
-        super(GeoJsonConfiguration.class,
-              transformationContext.getApiData(), transformationContext.getCollectionId(),
+        super(transformationContext.getApiData(), transformationContext.getCollectionId(),
               transformationContext.getCodelists(), transformationContext.getServiceUrl(),
-              transformationContext.isFeatureCollection());
+              transformationContext.isFeatureCollection(), (TemporalInterval) transformationContext.getProcessingParameters().get("interval"),
+              getMemoryBudget(transformationContext.getConfiguration()));
         this.outputStream = transformationContext.getOutputStream();
         this.isFeatureCollection = transformationContext.isFeatureCollection();
-        this.pageSize = transformationContext.getLimit();
         this.crsTransformer = transformationContext.getCrsTransformer()
                                                    .orElse(null);
         this.mustacheRenderer = null; // TODO transformationContext.getMustacheRenderer();
@@ -112,48 +76,34 @@ public class FeatureTransformerObservationProcessing extends FeatureTransformerB
         this.processingParameters = transformationContext.getProcessingParameters();
         this.variables = transformationContext.getVariables();
         this.outputFormat = transformationContext.getOutputFormat();
-        this.interval = (TemporalInterval) processingParameters.get("interval");
 
         FeatureTypeConfigurationOgcApi featureType = transformationContext.getApiData()
                 .getCollections()
                 .get(transformationContext.getCollectionId());
     }
 
-    @Override
-    public String getTargetFormat() {
-        return ResultFormatExtensionGeoJson.MEDIA_TYPE.toString();
-    }
-
-    @Override
-    public void onStart(OptionalLong numberReturned, OptionalLong numberMatched) {
-
-        if (numberReturned.isPresent()) {
-            long returned = numberReturned.getAsLong();
-            long matched = numberMatched.orElse(-1);
-            LOGGER.debug("numberMatched {}", matched);
-            LOGGER.debug("numberReturned {}", returned);
-            observations = new Observations((int) returned);
-        } else {
-            // TODO if numberReturned not present, abort or use the page size as default?
-            observations = new Observations(pageSize);
-        }
-
-        // TODO if numberMatched is the page size, abort?
-    }
-
     @Override
     public void onEnd() throws IOException {
 
-        LOGGER.debug("{} observations received.", observationCount);
+        super.onEnd();
 
         Object entity = outputFormat.initializeResult(processes, processingParameters, variables, outputStream, transformationContext.getApiData());
 
-        Object data = observations;
-        for (FeatureProcess process : processes.asList()) {
-            data = process.execute(data, processingParameters);
-            LOGGER.debug("Process '{}' completed.", process.getName());
+        Object data = process(entity);
+
+        try {
+            addData(entity, data);
+            outputFormat.finalizeResult(entity);
+        } finally {
+            // the response has been written, the buffers of the grid are reused by later requests
+            if (data instanceof DataArrayXyt)
+                ((DataArrayXyt) data).release();
+            else if (data instanceof DataArrayXy)
+                ((DataArrayXy) data).release();
         }
+    }
 
+    private void addData(Object entity, Object data) throws IOException {
         if (data!=null) {
             if (data instanceof ObservationCollectionPointTimeSeries) {
                 ObservationCollectionPointTimeSeries result = (ObservationCollectionPointTimeSeries) data;
@@ -190,24 +140,7 @@ public class FeatureTransformerObservationProcessing extends FeatureTransformerB
                 outputFormat.addFeature(entity, Optional.empty(), Optional.empty(), result.getGeometry(),
                            result.getInterval().getBegin(), result.getInterval().getEnd(), result.getValues());
             } else if (data instanceof DataArrayXyt) {
-                DataArrayXyt result = (DataArrayXyt) data;
-                boolean formatAcceptsDataArray = outputFormat.addDataArray(entity, result);
-                if (!formatAcceptsDataArray) {
-                    Vector<String> vars = result.getVars();
-                    for (int i0 = 0; i0 < result.getWidth(); i0++)
-                        for (int i1 = 0; i1 < result.getHeight(); i1++)
-                            for (int i2 = 0; i2 < result.getSteps(); i2++) {
-                                Map<String, Number> map = new HashMap<>();
-                                for (int i3 = 0; i3 < vars.size(); i3++)
-                                    if (!Float.isNaN(result.array[i2][i1][i0][i3]))
-                                        map.put(vars.get(i3), result.array[i2][i1][i0][i3]);
-                                LocalDate date = result.date(i2);
-                                if (!map.isEmpty())
-                                    outputFormat.addFeature(entity, Optional.empty(), Optional.empty(),
-                                            new GeometryPoint(result.lon(i0), result.lat(i1)),
-                                            date, date, map);
-                            }
-                }
+                addDataArray(entity, (DataArrayXyt) data);
             } else if (data instanceof DataArrayXy) {
                 DataArrayXy result = (DataArrayXy) data;
                 boolean formatAcceptsDataArray = outputFormat.addDataArray(entity, result);
@@ -217,8 +150,8 @@ public class FeatureTransformerObservationProcessing extends FeatureTransformerB
                         for (int i1=0; i1<result.getHeight(); i1++) {
                             Map<String, Number> map = new HashMap<>();
                             for (int i3 = 0; i3 < vars.size(); i3++)
-                                if (!Float.isNaN(result.array[i1][i0][i3]))
-                                    map.put(vars.get(i3), result.array[i1][i0][i3]);
+                                if (!Float.isNaN(result.get(i1, i0, i3)))
+                                    map.put(vars.get(i3), result.get(i1, i0, i3));
                             if (!map.isEmpty())
                                 outputFormat.addFeature(entity, Optional.empty(), Optional.empty(),
                                         new GeometryPoint(result.lon(i0), result.lat(i1)),
@@ -227,225 +160,95 @@ public class FeatureTransformerObservationProcessing extends FeatureTransformerB
                 }
             }
         }
-
-        outputFormat.finalizeResult(entity);
     }
 
-
-    @Override
-    public void onFeatureStart(FeatureType featureType) {
-
-        currentFeature = null;
-        currentResult = null;
-        currentLon = null;
-        currentLat = null;
-        currentTime = null;
-        currentVar = null;
-        currentUom = null;
-        currentVarIdx = null;
-        currentLocationCode = null;
-        currentLocationName = null;
-        currentId = null;
-        currentFeatureProperties = new ArrayList<>(featureType.getProperties().values());
-    }
-
-    @Override
-    public void onFeatureEnd() {
-
-        if (Objects.nonNull(currentLon) && Objects.nonNull(currentLat) &&
-            Objects.nonNull(currentTime) && Objects.nonNull(currentVarIdx) &&
-            Objects.nonNull(currentResult)) {
-
-            boolean added = observations.addValue(currentId, currentLon, currentLat, currentTime, currentVarIdx, currentResult,
-                    currentLocationCode, currentLocationName);
-            if (added)
-                observationCount++;
-
-        } else {
-            // TODO incomplete information, throw error and ignore feature
-
-        }
-
-        currentFeature = null;
-    }
-
-    @Override
-    public void onPropertyStart(FeatureProperty featureProperty, List<Integer> multiplicities) {
-        // TODO current assumptions: no arrays, no object values,
-        //      properties "observedProperty", "phenomenonTime", "result", "locationCode", "locationName", "id";
-        //      other properties are ignored
-
-        FeatureProperty processedFeatureProperty = featureProperty;
-        if (Objects.nonNull(processedFeatureProperty)) {
-
-            List<FeaturePropertySchemaTransformer> schemaTransformations = getSchemaTransformations(processedFeatureProperty);
-            for (FeaturePropertySchemaTransformer schemaTransformer : schemaTransformations) {
-                processedFeatureProperty = schemaTransformer.transform(processedFeatureProperty);
-            }
-        }
-
-        switch (processedFeatureProperty.getName()) {
-            default:
-                currentProperty = null;
-                break;
-            case "observedProperty":
-            case "phenomenonTime":
-            case "result":
-            case "locationCode":
-            case "locationName":
-            case "id":
-                currentProperty = processedFeatureProperty;
+    private void addDataArray(Object entity, DataArrayXyt result) throws IOException {
+        boolean formatAcceptsDataArray = outputFormat.addDataArray(entity, result);
+        if (!formatAcceptsDataArray) {
+            Vector<String> vars = result.getVars();
+            for (int i0 = 0; i0 < result.getWidth(); i0++)
+                for (int i1 = 0; i1 < result.getHeight(); i1++)
+                    for (int i2 = 0; i2 < result.getSteps(); i2++) {
+                        Map<String, Number> map = new HashMap<>();
+                        for (int i3 = 0; i3 < vars.size(); i3++)
+                            if (!Float.isNaN(result.get(i2, i1, i0, i3)))
+                                map.put(vars.get(i3), result.get(i2, i1, i0, i3));
+                        LocalDate date = result.date(i2);
+                        if (!map.isEmpty())
+                            outputFormat.addFeature(entity, Optional.empty(), Optional.empty(),
+                                    new GeometryPoint(result.lon(i0), result.lat(i1)),
+                                    date, date, map);
+                    }
         }
     }
 
-    @Override
-    public void onPropertyText(String text) {
-        if (Objects.nonNull(currentProperty))
-            currentValueBuilder.append(text);
-    }
-
-    @Override
-    public void onPropertyEnd() throws Exception {
-        if (currentValueBuilder.length() > 0) {
-            String value = currentValueBuilder.toString();
-            List<FeaturePropertyValueTransformer> valueTransformations = getValueTransformations(currentProperty);
-            for (FeaturePropertyValueTransformer valueTransformer : valueTransformations) {
-                value = valueTransformer.transform(value);
-                if (Objects.isNull(value))
-                    break;
-            }
-            // skip, if the value has been transformed to null
-            if (Objects.nonNull(value)) {
-                switch (currentProperty.getName()) {
-                    case "observedProperty":
-                        currentVar = value;
-                        currentVarIdx = observations.getOrAddVariable(value);
-                        break;
-                    case "phenomenonTime":
-                        currentTime = interval.getTime(value);
-                        break;
-                    case "result":
-                        currentResult = Float.valueOf(value);
-                        break;
-                    case "locationCode":
-                        currentLocationCode = value;
-                        break;
-                    case "locationName":
-                        currentLocationName = value;
-                        break;
-                    case "id":
-                        currentId = value;
-                        break;
+    private Object process(Object entity) throws IOException {
+        try {
+            return transformationContext.getScheduler().execute(transformationContext.getApiData(), ObservationProcessingScheduler.Priority.of(processes), () -> {
+                Object data = transformationContext.getSelectedObservations().isPresent() ?
+                        transformationContext.getSelectedObservations().get() :
+                        transformationContext.getCacheRequest().isPresent() ?
+                                assembleObservations(transformationContext.getCacheRequest().get()) :
+                                observations;
+                for (FeatureProcess process : processes.asList()) {
+                    data = process.execute(data, processingParameters);
+                    LOGGER.debug("Process '{}' completed.", process.getName());
                 }
-            }
-            currentValueBuilder.setLength(0);
-        }
-
-        this.currentProperty = null;
-
-        // reset
-        currentValueBuilder.setLength(0);
-        currentValue = null;
-        currentProperty = null;
-    }
-
-    @Override
-    public void onGeometryStart(FeatureProperty featureProperty, SimpleFeatureGeometry type, Integer dimension) {
-        if (Objects.nonNull(featureProperty)) {
-
-            currentProperty = featureProperty;
-            currentGeometryType = type;
-
-            // TODO
-            if (type!=SimpleFeatureGeometry.POINT) {
-                // TODO throw error
-            }
-
-            /* TODO
-            ImmutableCoordinatesTransformer.Builder coordinatesTransformerBuilder = ImmutableCoordinatesTransformer.builder();
-
-            if (transformationContext.getCrsTransformer()
-                    .isPresent()) {
-                coordinatesTransformerBuilder.crsTransformer(transformationContext.getCrsTransformer()
-                        .get());
-            }
-
-            //TODO: might set dimension in FromSql2?
-            int fallbackDimension = Objects.nonNull(dimension) ? dimension : 2;
-            coordinatesTransformerBuilder.sourceDimension(transformationContext.getCrsTransformer()
-                    .map(CrsTransformer::getSourceDimension)
-                    .orElse(fallbackDimension));
-            coordinatesTransformerBuilder.targetDimension(transformationContext.getCrsTransformer()
-                    .map(CrsTransformer::getTargetDimension)
-                    .orElse(fallbackDimension));
-
-            //TODO ext
-            if (transformationContext.getMaxAllowableOffset() > 0) {
-                int minPoints = currentGeometryType == SimpleFeatureGeometry.MULTI_POLYGON || currentGeometryType == SimpleFeatureGeometry.POLYGON ? 4 : 2;
-                coordinatesTransformerBuilder.maxAllowableOffset(transformationContext.getMaxAllowableOffset());
-                coordinatesTransformerBuilder.minNumberOfCoordinates(minPoints);
-            }
-
-            if (transformationContext.shouldSwapCoordinates()) {
-                coordinatesTransformerBuilder.isSwapXY(true);
-            }
-
-            if (transformationContext.getGeometryPrecision() > 0) {
-                coordinatesTransformerBuilder.precision(transformationContext.getGeometryPrecision());
-            }
-
-            if (Objects.equals(featureProperty.isForceReversePolygon(), true)) {
-                coordinatesTransformerBuilder.isReverseOrder(true);
-            }
-
-            currentCoordinatesTransformerBuilder = coordinatesTransformerBuilder;
-            currentGeometryNesting = 0;
-             */
-            currentValue = "";
+                if (data instanceof DataArrayXytBands) {
+                    // the bands are resampled while they are written, so only one band is held in memory
+                    DataArrayXytBands bands = (DataArrayXytBands) data;
+                    while (bands.hasNext()) {
+                        DataArrayXyt band = bands.next();
+                        try {
+                            addDataArray(entity, band);
+                        } finally {
+                            band.release();
+                        }
+                    }
+                    return null;
+                }
+                return data;
+            });
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException("Processing of observations failed.", e);
         }
     }
 
-    @Override
-    public void onGeometryNestedStart() {
-        if (Objects.isNull(currentGeometryType))
-            return;
-
-        // TODO throw error
-        currentGeometryNesting++;
-    }
-
-    @Override
-    public void onGeometryCoordinates(String text) {
-        if (Objects.isNull(currentGeometryType))
-            return;
-
-        currentValue += text;
-    }
-
-    @Override
-    public void onGeometryNestedEnd() {
-        // TODO throw error
-        currentGeometryNesting--;
-    }
-
-    @Override
-    public void onGeometryEnd() {
-        if (!currentValue.isEmpty()) {
-            // TODO points only
-            List<String> ords = Splitter.on(Pattern.compile("\\s"))
-                    .trimResults()
-                    .omitEmptyStrings()
-                    .splitToList(Strings.nullToEmpty(currentValue));
-            if (ords.size()>=2) {
-                currentLon = Float.valueOf(ords.get(0));
-                currentLat = Float.valueOf(ords.get(1));
-            } else {
-                // TODO report error
+    private Observations assembleObservations(ObservationProcessingQueriesHandler.ObservationCacheRequest cacheRequest) {
+        Map<String, Map<LocalDate, ObservationChunk>> chunks = new LinkedHashMap<>();
+        cacheRequest.getVariables()
+                    .forEach(variable -> chunks.put(variable, new TreeMap<>(cacheRequest.getCachedChunks().getOrDefault(variable, ImmutableMap.of()))));
+
+        if (cacheRequest.getFetchFirstDay().isPresent() && cacheRequest.getFetchLastDay().isPresent()) {
+            LocalDate firstDay = cacheRequest.getFetchFirstDay().get();
+            LocalDate lastDay = cacheRequest.getFetchLastDay().get();
+            Map<String, Map<LocalDate, ObservationChunk>> fetched = ObservationChunk.split(observations, firstDay, lastDay);
+            fetched.keySet().forEach(variable -> chunks.putIfAbsent(variable, new TreeMap<>()));
+
+            // if the limit has been reached, the response may be incomplete and is not cached
+            boolean complete = !isIncomplete(cacheRequest.getLimit());
+            for (Map.Entry<String, Map<LocalDate, ObservationChunk>> entry : chunks.entrySet()) {
+                Map<LocalDate, ObservationChunk> varChunks = new HashMap<>(fetched.getOrDefault(entry.getKey(), ImmutableMap.of()));
+                for (LocalDate day = firstDay; !day.isAfter(lastDay); day = day.plusDays(1))
+                    varChunks.putIfAbsent(day, ObservationChunk.empty());
+                if (complete)
+                    cacheRequest.getCache().putChunks(transformationContext.getApiData(), transformationContext.getCollectionId(),
+                                                      cacheRequest.getSignature(), entry.getKey(), varChunks);
+                entry.getValue().putAll(varChunks);
             }
+            LOGGER.debug("Observations from {} to {} fetched, cached: {}.", firstDay, lastDay, complete);
         }
 
-        currentProperty = null;
-        currentGeometryType = null;
-        currentValue = null;
+        int count = chunks.values()
+                          .stream()
+                          .flatMap(varChunks -> varChunks.values().stream())
+                          .mapToInt(ObservationChunk::size)
+                          .sum();
+        Observations result = new Observations(count);
+        chunks.forEach((variable, varChunks) -> varChunks.values()
+                                                         .forEach(chunk -> chunk.addTo(result, variable, cacheRequest.getBegin(), cacheRequest.getEnd())));
+        return result;
     }
 }
@@ -0,0 +1,352 @@
+/**
+ * Copyright 2021 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.observation_processing.api;
+
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import de.ii.ldproxy.ogcapi.domain.OgcApiDataV2;
+import de.ii.ldproxy.ogcapi.features.core.domain.FeatureTransformerBase;
+import de.ii.ldproxy.ogcapi.features.geojson.domain.GeoJsonConfiguration;
+import de.ii.ldproxy.ogcapi.observation_processing.application.ObservationProcessingConfiguration;
+import de.ii.ldproxy.ogcapi.observation_processing.application.ResultFormatExtensionGeoJson;
+import de.ii.ldproxy.ogcapi.observation_processing.data.Observations;
+import de.ii.xtraplatform.codelists.domain.Codelist;
+import de.ii.xtraplatform.features.domain.FeatureProperty;
+import de.ii.xtraplatform.features.domain.FeatureType;
+import de.ii.xtraplatform.features.domain.transform.FeaturePropertySchemaTransformer;
+import de.ii.xtraplatform.features.domain.transform.FeaturePropertyValueTransformer;
+import de.ii.xtraplatform.geometries.domain.ImmutableCoordinatesTransformer;
+import de.ii.xtraplatform.geometries.domain.SimpleFeatureGeometry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.temporal.Temporal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.regex.Pattern;
+
+/**
+ * Reads the observation features of a feature stream into {@link Observations}.
+ */
+public class FeatureTransformerObservations extends FeatureTransformerBase {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FeatureTransformerObservations.class);
+
+    private final TemporalInterval interval;
+    private final long memoryBudget;
+
+    private SimpleFeatureGeometry currentGeometryType;
+    private ImmutableCoordinatesTransformer.Builder currentCoordinatesTransformerBuilder;
+    private int currentGeometryNesting;
+
+    private Object currentFeature;
+    private StringBuilder currentValueBuilder = new StringBuilder();
+    private String currentValue = null;
+    private FeatureProperty currentProperty = null;
+    private ArrayList<FeatureProperty> currentFeatureProperties = null;
+    protected Observations observations;
+    protected int observationCount = 0;
+    protected int featureCount = 0;
+    protected boolean incomplete = false;
+    private Float currentResult;
+    private Float currentLon;
+    private Float currentLat;
+    private Temporal currentTime;
+    private String currentVar;
+    private String currentUom;
+    private Integer currentVarIdx;
+    private String currentLocationCode;
+    private String currentLocationName;
+    private String currentId;
+
+    /**
+     * @param interval the requested time interval, used to parse the phenomenon time
+     * @param memoryBudget the number of bytes of received observations that are kept on the heap during the ingest, 0 for no limit
+     */
+    public FeatureTransformerObservations(OgcApiDataV2 apiData, String collectionId, Map<String, Codelist> codelists,
+                                          String serviceUrl, boolean isFeatureCollection, TemporalInterval interval,
+                                          long memoryBudget) {
+        super(GeoJsonConfiguration.class, apiData, collectionId, codelists, serviceUrl, isFeatureCollection);
+        this.interval = interval;
+        this.memoryBudget = memoryBudget;
+    }
+
+    public static long getMemoryBudget(ObservationProcessingConfiguration configuration) {
+        return Optional.ofNullable(configuration)
+                       .map(ObservationProcessingConfiguration::getIngestMemoryBudgetMb)
+                       .map(mb -> mb * 1024L * 1024L)
+                       .orElse(0L);
+    }
+
+    @Override
+    public String getTargetFormat() {
+        return ResultFormatExtensionGeoJson.MEDIA_TYPE.toString();
+    }
+
+    /**
+     * @return the observations that have been received
+     */
+    public Observations getObservations() {
+        return observations;
+    }
+
+    /**
+     * @return {@code true}, if not all matching observations have been received
+     */
+    public boolean isIncomplete(int limit) {
+        return incomplete || featureCount >= limit;
+    }
+
+    @Override
+    public void onStart(OptionalLong numberReturned, OptionalLong numberMatched) {
+
+        if (numberReturned.isPresent()) {
+            long returned = numberReturned.getAsLong();
+            long matched = numberMatched.orElse(-1);
+            LOGGER.debug("numberMatched {}", matched);
+            LOGGER.debug("numberReturned {}", returned);
+            incomplete = matched > returned;
+            observations = new Observations((int) Math.min(returned, Integer.MAX_VALUE), memoryBudget);
+        } else {
+            // the number of observations is unknown, the buffers grow with the observations that are received
+            observations = new Observations(0, memoryBudget);
+        }
+
+        // TODO if numberMatched is the page size, abort?
+    }
+
+    @Override
+    public void onEnd() throws IOException {
+
+        LOGGER.debug("{} observations received.", observationCount);
+    }
+
+    @Override
+    public void onFeatureStart(FeatureType featureType) {
+
+        currentFeature = null;
+        currentResult = null;
+        currentLon = null;
+        currentLat = null;
+        currentTime = null;
+        currentVar = null;
+        currentUom = null;
+        currentVarIdx = null;
+        currentLocationCode = null;
+        currentLocationName = null;
+        currentId = null;
+        currentFeatureProperties = new ArrayList<>(featureType.getProperties().values());
+    }
+
+    @Override
+    public void onFeatureEnd() {
+
+        featureCount++;
+
+        if (Objects.nonNull(currentLon) && Objects.nonNull(currentLat) &&
+            Objects.nonNull(currentTime) && Objects.nonNull(currentVarIdx) &&
+            Objects.nonNull(currentResult)) {
+
+            boolean added = observations.addValue(currentId, currentLon, currentLat, currentTime, currentVarIdx, currentResult,
+                    currentLocationCode, currentLocationName);
+            if (added)
+                observationCount++;
+
+        } else {
+            // TODO incomplete information, throw error and ignore feature
+
+        }
+
+        currentFeature = null;
+    }
+
+    @Override
+    public void onPropertyStart(FeatureProperty featureProperty, List<Integer> multiplicities) {
+        // TODO current assumptions: no arrays, no object values,
+        //      properties "observedProperty", "phenomenonTime", "result", "locationCode", "locationName", "id";
+        //      other properties are ignored
+
+        FeatureProperty processedFeatureProperty = featureProperty;
+        if (Objects.nonNull(processedFeatureProperty)) {
+
+            List<FeaturePropertySchemaTransformer> schemaTransformations = getSchemaTransformations(processedFeatureProperty);
+            for (FeaturePropertySchemaTransformer schemaTransformer : schemaTransformations) {
+                processedFeatureProperty = schemaTransformer.transform(processedFeatureProperty);
+            }
+        }
+
+        switch (processedFeatureProperty.getName()) {
+            default:
+                currentProperty = null;
+                break;
+            case "observedProperty":
+            case "phenomenonTime":
+            case "result":
+            case "locationCode":
+            case "locationName":
+            case "id":
+                currentProperty = processedFeatureProperty;
+        }
+    }
+
+    @Override
+    public void onPropertyText(String text) {
+        if (Objects.nonNull(currentProperty))
+            currentValueBuilder.append(text);
+    }
+
+    @Override
+    public void onPropertyEnd() throws Exception {
+        if (currentValueBuilder.length() > 0) {
+            String value = currentValueBuilder.toString();
+            List<FeaturePropertyValueTransformer> valueTransformations = getValueTransformations(currentProperty);
+            for (FeaturePropertyValueTransformer valueTransformer : valueTransformations) {
+                value = valueTransformer.transform(value);
+                if (Objects.isNull(value))
+                    break;
+            }
+            // skip, if the value has been transformed to null
+            if (Objects.nonNull(value)) {
+                switch (currentProperty.getName()) {
+                    case "observedProperty":
+                        currentVar = value;
+                        currentVarIdx = observations.getOrAddVariable(value);
+                        break;
+                    case "phenomenonTime":
+                        currentTime = interval.getTime(value);
+                        break;
+                    case "result":
+                        currentResult = Float.valueOf(value);
+                        break;
+                    case "locationCode":
+                        currentLocationCode = value;
+                        break;
+                    case "locationName":
+                        currentLocationName = value;
+                        break;
+                    case "id":
+                        currentId = value;
+                        break;
+                }
+            }
+            currentValueBuilder.setLength(0);
+        }
+
+        this.currentProperty = null;
+
+        // reset
+        currentValueBuilder.setLength(0);
+        currentValue = null;
+        currentProperty = null;
+    }
+
+    @Override
+    public void onGeometryStart(FeatureProperty featureProperty, SimpleFeatureGeometry type, Integer dimension) {
+        if (Objects.nonNull(featureProperty)) {
+
+            currentProperty = featureProperty;
+            currentGeometryType = type;
+
+            // TODO
+            if (type!=SimpleFeatureGeometry.POINT) {
+                // TODO throw error
+            }
+
+            /* TODO
+            ImmutableCoordinatesTransformer.Builder coordinatesTransformerBuilder = ImmutableCoordinatesTransformer.builder();
+
+            if (transformationContext.getCrsTransformer()
+                    .isPresent()) {
+                coordinatesTransformerBuilder.crsTransformer(transformationContext.getCrsTransformer()
+                        .get());
+            }
+
+            //TODO: might set dimension in FromSql2?
+            int fallbackDimension = Objects.nonNull(dimension) ? dimension : 2;
+            coordinatesTransformerBuilder.sourceDimension(transformationContext.getCrsTransformer()
+                    .map(CrsTransformer::getSourceDimension)
+                    .orElse(fallbackDimension));
+            coordinatesTransformerBuilder.targetDimension(transformationContext.getCrsTransformer()
+                    .map(CrsTransformer::getTargetDimension)
+                    .orElse(fallbackDimension));
+
+            //TODO ext
+            if (transformationContext.getMaxAllowableOffset() > 0) {
+                int minPoints = currentGeometryType == SimpleFeatureGeometry.MULTI_POLYGON || currentGeometryType == SimpleFeatureGeometry.POLYGON ? 4 : 2;
+                coordinatesTransformerBuilder.maxAllowableOffset(transformationContext.getMaxAllowableOffset());
+                coordinatesTransformerBuilder.minNumberOfCoordinates(minPoints);
+            }
+
+            if (transformationContext.shouldSwapCoordinates()) {
+                coordinatesTransformerBuilder.isSwapXY(true);
+            }
+
+            if (transformationContext.getGeometryPrecision() > 0) {
+                coordinatesTransformerBuilder.precision(transformationContext.getGeometryPrecision());
+            }
+
+            if (Objects.equals(featureProperty.isForceReversePolygon(), true)) {
+                coordinatesTransformerBuilder.isReverseOrder(true);
+            }
+
+            currentCoordinatesTransformerBuilder = coordinatesTransformerBuilder;
+            currentGeometryNesting = 0;
+             */
+            currentValue = "";
+        }
+    }
+
+    @Override
+    public void onGeometryNestedStart() {
+        if (Objects.isNull(currentGeometryType))
+            return;
+
+        // TODO throw error
+        currentGeometryNesting++;
+    }
+
+    @Override
+    public void onGeometryCoordinates(String text) {
+        if (Objects.isNull(currentGeometryType))
+            return;
+
+        currentValue += text;
+    }
+
+    @Override
+    public void onGeometryNestedEnd() {
+        // TODO throw error
+        currentGeometryNesting--;
+    }
+
+    @Override
+    public void onGeometryEnd() {
+        if (!currentValue.isEmpty()) {
+            // TODO points only
+            List<String> ords = Splitter.on(Pattern.compile("\\s"))
+                    .trimResults()
+                    .omitEmptyStrings()
+                    .splitToList(Strings.nullToEmpty(currentValue));
+            if (ords.size()>=2) {
+                currentLon = Float.valueOf(ords.get(0));
+                currentLat = Float.valueOf(ords.get(1));
+            } else {
+                // TODO report error
+            }
+        }
+
+        currentProperty = null;
+        currentGeometryType = null;
+        currentValue = null;
+    }
+}
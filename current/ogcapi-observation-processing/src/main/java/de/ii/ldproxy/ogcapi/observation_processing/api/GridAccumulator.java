@@ -0,0 +1,25 @@
+/**
+ * Copyright 2021 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.observation_processing.api;
+
+/**
+ * A statistical function over the time steps of each cell of a grid. The time steps are added one plane at a time,
+ * so the time series of the cells are never stored.
+ */
+public interface GridAccumulator {
+
+    /**
+     * @param plane the values of the cells at a time step in row-major order, NaN values are skipped
+     */
+    void add(float[] plane);
+
+    /**
+     * @param results receives the value of each cell, NaN for cells without values
+     */
+    void getValues(float[] results);
+}
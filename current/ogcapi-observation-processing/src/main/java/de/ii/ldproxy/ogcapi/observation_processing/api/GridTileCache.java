@@ -0,0 +1,39 @@
+/**
+ * Copyright 2021 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.observation_processing.api;
+
+import de.ii.ldproxy.ogcapi.domain.OgcApiDataV2;
+import de.ii.ldproxy.ogcapi.observation_processing.data.DataArrayXyt;
+import de.ii.ldproxy.ogcapi.observation_processing.data.SpatialIndex;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Cache of the grids of the tiles of a collection (parameter `tile`), keyed by the tile, the variables and the time
+ * interval. The cached grids must not be modified.
+ */
+public interface GridTileCache {
+
+    boolean isEnabled(OgcApiDataV2 apiData, String collectionId);
+
+    Optional<DataArrayXyt> getTile(OgcApiDataV2 apiData, String collectionId, String key);
+
+    void putTile(OgcApiDataV2 apiData, String collectionId, String key, DataArrayXyt tile);
+
+    /**
+     * @param fingerprint the fingerprint of the observations, it covers filters and changes of the data
+     * @return the key of the grid of a tile, it has all parameters that the grid is resampled with
+     */
+    static String getKey(String tile, List<String> variables, TemporalInterval interval, long fingerprint,
+                         int idwCount, double idwDistanceKm, double idwPower, double tolerance,
+                         SpatialIndex.Type indexType, double indexErrorBound) {
+        return String.format("%s/%s/%s/%s/%d/%016x/%d/%s/%s/%s/%s/%s", tile, String.join(",", variables), interval.getBegin(), interval.getEnd(), interval.getSteps(),
+                             fingerprint, idwCount, idwDistanceKm, idwPower, tolerance, indexType, indexErrorBound);
+    }
+}
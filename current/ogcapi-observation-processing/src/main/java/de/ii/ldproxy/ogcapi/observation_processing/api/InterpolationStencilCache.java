@@ -0,0 +1,24 @@
+/**
+ * Copyright 2021 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.observation_processing.api;
+
+import de.ii.ldproxy.ogcapi.domain.OgcApiDataV2;
+import de.ii.ldproxy.ogcapi.observation_processing.data.InterpolationStencils;
+
+/**
+ * Cache of the interpolation stencils of collections, the neighbours and weights of the cells of grids and of
+ * positions. Repeated requests for the same grid or position skip the neighbour search, as long as the positions and
+ * times of the observations are unchanged.
+ */
+public interface InterpolationStencilCache {
+
+    /**
+     * @return the stencils of the collection, {@link InterpolationStencils#NONE}, if the cache is disabled
+     */
+    InterpolationStencils getStencils(OgcApiDataV2 apiData, String collectionId);
+}
@@ -0,0 +1,34 @@
+/**
+ * Copyright 2021 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.observation_processing.api;
+
+import de.ii.ldproxy.ogcapi.domain.OgcApiDataV2;
+import de.ii.ldproxy.ogcapi.observation_processing.data.ObservationChunk;
+
+import java.time.LocalDate;
+import java.util.Map;
+
+/**
+ * Cache of the observations that have been received from the feature provider, partitioned by collection,
+ * query signature (the query parameters that restrict the feature query, except the time and the variables),
+ * variable and day. A cached chunk always contains all observations of the day.
+ */
+public interface ObservationCache {
+
+    boolean isEnabled(OgcApiDataV2 apiData, String collectionId);
+
+    /**
+     * @return the cached chunks of the variable between {@code firstDay} and {@code lastDay}; days that are not
+     * in the cache are missing in the result
+     */
+    Map<LocalDate, ObservationChunk> getChunks(OgcApiDataV2 apiData, String collectionId, String signature,
+                                               String variable, LocalDate firstDay, LocalDate lastDay);
+
+    void putChunks(OgcApiDataV2 apiData, String collectionId, String signature,
+                   String variable, Map<LocalDate, ObservationChunk> chunks);
+}
@@ -14,11 +14,15 @@ import de.ii.ldproxy.ogcapi.domain.QueryInput;
 import de.ii.ldproxy.ogcapi.features.core.domain.processing.FeatureProcessChain;
 import de.ii.ldproxy.ogcapi.features.core.domain.processing.Processing;
 import de.ii.ldproxy.ogcapi.observation_processing.application.Variable;
+import de.ii.ldproxy.ogcapi.observation_processing.data.ObservationChunk;
+import de.ii.ldproxy.ogcapi.observation_processing.data.Observations;
 import de.ii.xtraplatform.crs.domain.EpsgCrs;
 import de.ii.xtraplatform.features.domain.FeatureProvider2;
 import de.ii.xtraplatform.features.domain.FeatureQuery;
 import org.immutables.value.Value;
 
+import java.time.LocalDate;
+import java.time.temporal.Temporal;
 import java.util.*;
 
 public interface ObservationProcessingQueriesHandler extends QueriesHandler<ObservationProcessingQueriesHandler.Query> {
@@ -45,6 +49,33 @@ public interface ObservationProcessingQueriesHandler extends QueriesHandler<Obse
         FeatureProcessChain getProcesses();
         Map<String, Object> getProcessingParameters();
 
+        // the observation cache, if enabled
+        Optional<ObservationCacheRequest> getCacheRequest();
+
+        // the observations, if they have been selected from a snapshot; no feature query is executed in this case
+        Optional<Observations> getSelectedObservations();
+    }
+
+    @Value.Immutable
+    interface ObservationCacheRequest {
+
+        ObservationCache getCache();
+        String getSignature();
+        List<String> getVariables();
+
+        // the time window of the observations that are processed
+        Temporal getBegin();
+        Temporal getEnd();
+
+        // the chunks that are already in the cache
+        Map<String, Map<LocalDate, ObservationChunk>> getCachedChunks();
+
+        // the days that are fetched with the feature query, if any
+        Optional<LocalDate> getFetchFirstDay();
+        Optional<LocalDate> getFetchLastDay();
+
+        // the limit of the feature query, a response with this number of observations may be incomplete and is not cached
+        int getLimit();
     }
 
     @Value.Immutable
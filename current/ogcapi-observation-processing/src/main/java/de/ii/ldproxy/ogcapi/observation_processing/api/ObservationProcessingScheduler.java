@@ -0,0 +1,49 @@
+/**
+ * Copyright 2021 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.observation_processing.api;
+
+import de.ii.ldproxy.ogcapi.domain.OgcApiDataV2;
+import de.ii.ldproxy.ogcapi.features.core.domain.processing.FeatureProcessChain;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Executes observation processing jobs on a bounded pool of each API instead of the common pool. Parallel streams
+ * that are used by a job run on the pool of the job, too. Jobs of a higher priority class are started first.
+ */
+public interface ObservationProcessingScheduler {
+
+    enum Priority {
+        // the order is the order of precedence
+        POSITION, AREA, GRID;
+
+        public static Priority of(FeatureProcessChain processes) {
+            String name = processes.asList().isEmpty() ? "" : processes.asList().get(0).getName();
+            switch (name) {
+                case "position":
+                    return POSITION;
+                case "grid":
+                    return GRID;
+                default:
+                    return AREA;
+            }
+        }
+    }
+
+    /**
+     * Execute a job and wait for the result.
+     *
+     * @param apiData the API
+     * @param priority the priority class of the job
+     * @param job the job
+     * @param <T> the type of the result
+     * @return the result of the job
+     * @throws Exception the exception thrown by the job
+     */
+    <T> T execute(OgcApiDataV2 apiData, Priority priority, Callable<T> job) throws Exception;
+}
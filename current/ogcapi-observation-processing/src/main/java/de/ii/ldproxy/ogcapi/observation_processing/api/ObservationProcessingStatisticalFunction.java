@@ -13,13 +13,43 @@ import de.ii.ldproxy.ogcapi.domain.FeatureTypeConfigurationOgcApi;
 import de.ii.ldproxy.ogcapi.domain.ProcessExtension;
 import de.ii.ldproxy.ogcapi.observation_processing.application.ObservationProcessingConfiguration;
 
+import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 public interface ObservationProcessingStatisticalFunction extends ProcessExtension {
     Number getValue(CopyOnWriteArrayList<Number> values);
     Class getType();
     default boolean isDefault() { return true; }
 
+    /**
+     * By default, the values of each cell are collected and passed to {@link #getValue(CopyOnWriteArrayList)}, functions
+     * that can be computed incrementally should override this.
+     *
+     * @param cells the number of cells of the grid
+     * @return the function for each cell of a grid
+     */
+    default GridAccumulator createGridAccumulator(int cells) {
+        List<CopyOnWriteArrayList<Number>> values = IntStream.range(0, cells)
+                                                             .mapToObj(cell -> new CopyOnWriteArrayList<Number>())
+                                                             .collect(Collectors.toList());
+        return new GridAccumulator() {
+            @Override
+            public void add(float[] plane) {
+                for (int cell = 0; cell < cells; cell++)
+                    if (!Float.isNaN(plane[cell]))
+                        values.get(cell).add(plane[cell]);
+            }
+
+            @Override
+            public void getValues(float[] results) {
+                for (int cell = 0; cell < cells; cell++)
+                    results[cell] = values.get(cell).isEmpty() ? Float.NaN : getValue(values.get(cell)).floatValue();
+            }
+        };
+    }
+
     @Override
     default boolean isEnabledForApi(OgcApiDataV2 apiData) {
         return isExtensionEnabled(apiData, ObservationProcessingConfiguration.class) ||
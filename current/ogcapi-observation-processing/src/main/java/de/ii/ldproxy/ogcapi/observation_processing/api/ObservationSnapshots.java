@@ -0,0 +1,25 @@
+/**
+ * Copyright 2021 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.observation_processing.api;
+
+import de.ii.ldproxy.ogcapi.domain.OgcApiDataV2;
+import de.ii.ldproxy.ogcapi.observation_processing.data.ObservationSnapshot;
+
+import java.util.Optional;
+
+/**
+ * Memory-mapped snapshots of the observations of collections, if configured. The snapshots are created and
+ * refreshed in the background.
+ */
+public interface ObservationSnapshots {
+
+    /**
+     * @return the current snapshot of the collection, if snapshots are enabled and a snapshot is available
+     */
+    Optional<ObservationSnapshot> getSnapshot(OgcApiDataV2 apiData, String collectionId);
+}
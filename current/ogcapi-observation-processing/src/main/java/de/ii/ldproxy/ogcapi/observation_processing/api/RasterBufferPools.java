@@ -0,0 +1,24 @@
+/**
+ * Copyright 2021 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.observation_processing.api;
+
+import de.ii.ldproxy.ogcapi.domain.OgcApiDataV2;
+import de.ii.ldproxy.ogcapi.observation_processing.data.RasterBufferPool;
+
+/**
+ * The pools of the raster buffers of the APIs. The grids of a request acquire their planes from the pool of the API
+ * and release them, when the response has been written, so that later requests reuse the buffers instead of
+ * allocating large arrays.
+ */
+public interface RasterBufferPools {
+
+    /**
+     * @return the pool of the API, {@link RasterBufferPool#NONE}, if no buffers are retained
+     */
+    RasterBufferPool getPool(OgcApiDataV2 apiData);
+}
@@ -13,6 +13,7 @@ import de.ii.ldproxy.ogcapi.domain.ExtensionConfiguration;
 import de.ii.ldproxy.ogcapi.domain.ExtensionRegistry;
 import de.ii.ldproxy.ogcapi.domain.FormatExtension;
 import de.ii.ldproxy.ogcapi.observation_processing.api.DapaResultFormatExtension;
+import de.ii.ldproxy.ogcapi.observation_processing.data.SpatialIndex;
 import org.apache.felix.ipojo.annotations.Component;
 import org.apache.felix.ipojo.annotations.Instantiate;
 import org.apache.felix.ipojo.annotations.Provides;
@@ -41,6 +42,15 @@ public class CapabilityObservationProcessing implements ApiBuildingBlock {
                                                                         .idwPower(3.0)
                                                                         .idwCount(8)
                                                                         .idwDistanceKm(300.0)
+                                                                        .spatialIndex(SpatialIndex.Type.AUTO)
+                                                                        .spatialIndexErrorBound(0.1)
+                                                                        .gridTolerance(0.0)
+                                                                        .cacheExpiresAfterMinutes(60)
+                                                                        .stencilCacheMaxNeighbours(4_000_000)
+                                                                        .tileCacheMaxValues(16_000_000)
+                                                                        .bufferPoolMaxMegabytes(256)
+                                                                        .snapshotRefreshMinutes(24*60)
+                                                                        .processingMaxConcurrentJobs(2)
                                                                         .build();
     }
 }
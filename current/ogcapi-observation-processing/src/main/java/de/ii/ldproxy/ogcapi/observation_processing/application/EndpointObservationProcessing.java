@@ -35,9 +35,19 @@ import de.ii.ldproxy.ogcapi.features.core.domain.processing.FeatureProcessChain;
 import de.ii.ldproxy.ogcapi.features.core.domain.processing.FeatureProcessInfo;
 import de.ii.ldproxy.ogcapi.features.core.domain.processing.ProcessDocumentation;
 import de.ii.ldproxy.ogcapi.observation_processing.api.DapaResultFormatExtension;
+import de.ii.ldproxy.ogcapi.observation_processing.api.ImmutableObservationCacheRequest;
 import de.ii.ldproxy.ogcapi.observation_processing.api.ImmutableQueryInputObservationProcessing;
+import de.ii.ldproxy.ogcapi.observation_processing.api.ObservationCache;
 import de.ii.ldproxy.ogcapi.observation_processing.api.ObservationProcess;
 import de.ii.ldproxy.ogcapi.observation_processing.api.ObservationProcessingQueriesHandler;
+import de.ii.ldproxy.ogcapi.observation_processing.api.ObservationSnapshots;
+import de.ii.ldproxy.ogcapi.observation_processing.api.TemporalInterval;
+import de.ii.ldproxy.ogcapi.observation_processing.data.GeometryMultiPolygon;
+import de.ii.ldproxy.ogcapi.observation_processing.data.GeometryPoint;
+import de.ii.ldproxy.ogcapi.observation_processing.data.ObservationChunk;
+import de.ii.ldproxy.ogcapi.observation_processing.data.ObservationSnapshot;
+import de.ii.ldproxy.ogcapi.observation_processing.data.Observations;
+import de.ii.ldproxy.ogcapi.observation_processing.parameters.QueryParameterTile;
 import de.ii.xtraplatform.auth.domain.User;
 import de.ii.xtraplatform.features.domain.FeatureQuery;
 import io.dropwizard.auth.Auth;
@@ -56,10 +66,21 @@ import javax.ws.rs.core.Context;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriInfo;
 import java.text.MessageFormat;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.Temporal;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.stream.Collectors;
+
+import static de.ii.ldproxy.ogcapi.observation_processing.parameters.QueryParameterCoordPosition.BUFFER;
+import static de.ii.ldproxy.ogcapi.observation_processing.parameters.QueryParameterCoordPosition.R;
+import static de.ii.ldproxy.ogcapi.observation_processing.parameters.QueryParameterDatetimeDapa.TIME_BUFFER;
+import static de.ii.ldproxy.ogcapi.observation_processing.parameters.QueryParameterDatetimeDapa.TIME_BUFFER_DAYS;
 
 @Component
 @Provides
@@ -74,17 +95,23 @@ public class EndpointObservationProcessing extends EndpointSubCollection {
     final FeaturesQuery ogcApiFeaturesQuery;
     final ObservationProcessingQueriesHandler queryHandler;
     final FeatureProcessInfo featureProcessInfo;
+    final ObservationCache observationCache;
+    final ObservationSnapshots observationSnapshots;
 
     public EndpointObservationProcessing(@Requires ExtensionRegistry extensionRegistry,
                                          @Requires FeaturesCoreProviders providers,
                                          @Requires FeaturesQuery ogcApiFeaturesQuery,
                                          @Requires ObservationProcessingQueriesHandler queryHandler,
-                                         @Requires FeatureProcessInfo featureProcessInfo) {
+                                         @Requires FeatureProcessInfo featureProcessInfo,
+                                         @Requires ObservationCache observationCache,
+                                         @Requires ObservationSnapshots observationSnapshots) {
         super(extensionRegistry);
         this.providers = providers;
         this.ogcApiFeaturesQuery = ogcApiFeaturesQuery;
         this.queryHandler = queryHandler;
         this.featureProcessInfo = featureProcessInfo;
+        this.observationCache = observationCache;
+        this.observationSnapshots = observationSnapshots;
     }
 
     @Override
@@ -298,6 +325,7 @@ public class EndpointObservationProcessing extends EndpointSubCollection {
                                                 .map(FoundationConfiguration::getIncludeLinkHeader)
                                                 .orElse(false);
         Map<String, String> queryParams = toFlatMap(uriInfo.getQueryParameters());
+        Map<String, String> originalQueryParams = new HashMap<>(queryParams);
 
         // first execute the information that is passed as processing parameters
         Map<String, Object> processingParameters = new HashMap<>();
@@ -313,6 +341,19 @@ public class EndpointObservationProcessing extends EndpointSubCollection {
         }
         // now execute the information to construct the feature query
         queryParams.put("limit", String.valueOf(maxPageSize));
+        // a snapshot cannot evaluate other restrictions of the features
+        Optional<Observations> selectedObservations = FeatureQueryParameters.isSnapshotRequest(originalQueryParams) ?
+                observationSnapshots.getSnapshot(apiData, collectionId)
+                                    .flatMap(snapshot -> selectObservations(snapshot, processChain, processingParameters)) :
+                Optional.empty();
+        Optional<ObservationProcessingQueriesHandler.ObservationCacheRequest> cacheRequest = selectedObservations.isPresent() ?
+                Optional.empty() :
+                getCacheRequest(apiData, collectionId, processChain, processingParameters, originalQueryParams, maxPageSize);
+        if (cacheRequest.isPresent() && cacheRequest.get().getFetchFirstDay().isPresent()) {
+            // only query the days that are not in the cache
+            queryParams.put("datetime", FeatureQueryParameters.getFetchDatetime(cacheRequest.get().getFetchFirstDay().get(),
+                                                                                cacheRequest.get().getFetchLastDay().get(), TIME_BUFFER_DAYS));
+        }
         FeatureQuery query = ogcApiFeaturesQuery.requestToFeatureQuery(apiData, collectionData, coreConfiguration, minimumPageSize, defaultPageSize, maxPageSize, queryParams, allowedParameters);
 
         List<Variable> variables = apiData.getExtension(ObservationProcessingConfiguration.class)
@@ -328,9 +369,132 @@ public class EndpointObservationProcessing extends EndpointSubCollection {
                 .processingParameters(processingParameters)
                 .defaultCrs(coreConfiguration.getDefaultEpsgCrs())
                 .includeLinkHeader(includeLinkHeader)
+                .cacheRequest(cacheRequest)
+                .selectedObservations(selectedObservations)
                 .build();
 
         ObservationProcessingQueriesHandler.Query process = ObservationProcessingQueriesHandlerImpl.Query.PROCESS;
         return queryHandler.handle(process, queryInput, requestContext);
     }
+
+    private Optional<ObservationProcessingQueriesHandler.ObservationCacheRequest> getCacheRequest(OgcApiDataV2 apiData, String collectionId, FeatureProcessChain processChain,
+                                                                                               Map<String, Object> processingParameters, Map<String, String> queryParams, int limit) {
+        TemporalInterval interval = (TemporalInterval) processingParameters.get("interval");
+        List<String> variables = (List<String>) processingParameters.get("variables");
+        if (!observationCache.isEnabled(apiData, collectionId) || Objects.isNull(interval) ||
+                Objects.isNull(interval.getBegin()) || Objects.isNull(interval.getEnd()) ||
+                Objects.isNull(variables) || variables.isEmpty())
+            return Optional.empty();
+
+        Temporal begin = getBufferedBegin(interval);
+        Temporal end = getBufferedEnd(interval);
+        LocalDate firstDay = toDay(begin);
+        LocalDate lastDay = toDay(end);
+
+        // a tile restricts the features to its bounding box
+        Map<String, String> signatureParams = new HashMap<>(queryParams);
+        Optional.ofNullable(signatureParams.remove("tile"))
+                .ifPresent(tile -> signatureParams.put("bbox", QueryParameterTile.getBbox(tile)
+                                                                                 .stream()
+                                                                                 .map(String::valueOf)
+                                                                                 .collect(Collectors.joining(","))));
+        Optional<String> optionalSignature = FeatureQueryParameters.getCacheSignature(processChain.asList().get(0).getName(), signatureParams);
+        if (!optionalSignature.isPresent())
+            return Optional.empty();
+        String signature = optionalSignature.get();
+
+        Map<String, Map<LocalDate, ObservationChunk>> cachedChunks = new HashMap<>();
+        LocalDate firstMissingDay = null;
+        LocalDate lastMissingDay = null;
+        for (String variable : variables) {
+            Map<LocalDate, ObservationChunk> chunks = observationCache.getChunks(apiData, collectionId, signature, variable, firstDay, lastDay);
+            cachedChunks.put(variable, chunks);
+            for (LocalDate day = firstDay; !day.isAfter(lastDay); day = day.plusDays(1)) {
+                if (!chunks.containsKey(day)) {
+                    if (Objects.isNull(firstMissingDay) || day.isBefore(firstMissingDay))
+                        firstMissingDay = day;
+                    if (Objects.isNull(lastMissingDay) || day.isAfter(lastMissingDay))
+                        lastMissingDay = day;
+                }
+            }
+        }
+
+        ImmutableObservationCacheRequest.Builder builder = new ImmutableObservationCacheRequest.Builder()
+                .cache(observationCache)
+                .signature(signature)
+                .variables(variables)
+                .begin(begin)
+                .end(end)
+                .cachedChunks(cachedChunks)
+                .limit(limit);
+        if (Objects.nonNull(firstMissingDay)) {
+            // the datetime parameter adds the buffer on both sides, so at least that number of days is queried
+            LocalDate minLastDay = firstMissingDay.plusDays(2 * TIME_BUFFER_DAYS);
+            if (lastMissingDay.isBefore(minLastDay))
+                lastMissingDay = minLastDay;
+            builder.fetchFirstDay(firstMissingDay)
+                   .fetchLastDay(lastMissingDay);
+            LOGGER.debug("Observation cache: fetching the days from {} to {}.", firstMissingDay, lastMissingDay);
+        } else {
+            LOGGER.debug("Observation cache: all days from {} to {} are cached.", firstDay, lastDay);
+        }
+
+        return Optional.of(builder.build());
+    }
+
+    private Optional<Observations> selectObservations(ObservationSnapshot snapshot, FeatureProcessChain processChain, Map<String, Object> processingParameters) {
+        TemporalInterval interval = (TemporalInterval) processingParameters.get("interval");
+        List<String> variables = (List<String>) processingParameters.get("variables");
+        if (Objects.isNull(interval) || Objects.isNull(interval.getBegin()) || Objects.isNull(interval.getEnd()) ||
+                Objects.isNull(variables))
+            return Optional.empty();
+
+        // observations after the creation of the snapshot or beyond the limit of its feature query are only in the features
+        if (!snapshot.covers(getBufferedEnd(interval))) {
+            LOGGER.debug("The snapshot created at {} does not cover the request.", snapshot.getCreated());
+            return Optional.empty();
+        }
+
+        // the same spatial selection as in the feature query: a buffered bounding box for a position or a grid, the area otherwise
+        GeometryPoint point = (GeometryPoint) processingParameters.get("point");
+        GeometryMultiPolygon area = (GeometryMultiPolygon) processingParameters.get("area");
+        double[] bbox = null;
+        if (Objects.nonNull(point)) {
+            bbox = getBufferedBbox(new double[]{point.getLon(), point.getLat(), point.getLon(), point.getLat()});
+        } else if (Objects.nonNull(area) && processChain.asList().get(0).getName().equals("grid")) {
+            bbox = getBufferedBbox(area.getBbox());
+            area = null;
+        } else if (Objects.isNull(area)) {
+            return Optional.empty();
+        }
+
+        Observations observations = snapshot.select(variables, getBufferedBegin(interval), getBufferedEnd(interval), bbox, area);
+        LOGGER.debug("Observations selected from the snapshot created at {}.", snapshot.getCreated());
+        return Optional.of(observations);
+    }
+
+    // the time window of the feature query, including the buffer
+    private static Temporal getBufferedBegin(TemporalInterval interval) {
+        return interval.getBegin() instanceof LocalDate ?
+                ((LocalDate) interval.getBegin()).minusDays(TIME_BUFFER_DAYS) :
+                ((OffsetDateTime) interval.getBegin()).minusSeconds(TIME_BUFFER);
+    }
+
+    private static Temporal getBufferedEnd(TemporalInterval interval) {
+        return interval.getEnd() instanceof LocalDate ?
+                ((LocalDate) interval.getEnd()).plusDays(TIME_BUFFER_DAYS) :
+                ((OffsetDateTime) interval.getEnd()).plusSeconds(TIME_BUFFER);
+    }
+
+    private static double[] getBufferedBbox(double[] bbox) {
+        double lonBuffer = BUFFER / (R * Math.cos(bbox[1] / 180.0 * Math.PI) * Math.PI / 180.0);
+        double latBuffer = BUFFER / (R * Math.PI / 180.0);
+        return new double[]{bbox[0] - lonBuffer, bbox[1] - latBuffer, bbox[2] + lonBuffer, bbox[3] + latBuffer};
+    }
+
+    private static LocalDate toDay(Temporal temporal) {
+        return temporal instanceof LocalDate ?
+                (LocalDate) temporal :
+                ((OffsetDateTime) temporal).withOffsetSameInstant(ZoneOffset.UTC).toLocalDate();
+    }
 }
@@ -0,0 +1,94 @@
+/**
+ * Copyright 2021 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.observation_processing.application;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableSet;
+
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * The query parameters of an observation process and how they restrict the features. Observations that have not been
+ * fetched with the feature query of the request can only be used, if the request has no other query parameters.
+ */
+final class FeatureQueryParameters {
+
+    // the parameters of the processes and the parameters that select the time and the variables
+    static final Set<String> PROCESSING = ImmutableSet.of("datetime", "variables", "functions", "width", "height", "tolerance", "tile", "f", "lang", "limit");
+
+    // the parameters that restrict the features to an area
+    static final Set<String> SPATIAL = ImmutableSet.of("bbox", "coords", "coordsRef");
+
+    // the parameters that restrict the features otherwise; only the observation cache keeps their observations apart
+    static final Set<String> FILTER = ImmutableSet.of("filter", "filter-lang");
+
+    private FeatureQueryParameters() {
+    }
+
+    /**
+     * @return {@code true}, if the observations of the request can be selected from a snapshot, that is the features
+     * are only restricted by the time, the variables and the area
+     */
+    static boolean isSnapshotRequest(Map<String, String> queryParams) {
+        return queryParams.keySet()
+                          .stream()
+                          .allMatch(key -> PROCESSING.contains(key) || SPATIAL.contains(key));
+    }
+
+    /**
+     * @param processName the name of the first process
+     * @param queryParams the query parameters, a tile is given by its bounding box
+     * @return the signature of the feature query without the time and the variables, if the observations of the request
+     * can be cached; the signature only has the parameters that restrict the features
+     */
+    static Optional<String> getCacheSignature(String processName, Map<String, String> queryParams) {
+        if (!queryParams.keySet()
+                        .stream()
+                        .allMatch(key -> PROCESSING.contains(key) || SPATIAL.contains(key) || FILTER.contains(key)))
+            return Optional.empty();
+
+        return Optional.of(processName + "?" +
+                                   queryParams.entrySet()
+                                              .stream()
+                                              .filter(entry -> SPATIAL.contains(entry.getKey()) || FILTER.contains(entry.getKey()))
+                                              .sorted(Map.Entry.comparingByKey())
+                                              .map(entry -> entry.getKey() + "=" + (entry.getKey().equals("bbox") ? getBbox(entry.getValue()) : entry.getValue()))
+                                              .collect(Collectors.joining("&")));
+    }
+
+    // the same bounding box has the same signature, regardless of the number format
+    private static String getBbox(String bbox) {
+        try {
+            return Splitter.on(",")
+                           .trimResults()
+                           .splitToList(bbox)
+                           .stream()
+                           .map(coordinate -> String.valueOf(Double.parseDouble(coordinate)))
+                           .collect(Collectors.joining(","));
+        } catch (NumberFormatException e) {
+            return bbox;
+        }
+    }
+
+    /**
+     * The feature query ends at the start of the day after the last day, so the observations of the last day are
+     * complete, regardless of whether the provider includes the end day of a date interval or not.
+     *
+     * @param firstDay the first day that is fetched
+     * @param lastDay the last day that is fetched
+     * @param bufferDays the days that the datetime parameter adds on both sides
+     * @return the value of the datetime parameter
+     */
+    static String getFetchDatetime(LocalDate firstDay, LocalDate lastDay, long bufferDays) {
+        return firstDay.plusDays(bufferDays) + "/" + lastDay.plusDays(1).minusDays(bufferDays);
+    }
+}
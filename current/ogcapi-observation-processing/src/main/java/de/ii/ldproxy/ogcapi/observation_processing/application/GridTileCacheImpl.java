@@ -0,0 +1,95 @@
+/**
+ * Copyright 2021 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.observation_processing.application;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import de.ii.ldproxy.ogcapi.domain.OgcApiDataV2;
+import de.ii.ldproxy.ogcapi.observation_processing.api.GridTileCache;
+import de.ii.ldproxy.ogcapi.observation_processing.data.DataArrayXyt;
+import org.apache.felix.ipojo.annotations.Component;
+import org.apache.felix.ipojo.annotations.Instantiate;
+import org.apache.felix.ipojo.annotations.Provides;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+@Component
+@Provides
+@Instantiate
+public class GridTileCacheImpl implements GridTileCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(GridTileCacheImpl.class);
+
+    private final ConcurrentMap<String, CollectionCache> caches;
+
+    public GridTileCacheImpl() {
+        this.caches = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public boolean isEnabled(OgcApiDataV2 apiData, String collectionId) {
+        return getCache(apiData, collectionId).isPresent();
+    }
+
+    @Override
+    public Optional<DataArrayXyt> getTile(OgcApiDataV2 apiData, String collectionId, String key) {
+        return getCache(apiData, collectionId).map(cache -> cache.tiles.getIfPresent(key));
+    }
+
+    @Override
+    public void putTile(OgcApiDataV2 apiData, String collectionId, String key, DataArrayXyt tile) {
+        getCache(apiData, collectionId).ifPresent(cache -> cache.tiles.put(key, tile));
+    }
+
+    private Optional<CollectionCache> getCache(OgcApiDataV2 apiData, String collectionId) {
+        Optional<ObservationProcessingConfiguration> config = apiData.getCollections()
+                                                                     .get(collectionId)
+                                                                     .getExtension(ObservationProcessingConfiguration.class);
+        if (!config.isPresent())
+            config = apiData.getExtension(ObservationProcessingConfiguration.class);
+        int maxValues = config.map(ObservationProcessingConfiguration::getTileCacheMaxValues)
+                              .orElse(0);
+        int expiresAfterMinutes = config.map(ObservationProcessingConfiguration::getCacheExpiresAfterMinutes)
+                                        .orElse(60);
+        String key = apiData.getId() + "/" + collectionId;
+        if (maxValues <= 0) {
+            caches.remove(key);
+            return Optional.empty();
+        }
+
+        // the cache is replaced, if the configuration has changed
+        return Optional.of(caches.compute(key, (k, cache) -> Objects.nonNull(cache) && cache.maxValues == maxValues && cache.expiresAfterMinutes == expiresAfterMinutes ?
+                cache :
+                new CollectionCache(maxValues, expiresAfterMinutes)));
+    }
+
+    static class CollectionCache {
+        final int maxValues;
+        final int expiresAfterMinutes;
+        final Cache<String, DataArrayXyt> tiles;
+
+        CollectionCache(int maxValues, int expiresAfterMinutes) {
+            LOGGER.debug("Creating grid tile cache with a maximum of {} values.", maxValues);
+            this.maxValues = maxValues;
+            this.expiresAfterMinutes = expiresAfterMinutes;
+            // the tiles expire like the observations they are resampled from; with a single segment, a tile may use the whole weight
+            this.tiles = CacheBuilder.newBuilder()
+                                     .concurrencyLevel(1)
+                                     .maximumWeight(maxValues)
+                                     .weigher((String key, DataArrayXyt tile) -> tile.getWidth() * tile.getHeight() * tile.getSteps() * tile.getVars().size() + 1)
+                                     .expireAfterWrite(expiresAfterMinutes, TimeUnit.MINUTES)
+                                     .build();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright 2021 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.observation_processing.application;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import de.ii.ldproxy.ogcapi.domain.OgcApiDataV2;
+import de.ii.ldproxy.ogcapi.observation_processing.api.InterpolationStencilCache;
+import de.ii.ldproxy.ogcapi.observation_processing.data.InterpolationStencil;
+import de.ii.ldproxy.ogcapi.observation_processing.data.InterpolationStencils;
+import org.apache.felix.ipojo.annotations.Component;
+import org.apache.felix.ipojo.annotations.Instantiate;
+import org.apache.felix.ipojo.annotations.Provides;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+@Component
+@Provides
+@Instantiate
+public class InterpolationStencilCacheImpl implements InterpolationStencilCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(InterpolationStencilCacheImpl.class);
+
+    private final ConcurrentMap<String, CollectionStencils> caches;
+
+    public InterpolationStencilCacheImpl() {
+        this.caches = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public InterpolationStencils getStencils(OgcApiDataV2 apiData, String collectionId) {
+        Optional<ObservationProcessingConfiguration> config = apiData.getCollections()
+                                                                     .get(collectionId)
+                                                                     .getExtension(ObservationProcessingConfiguration.class);
+        if (!config.isPresent())
+            config = apiData.getExtension(ObservationProcessingConfiguration.class);
+        int maxNeighbours = config.map(ObservationProcessingConfiguration::getStencilCacheMaxNeighbours)
+                                  .orElse(0);
+        String key = apiData.getId() + "/" + collectionId;
+        if (maxNeighbours <= 0) {
+            caches.remove(key);
+            return InterpolationStencils.NONE;
+        }
+
+        // the cache is replaced, if the configuration has changed
+        return caches.compute(key, (k, cache) -> Objects.nonNull(cache) && cache.maxNeighbours == maxNeighbours ?
+                cache :
+                new CollectionStencils(maxNeighbours));
+    }
+
+    private static class CollectionStencils implements InterpolationStencils {
+        final int maxNeighbours;
+        final Cache<String, InterpolationStencil> stencils;
+
+        CollectionStencils(int maxNeighbours) {
+            LOGGER.debug("Creating interpolation stencil cache with a maximum of {} neighbours.", maxNeighbours);
+            this.maxNeighbours = maxNeighbours;
+            // the least recently used stencils are evicted first; with a single segment, a stencil may use the whole weight
+            this.stencils = CacheBuilder.newBuilder()
+                                        .concurrencyLevel(1)
+                                        .maximumWeight(maxNeighbours)
+                                        .weigher((String key, InterpolationStencil stencil) -> stencil.weight() + 1)
+                                        .build();
+        }
+
+        @Override
+        public boolean isEnabled() {
+            return true;
+        }
+
+        @Override
+        public boolean accepts(long neighbours) {
+            return neighbours + 1 <= maxNeighbours;
+        }
+
+        @Override
+        public Optional<InterpolationStencil> get(String key) {
+            return Optional.ofNullable(stencils.getIfPresent(key));
+        }
+
+        @Override
+        public void put(String key, InterpolationStencil stencil) {
+            stencils.put(key, stencil);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright 2021 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.observation_processing.application;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import de.ii.ldproxy.ogcapi.domain.OgcApiDataV2;
+import de.ii.ldproxy.ogcapi.observation_processing.api.ObservationCache;
+import de.ii.ldproxy.ogcapi.observation_processing.data.ObservationChunk;
+import org.apache.felix.ipojo.annotations.Component;
+import org.apache.felix.ipojo.annotations.Instantiate;
+import org.apache.felix.ipojo.annotations.Provides;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+@Component
+@Provides
+@Instantiate
+public class ObservationCacheImpl implements ObservationCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ObservationCacheImpl.class);
+
+    private final ConcurrentMap<String, CollectionCache> caches;
+
+    public ObservationCacheImpl() {
+        this.caches = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public boolean isEnabled(OgcApiDataV2 apiData, String collectionId) {
+        return getCache(apiData, collectionId).isPresent();
+    }
+
+    @Override
+    public Map<LocalDate, ObservationChunk> getChunks(OgcApiDataV2 apiData, String collectionId, String signature,
+                                                      String variable, LocalDate firstDay, LocalDate lastDay) {
+        Map<LocalDate, ObservationChunk> chunks = new HashMap<>();
+        getCache(apiData, collectionId).ifPresent(cache -> {
+            for (LocalDate day = firstDay; !day.isAfter(lastDay); day = day.plusDays(1)) {
+                ObservationChunk chunk = cache.chunks.getIfPresent(key(signature, variable, day));
+                if (Objects.nonNull(chunk))
+                    chunks.put(day, chunk);
+            }
+        });
+        return chunks;
+    }
+
+    @Override
+    public void putChunks(OgcApiDataV2 apiData, String collectionId, String signature,
+                          String variable, Map<LocalDate, ObservationChunk> chunks) {
+        getCache(apiData, collectionId).ifPresent(cache -> chunks.forEach((day, chunk) -> cache.chunks.put(key(signature, variable, day), chunk)));
+    }
+
+    private static String key(String signature, String variable, LocalDate day) {
+        return signature + "|" + variable + "|" + day.toString();
+    }
+
+    private Optional<CollectionCache> getCache(OgcApiDataV2 apiData, String collectionId) {
+        Optional<ObservationProcessingConfiguration> config = apiData.getCollections()
+                                                                     .get(collectionId)
+                                                                     .getExtension(ObservationProcessingConfiguration.class);
+        if (!config.isPresent())
+            config = apiData.getExtension(ObservationProcessingConfiguration.class);
+        int maxObservations = config.map(ObservationProcessingConfiguration::getCacheMaxObservations)
+                                    .orElse(0);
+        int expiresAfterMinutes = config.map(ObservationProcessingConfiguration::getCacheExpiresAfterMinutes)
+                                        .orElse(60);
+        String key = apiData.getId() + "/" + collectionId;
+        if (maxObservations <= 0) {
+            caches.remove(key);
+            return Optional.empty();
+        }
+
+        // the cache is replaced, if the configuration has changed
+        return Optional.of(caches.compute(key, (k, cache) -> Objects.nonNull(cache) && cache.maxObservations == maxObservations && cache.expiresAfterMinutes == expiresAfterMinutes ?
+                cache :
+                new CollectionCache(maxObservations, expiresAfterMinutes)));
+    }
+
+    private static class CollectionCache {
+        final int maxObservations;
+        final int expiresAfterMinutes;
+        final Cache<String, ObservationChunk> chunks;
+
+        CollectionCache(int maxObservations, int expiresAfterMinutes) {
+            LOGGER.debug("Creating observation cache with a maximum of {} observations.", maxObservations);
+            this.maxObservations = maxObservations;
+            this.expiresAfterMinutes = expiresAfterMinutes;
+            // every chunk has a weight of at least 1, so that empty days are cached, too
+            this.chunks = CacheBuilder.newBuilder()
+                                      .maximumWeight(maxObservations)
+                                      .weigher((String key, ObservationChunk chunk) -> chunk.size() + 1)
+                                      .expireAfterWrite(expiresAfterMinutes, TimeUnit.MINUTES)
+                                      .build();
+        }
+    }
+}
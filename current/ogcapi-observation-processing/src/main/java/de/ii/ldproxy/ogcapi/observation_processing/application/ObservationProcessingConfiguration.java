@@ -18,6 +18,7 @@ import de.ii.ldproxy.ogcapi.features.core.domain.FeatureTransformations;
 import de.ii.ldproxy.ogcapi.features.core.domain.PropertyTransformation;
 import de.ii.ldproxy.ogcapi.features.core.domain.processing.ProcessDocumentation;
 import de.ii.ldproxy.ogcapi.features.html.domain.FeaturesHtmlConfiguration;
+import de.ii.ldproxy.ogcapi.observation_processing.data.SpatialIndex;
 import org.immutables.value.Value;
 
 import javax.annotation.Nullable;
@@ -59,6 +60,56 @@ public interface ObservationProcessingConfiguration extends ExtensionConfigurati
     @Nullable
     Double getIdwDistanceKm();
 
+    // the index for the neighbour search of the inverse distance weighting, see SpatialIndex.Type
+    @Nullable
+    SpatialIndex.Type getSpatialIndex();
+
+    // the relative error of the neighbour distances of the approximate index
+    @Nullable
+    Double getSpatialIndexErrorBound();
+
+    // the maximum difference of the values at the corners of a block of grid cells that is filled by bilinear interpolation, all cells are interpolated, if not set or 0
+    @Nullable
+    Double getGridTolerance();
+
+    // the maximum number of observations in the observation cache of a collection, the cache is disabled, if not set or 0
+    @Nullable
+    Integer getCacheMaxObservations();
+
+    @Nullable
+    Integer getCacheExpiresAfterMinutes();
+
+    // the maximum number of neighbours in the interpolation stencil cache of a collection, the cache is disabled, if not set or 0
+    @Nullable
+    Integer getStencilCacheMaxNeighbours();
+
+    // the maximum number of grid values in the tile cache of a collection, the cache is disabled, if not set or 0
+    @Nullable
+    Integer getTileCacheMaxValues();
+
+    // the maximum size in MB of the raster buffers of the API that are retained for later grid requests, no buffers are retained, if not set or 0
+    @Nullable
+    Integer getBufferPoolMaxMegabytes();
+
+    // the heap memory for the observations received in a request during the ingest, further observations are spilled to temporary files; no limit, if not set; the partitioned observations are kept on the heap
+    @Nullable
+    Integer getIngestMemoryBudgetMb();
+
+    // the directory of the observation snapshots, snapshots are disabled, if not set
+    @Nullable
+    String getSnapshotDirectory();
+
+    @Nullable
+    Integer getSnapshotRefreshMinutes();
+
+    // the parallelism of the processing pool of the API, by default the number of processors
+    @Nullable
+    Integer getProcessingParallelism();
+
+    // the maximum number of processing jobs of the API that run at the same time, further jobs wait by priority
+    @Nullable
+    Integer getProcessingMaxConcurrentJobs();
+
     @Override
     default Builder getBuilder() {
         return new ImmutableObservationProcessingConfiguration.Builder();
@@ -30,6 +30,7 @@ import de.ii.ldproxy.ogcapi.observation_processing.api.DapaResultFormatExtension
 import de.ii.ldproxy.ogcapi.observation_processing.api.DapaVariablesFormatExtension;
 import de.ii.ldproxy.ogcapi.observation_processing.api.ImmutableFeatureTransformationContextObservationProcessing;
 import de.ii.ldproxy.ogcapi.observation_processing.api.ObservationProcessingQueriesHandler;
+import de.ii.ldproxy.ogcapi.observation_processing.api.ObservationProcessingScheduler;
 import de.ii.xtraplatform.codelists.domain.Codelist;
 import de.ii.xtraplatform.crs.domain.CrsTransformer;
 import de.ii.xtraplatform.crs.domain.CrsTransformerFactory;
@@ -58,6 +59,7 @@ import java.text.MessageFormat;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.OptionalLong;
 import java.util.concurrent.CompletionException;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -79,6 +81,7 @@ public class ObservationProcessingQueriesHandlerImpl implements ObservationProce
     private final EntityRegistry entityRegistry;
     private final FeaturesCoreProviders providers;
     private final Http http;
+    private final ObservationProcessingScheduler scheduler;
 
 
     public ObservationProcessingQueriesHandlerImpl(@Requires I18n i18n,
@@ -86,7 +89,8 @@ public class ObservationProcessingQueriesHandlerImpl implements ObservationProce
                                                    @Requires Dropwizard dropwizard,
                                                    @Requires EntityRegistry entityRegistry,
                                                    @Requires FeaturesCoreProviders providers,
-                                                   @Requires Http http) {
+                                                   @Requires Http http,
+                                                   @Requires ObservationProcessingScheduler scheduler) {
         this.i18n = i18n;
         this.crsTransformerFactory = crsTransformerFactory;
         this.entityRegistry = entityRegistry;
@@ -95,6 +99,7 @@ public class ObservationProcessingQueriesHandlerImpl implements ObservationProce
                                         .metrics();
         this.providers = providers;
         this.http = http;
+        this.scheduler = scheduler;
 
         this.queryHandlers = ImmutableMap.of(
                 Query.PROCESS,
@@ -247,6 +252,9 @@ public class ObservationProcessingQueriesHandlerImpl implements ObservationProce
                 .processingParameters(queryInput.getProcessingParameters())
                 .variables(queryInput.getVariables())
                 .outputFormat(outputFormat)
+                .cacheRequest(queryInput.getCacheRequest())
+                .selectedObservations(queryInput.getSelectedObservations())
+                .scheduler(scheduler)
                 .fields(query.getFields())
                 .limit(query.getLimit())
                 .offset(query.getOffset())
@@ -256,7 +264,23 @@ public class ObservationProcessingQueriesHandlerImpl implements ObservationProce
 
         StreamingOutput streamingOutput;
 
-        if (outputFormat.canTransformFeatures()) {
+        boolean noFeatureQuery = queryInput.getSelectedObservations().isPresent() ||
+                (queryInput.getCacheRequest().isPresent() && !queryInput.getCacheRequest().get().getFetchFirstDay().isPresent());
+        if (outputFormat.canTransformFeatures() && noFeatureQuery) {
+            // the observations are available from a snapshot or the cache, no feature query is necessary
+            streamingOutput = outputStream -> {
+                FeatureTransformer2 featureTransformer = outputFormat.getFeatureTransformer(transformationContext.outputStream(outputStream).build(), providers, http)
+                        .get();
+                try {
+                    featureTransformer.onStart(OptionalLong.of(0), OptionalLong.of(0));
+                    featureTransformer.onEnd();
+                } catch (WebApplicationException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new IllegalStateException("Processing of observations failed.", e);
+                }
+            };
+        } else if (outputFormat.canTransformFeatures()) {
             FeatureStream2 featureStream = featureProvider.queries()
                     .getFeatureStream2(query);
 
@@ -0,0 +1,210 @@
+/**
+ * Copyright 2021 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.observation_processing.application;
+
+import de.ii.ldproxy.ogcapi.domain.OgcApiDataV2;
+import de.ii.ldproxy.ogcapi.observation_processing.api.ObservationProcessingScheduler;
+import org.apache.felix.ipojo.annotations.Component;
+import org.apache.felix.ipojo.annotations.Instantiate;
+import org.apache.felix.ipojo.annotations.Invalidate;
+import org.apache.felix.ipojo.annotations.Provides;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Comparator;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+@Component
+@Provides
+@Instantiate
+public class ObservationProcessingSchedulerImpl implements ObservationProcessingScheduler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ObservationProcessingSchedulerImpl.class);
+
+    private final ConcurrentMap<String, ApiScheduler> schedulers;
+
+    public ObservationProcessingSchedulerImpl() {
+        this.schedulers = new ConcurrentHashMap<>();
+    }
+
+    @Invalidate
+    private void onInvalidate() {
+        schedulers.values().forEach(scheduler -> scheduler.pool.shutdownNow());
+        schedulers.clear();
+    }
+
+    @Override
+    public <T> T execute(OgcApiDataV2 apiData, Priority priority, Callable<T> job) throws Exception {
+        return getScheduler(apiData).execute(priority, job);
+    }
+
+    // the scheduler is registered for the job, it is not shut down before the job has unregistered
+    private ApiScheduler getScheduler(OgcApiDataV2 apiData) {
+        Optional<ObservationProcessingConfiguration> config = apiData.getExtension(ObservationProcessingConfiguration.class);
+        int parallelism = config.map(ObservationProcessingConfiguration::getProcessingParallelism)
+                                .filter(value -> value > 0)
+                                .orElse(Runtime.getRuntime().availableProcessors());
+        int maxConcurrentJobs = config.map(ObservationProcessingConfiguration::getProcessingMaxConcurrentJobs)
+                                      .filter(value -> value > 0)
+                                      .orElse(2);
+
+        // the scheduler is replaced, if the configuration has changed; the old pool is shut down, when the jobs that
+        // have been admitted or are waiting for it have completed
+        return schedulers.compute(apiData.getId(), (id, scheduler) -> {
+            if (Objects.isNull(scheduler) || scheduler.parallelism != parallelism || scheduler.maxConcurrentJobs != maxConcurrentJobs) {
+                if (Objects.nonNull(scheduler))
+                    scheduler.retire();
+                scheduler = new ApiScheduler(id, parallelism, maxConcurrentJobs);
+            }
+            scheduler.register();
+            return scheduler;
+        });
+    }
+
+    static class Ticket {
+        final Priority priority;
+        final long sequence;
+
+        Ticket(Priority priority, long sequence) {
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+    }
+
+    static class ApiScheduler {
+        final int parallelism;
+        final int maxConcurrentJobs;
+        final ForkJoinPool pool;
+        // waiting jobs by priority class, then in the order of arrival
+        private final PriorityQueue<Ticket> waiting;
+        private long sequence;
+        private int running;
+        // the jobs that have been registered and not yet unregistered
+        private int registered;
+        private boolean retired;
+
+        ApiScheduler(String apiId, int parallelism, int maxConcurrentJobs) {
+            LOGGER.debug("Creating observation processing pool for API '{}' with parallelism {} and at most {} concurrent jobs.", apiId, parallelism, maxConcurrentJobs);
+            this.parallelism = parallelism;
+            this.maxConcurrentJobs = maxConcurrentJobs;
+            this.pool = new ForkJoinPool(parallelism, pool -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("observation-processing-" + apiId + "-" + thread.getPoolIndex());
+                return thread;
+            }, null, false);
+            this.waiting = new PriorityQueue<>(Comparator.<Ticket, Priority>comparing(ticket -> ticket.priority)
+                                                         .thenComparingLong(ticket -> ticket.sequence));
+            this.sequence = 0;
+            this.running = 0;
+            this.registered = 0;
+            this.retired = false;
+        }
+
+        /**
+         * Execute a job of a caller that has registered and wait for the result. The slot of the job is released by
+         * the job itself, when it has completed, or by the task, if it is cancelled before the job has started; a caller
+         * that is interrupted cancels the job, but the slot remains occupied until the job has stopped.
+         */
+        <T> T execute(Priority priority, Callable<T> job) throws Exception {
+            try {
+                acquire(priority);
+            } catch (InterruptedException e) {
+                unregister();
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Observation processing has been interrupted.", e);
+            }
+
+            AtomicBoolean started = new AtomicBoolean();
+            FutureTask<T> task = new FutureTask<T>(() -> {
+                if (!started.compareAndSet(false, true))
+                    return null;
+                try {
+                    return job.call();
+                } finally {
+                    complete();
+                }
+            }) {
+                @Override
+                protected void done() {
+                    if (started.compareAndSet(false, true))
+                        complete();
+                }
+            };
+            try {
+                // parallel streams within the job use the pool of the worker thread
+                pool.execute(task);
+            } catch (RejectedExecutionException e) {
+                task.cancel(false);
+                throw e;
+            }
+
+            try {
+                return task.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception)
+                    throw (Exception) e.getCause();
+                throw e;
+            } catch (InterruptedException e) {
+                task.cancel(true);
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Observation processing has been interrupted.", e);
+            }
+        }
+
+        synchronized void register() {
+            registered++;
+        }
+
+        synchronized void unregister() {
+            registered--;
+            if (retired && registered == 0)
+                pool.shutdown();
+        }
+
+        synchronized void retire() {
+            retired = true;
+            if (registered == 0)
+                pool.shutdown();
+        }
+
+        synchronized void acquire(Priority priority) throws InterruptedException {
+            Ticket ticket = new Ticket(priority, sequence++);
+            waiting.add(ticket);
+            try {
+                while (waiting.peek() != ticket || running >= maxConcurrentJobs)
+                    wait();
+            } catch (InterruptedException e) {
+                waiting.remove(ticket);
+                notifyAll();
+                throw e;
+            }
+            waiting.poll();
+            running++;
+            // the next job may be admitted, too
+            notifyAll();
+        }
+
+        // the job has completed, the next job may be admitted
+        synchronized void complete() {
+            running--;
+            notifyAll();
+            unregister();
+        }
+    }
+}
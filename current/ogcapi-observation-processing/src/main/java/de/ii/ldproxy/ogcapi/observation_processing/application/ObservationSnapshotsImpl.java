@@ -0,0 +1,192 @@
+/**
+ * Copyright 2021 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.observation_processing.application;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import de.ii.ldproxy.ogcapi.domain.FeatureTypeConfigurationOgcApi;
+import de.ii.ldproxy.ogcapi.domain.OgcApiDataV2;
+import de.ii.ldproxy.ogcapi.features.core.domain.FeaturesCoreConfiguration;
+import de.ii.ldproxy.ogcapi.features.core.domain.FeaturesCoreProviders;
+import de.ii.ldproxy.ogcapi.features.core.domain.FeaturesQuery;
+import de.ii.ldproxy.ogcapi.observation_processing.api.FeatureTransformerObservations;
+import de.ii.ldproxy.ogcapi.observation_processing.api.ObservationSnapshots;
+import de.ii.ldproxy.ogcapi.observation_processing.data.ObservationSnapshot;
+import de.ii.ldproxy.ogcapi.observation_processing.data.TemporalIntervalLocalDate;
+import de.ii.xtraplatform.codelists.domain.Codelist;
+import de.ii.xtraplatform.features.domain.FeatureProvider2;
+import de.ii.xtraplatform.features.domain.FeatureQuery;
+import de.ii.xtraplatform.features.domain.FeatureStream2;
+import de.ii.xtraplatform.store.domain.entities.EntityRegistry;
+import org.apache.felix.ipojo.annotations.Component;
+import org.apache.felix.ipojo.annotations.Instantiate;
+import org.apache.felix.ipojo.annotations.Invalidate;
+import org.apache.felix.ipojo.annotations.Provides;
+import org.apache.felix.ipojo.annotations.Requires;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+@Component
+@Provides
+@Instantiate
+public class ObservationSnapshotsImpl implements ObservationSnapshots {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ObservationSnapshotsImpl.class);
+
+    private final FeaturesCoreProviders providers;
+    private final FeaturesQuery ogcApiFeaturesQuery;
+    private final EntityRegistry entityRegistry;
+    private final ScheduledExecutorService executor;
+    private final ConcurrentMap<String, CollectionSnapshot> snapshots;
+
+    public ObservationSnapshotsImpl(@Requires FeaturesCoreProviders providers,
+                                    @Requires FeaturesQuery ogcApiFeaturesQuery,
+                                    @Requires EntityRegistry entityRegistry) {
+        this.providers = providers;
+        this.ogcApiFeaturesQuery = ogcApiFeaturesQuery;
+        this.entityRegistry = entityRegistry;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("observation-snapshots-%d")
+                                                                                             .setDaemon(true)
+                                                                                             .build());
+        this.snapshots = new ConcurrentHashMap<>();
+    }
+
+    @Invalidate
+    private void onInvalidate() {
+        executor.shutdownNow();
+    }
+
+    @Override
+    public Optional<ObservationSnapshot> getSnapshot(OgcApiDataV2 apiData, String collectionId) {
+        Optional<ObservationProcessingConfiguration> config = apiData.getCollections()
+                                                                     .get(collectionId)
+                                                                     .getExtension(ObservationProcessingConfiguration.class);
+        if (!config.isPresent())
+            config = apiData.getExtension(ObservationProcessingConfiguration.class);
+        String directory = config.map(ObservationProcessingConfiguration::getSnapshotDirectory)
+                                 .orElse(null);
+        int refreshMinutes = config.map(ObservationProcessingConfiguration::getSnapshotRefreshMinutes)
+                                   .orElse(24 * 60);
+        String key = apiData.getId() + "/" + collectionId;
+        if (Objects.isNull(directory)) {
+            Optional.ofNullable(snapshots.remove(key))
+                    .ifPresent(snapshot -> snapshot.refresh.cancel(false));
+            return Optional.empty();
+        }
+
+        Path path = Paths.get(directory, apiData.getId() + "_" + collectionId + ".observations");
+        CollectionSnapshot snapshot = snapshots.compute(key, (k, current) -> {
+            if (Objects.nonNull(current) && current.path.equals(path) && current.refreshMinutes == refreshMinutes)
+                return current;
+            if (Objects.nonNull(current))
+                current.refresh.cancel(false);
+            return new CollectionSnapshot(apiData, collectionId, path, refreshMinutes);
+        });
+        // the refresh always uses the current configuration of the API
+        snapshot.apiData = apiData;
+        return Optional.ofNullable(snapshot.snapshot);
+    }
+
+    private class CollectionSnapshot {
+        final String collectionId;
+        final Path path;
+        final int refreshMinutes;
+        final ScheduledFuture<?> refresh;
+        volatile OgcApiDataV2 apiData;
+        volatile ObservationSnapshot snapshot;
+
+        CollectionSnapshot(OgcApiDataV2 apiData, String collectionId, Path path, int refreshMinutes) {
+            this.apiData = apiData;
+            this.collectionId = collectionId;
+            this.path = path;
+            this.refreshMinutes = refreshMinutes;
+
+            // an existing snapshot is used immediately and refreshed when it is due
+            long initialDelay = 0;
+            if (Files.exists(path)) {
+                try {
+                    snapshot = ObservationSnapshot.open(path);
+                    Duration age = Duration.between(snapshot.getCreated(), Instant.now());
+                    initialDelay = Math.max(0, refreshMinutes - age.toMinutes());
+                    LOGGER.debug("Observation snapshot '{}' opened with {} observations.", path, snapshot.size());
+                } catch (IOException e) {
+                    LOGGER.warn("Observation snapshot '{}' could not be opened, it will be recreated: {}", path, e.getMessage());
+                }
+            }
+            this.refresh = executor.scheduleWithFixedDelay(this::refresh, initialDelay, Math.max(1, refreshMinutes), TimeUnit.MINUTES);
+        }
+
+        private void refresh() {
+            try {
+                OgcApiDataV2 apiData = this.apiData;
+                FeatureTypeConfigurationOgcApi collectionData = apiData.getCollections()
+                                                                       .get(collectionId);
+                FeaturesCoreConfiguration coreConfiguration = collectionData.getExtension(FeaturesCoreConfiguration.class)
+                                                                            .orElseThrow(() -> new IllegalStateException(String.format("Features are not supported in API '%s', collection '%s'.", apiData.getId(), collectionId)));
+                int maxPageSize = coreConfiguration.getMaximumPageSize();
+                Map<String, String> queryParams = new HashMap<>();
+                queryParams.put("limit", String.valueOf(maxPageSize));
+                FeatureQuery query = ogcApiFeaturesQuery.requestToFeatureQuery(apiData, collectionData, coreConfiguration,
+                                                                               coreConfiguration.getMinimumPageSize(), coreConfiguration.getDefaultPageSize(), maxPageSize,
+                                                                               queryParams, ImmutableList.of());
+                FeatureProvider2 featureProvider = providers.getFeatureProvider(apiData, collectionData);
+                Map<String, Codelist> codelists = entityRegistry.getEntitiesForType(Codelist.class)
+                                                                .stream()
+                                                                .collect(Collectors.toMap(c -> c.getId(), c -> c));
+
+                // the interval is only used to parse the phenomenon time, the snapshot has a resolution of days
+                FeatureTransformerObservations transformer = new FeatureTransformerObservations(apiData, collectionId, codelists, "", true,
+                                                                                                new TemporalIntervalLocalDate(LocalDate.of(1970, 1, 1), LocalDate.now(ZoneOffset.UTC), 1),
+                                                                                                FeatureTransformerObservations.getMemoryBudget(collectionData.getExtension(ObservationProcessingConfiguration.class)
+                                                                                                                                                             .orElse(apiData.getExtension(ObservationProcessingConfiguration.class).orElse(null))));
+                Instant queried = Instant.now();
+                FeatureStream2.Result result = featureProvider.queries()
+                                                              .getFeatureStream2(query)
+                                                              .runWith(transformer)
+                                                              .toCompletableFuture()
+                                                              .join();
+                if (result.getError().isPresent())
+                    throw new IllegalStateException("Feature stream error.", result.getError().get());
+                // an incomplete snapshot is not used, the requests are answered from the features
+                boolean complete = !transformer.isIncomplete(maxPageSize);
+                if (!complete)
+                    LOGGER.warn("The observation snapshot of collection '{}' in API '{}' is incomplete and is not used, the maximum page size {} has been reached.", collectionId, apiData.getId(), maxPageSize);
+
+                ObservationSnapshot.write(transformer.getObservations(), path, queried, complete);
+                snapshot = ObservationSnapshot.open(path);
+                LOGGER.info("Observation snapshot of collection '{}' in API '{}' refreshed with {} observations.", collectionId, apiData.getId(), snapshot.size());
+            } catch (Exception e) {
+                // keep the current snapshot, the next refresh is scheduled anyhow
+                LOGGER.error("Observation snapshot of collection '{}' could not be refreshed: {}", collectionId, e.getMessage());
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("Stacktrace:", e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/**
+ * Copyright 2021 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.observation_processing.application;
+
+import de.ii.ldproxy.ogcapi.domain.OgcApiDataV2;
+import de.ii.ldproxy.ogcapi.observation_processing.api.RasterBufferPools;
+import de.ii.ldproxy.ogcapi.observation_processing.data.RasterBufferPool;
+import org.apache.felix.ipojo.annotations.Component;
+import org.apache.felix.ipojo.annotations.Instantiate;
+import org.apache.felix.ipojo.annotations.Provides;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+@Component
+@Provides
+@Instantiate
+public class RasterBufferPoolsImpl implements RasterBufferPools {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RasterBufferPoolsImpl.class);
+
+    private final ConcurrentMap<String, RasterBufferPool> pools;
+
+    public RasterBufferPoolsImpl() {
+        this.pools = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public RasterBufferPool getPool(OgcApiDataV2 apiData) {
+        long maxRetainedBytes = apiData.getExtension(ObservationProcessingConfiguration.class)
+                                       .map(ObservationProcessingConfiguration::getBufferPoolMaxMegabytes)
+                                       .orElse(0) * 1024L * 1024L;
+        if (maxRetainedBytes <= 0) {
+            pools.remove(apiData.getId());
+            return RasterBufferPool.NONE;
+        }
+
+        // the pool is replaced, if the configuration has changed
+        return pools.compute(apiData.getId(), (id, pool) -> {
+            if (Objects.nonNull(pool) && pool.getMaxRetainedBytes() == maxRetainedBytes)
+                return pool;
+            LOGGER.debug("Creating raster buffer pool for API '{}' with at most {} bytes.", id, maxRetainedBytes);
+            return new RasterBufferPool(maxRetainedBytes);
+        });
+    }
+}
@@ -38,6 +38,7 @@ import java.io.OutputStream;
 import java.time.temporal.Temporal;
 import java.util.*;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static de.ii.ldproxy.ogcapi.collections.domain.AbstractPathParameterCollectionId.COLLECTION_ID_PATTERN;
 
@@ -98,7 +99,8 @@ public class ResultFormatExtensionGeoTiff implements DapaResultFormatExtension {
         int height = array.getHeight();
         Vector<String> vars = array.getVars();
         Extent extent = new Extent(array.lon(0), array.lat(height - 1), array.lon(width - 1), array.lat(0));
-        writeGeoTiff(((Result) result).outputStream, width, height, extent, vars, ((Result) result).variableDefinitions, array.array[0]);
+        List<float[]> bands = IntStream.range(0, vars.size()).mapToObj(var -> array.getPlane(0, var)).collect(Collectors.toList());
+        writeGeoTiff(((Result) result).outputStream, width, height, extent, vars, ((Result) result).variableDefinitions, bands);
         return true;
     }
 
@@ -108,19 +110,19 @@ public class ResultFormatExtensionGeoTiff implements DapaResultFormatExtension {
         int height = array.getHeight();
         Vector<String> vars = array.getVars();
         Extent extent = new Extent(array.lon(0), array.lat(height - 1), array.lon(width - 1), array.lat(0));
-        writeGeoTiff(((Result) result).outputStream, width, height, extent, vars, ((Result) result).variableDefinitions, array.array);
+        List<float[]> bands = IntStream.range(0, vars.size()).mapToObj(array::getPlane).collect(Collectors.toList());
+        writeGeoTiff(((Result) result).outputStream, width, height, extent, vars, ((Result) result).variableDefinitions, bands);
         return true;
     }
 
-    public void writeGeoTiff(OutputStream outputStream, int width, int height, Extent extent, List<String> vars, List<Variable> varDefs, float[][][] array) throws IOException {
+    /**
+     * @param bandValues the values of each band in row-major order, the tiles are backed by these arrays
+     */
+    public void writeGeoTiff(OutputStream outputStream, int width, int height, Extent extent, List<String> vars, List<Variable> varDefs, List<float[]> bandValues) throws IOException {
         int bands = vars.size();
         FloatArrayTile[] tiles = new FloatArrayTile[bands];
-        for (int i = 0; i < bands; i++) {
-            tiles[i] = FloatRawArrayTile.empty(width,height);
-            for (int y = 0; y < height; y++)
-                for (int x = 0; x < width; x++)
-                    tiles[i].setDouble(x, y, array[y][x][i]);
-        }
+        for (int i = 0; i < bands; i++)
+            tiles[i] = new FloatRawArrayTile(bandValues.get(i), width, height);
         CRS crs = CRS.fromEpsgCode(4326);
         scala.collection.immutable.Map<String, String> headMap = new scala.collection.immutable.HashMap<String, String>()
                 .$plus(new Tuple2<>("TIFFTAG_SOFTWARE", "ldproxy"))
@@ -0,0 +1,34 @@
+/**
+ * Copyright 2021 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.observation_processing.data;
+
+import java.util.Vector;
+
+/**
+ * A grid of values with the axes longitude, latitude, time and variable, the output type of the grid processes. The
+ * grid is either resampled as a whole, see {@link DataArrayXyt}, or one time step at a time, see {@link DataArrayXytBands}.
+ */
+public interface DataArrayGrid {
+
+    int getWidth();
+
+    int getHeight();
+
+    int getSteps();
+
+    Vector<String> getVars();
+
+    double lon(int i);
+
+    double lat(int i);
+
+    /**
+     * @return the pool of the planes of the grid
+     */
+    RasterBufferPool getBuffers();
+}
@@ -11,8 +11,13 @@ import de.ii.ldproxy.ogcapi.observation_processing.api.TemporalInterval;
 
 import java.util.Vector;
 
+/**
+ * A grid of values with the axes longitude, latitude and variable. The values of a variable are a plane of
+ * {@code height * width} values in row-major order, see {@link DataArrayXyt}.
+ */
 public class DataArrayXy {
-    public float[][][] array;
+    // the value of variable v in row y and column x is at planes[v][y * width + x]
+    private final float[][] planes;
     private final double minLon;
     private final double minLat;
     private final double maxLon;
@@ -23,11 +28,23 @@ public class DataArrayXy {
     private final double diffLat;
     private final Vector<String> vars;
     private final TemporalInterval interval;
+    private final RasterBufferPool buffers;
 
     public DataArrayXy(int width, int height, Vector<String> vars,
                        double minLon, double minLat,
                        double maxLon, double maxLat,
                        TemporalInterval interval) {
+        this(width, height, vars, minLon, minLat, maxLon, maxLat, interval, RasterBufferPool.NONE);
+    }
+
+    /**
+     * The planes are acquired from the pool, the values are undefined until they are set.
+     */
+    public DataArrayXy(int width, int height, Vector<String> vars,
+                       double minLon, double minLat,
+                       double maxLon, double maxLat,
+                       TemporalInterval interval,
+                       RasterBufferPool buffers) {
         this.minLon = minLon;
         this.minLat = minLat;
         this.maxLon = maxLon;
@@ -38,7 +55,38 @@ public class DataArrayXy {
         this.diffLat = height>0 ? (maxLat-minLat)/height : 0.0f;
         this.vars = vars;
         this.interval = interval;
-        this.array = new float[height][width][vars.size()];
+        this.buffers = buffers;
+        this.planes = new float[vars.size()][];
+        for (int i = 0; i < planes.length; i++)
+            planes[i] = buffers.acquire(width * height);
+    }
+
+    public float get(int row, int column, int var) {
+        return planes[var][row * width + column];
+    }
+
+    public void set(int row, int column, int var, float value) {
+        planes[var][row * width + column] = value;
+    }
+
+    /**
+     * @return the values of a variable in row-major order, the array is not copied
+     */
+    public float[] getPlane(int var) {
+        return planes[var];
+    }
+
+    /**
+     * Return the planes to the buffer pool, the array must not be used afterwards. An array without a pool, e.g. a
+     * cached tile that is shared by requests, is not changed.
+     */
+    public void release() {
+        if (buffers == RasterBufferPool.NONE)
+            return;
+        for (int i = 0; i < planes.length; i++) {
+            buffers.release(planes[i]);
+            planes[i] = null;
+        }
     }
 
     public int getWidth() {
@@ -11,8 +11,15 @@ import java.time.LocalDate;
 import java.time.OffsetDateTime;
 import java.util.Vector;
 
-public class DataArrayXyt {
-    public float[][][][] array;
+/**
+ * A grid of values with the axes longitude, latitude, time and variable. The values of a time step and variable are a
+ * plane of {@code height * width} values in row-major order, so a plane can be handed to an output format as a band
+ * without copying. Instead of one array per cell, the grid only has one array per plane.
+ */
+public class DataArrayXyt implements DataArrayGrid {
+    // the plane of time step t and variable v is at planes[t * varCount + v], the value of row y and column x is at y * width + x
+    private final float[][] planes;
+    private final int varCount;
     private final double minLon;
     private final double minLat;
     private final double minTime;
@@ -26,10 +33,15 @@ public class DataArrayXyt {
     private final double diffLat;
     private final double diffTime;
     private final Vector<String> vars;
+    private final RasterBufferPool buffers;
 
+    /**
+     * The planes are acquired from the pool, the values are undefined until they are set.
+     */
     DataArrayXyt(int width, int height, int steps, Vector<String> vars,
                  double minLon, double minLat, double minTime,
-                 double maxLon, double maxLat, double maxTime) {
+                 double maxLon, double maxLat, double maxTime,
+                 RasterBufferPool buffers) {
         this.minLon = minLon;
         this.minLat = minLat;
         this.minTime = minTime;
@@ -43,27 +55,70 @@ public class DataArrayXyt {
         this.diffLat = height>0 ? (maxLat-minLat)/height : 0.0f;
         this.diffTime = steps>0 ? (maxTime-minTime)/steps : 0.0f;
         this.vars = vars;
-        this.array = new float[steps][height][width][vars.size()];
+        this.varCount = vars.size();
+        this.buffers = buffers;
+        this.planes = new float[steps * varCount][];
+        for (int i = 0; i < planes.length; i++)
+            planes[i] = buffers.acquire(width * height);
+    }
+
+    public float get(int step, int row, int column, int var) {
+        return planes[step * varCount + var][row * width + column];
+    }
+
+    public void set(int step, int row, int column, int var, float value) {
+        planes[step * varCount + var][row * width + column] = value;
+    }
+
+    /**
+     * @return the values of a time step and variable in row-major order, the array is not copied
+     */
+    public float[] getPlane(int step, int var) {
+        return planes[step * varCount + var];
+    }
+
+    /**
+     * Return the planes to the buffer pool, the array must not be used afterwards. An array without a pool, e.g. a
+     * cached tile that is shared by requests, is not changed.
+     */
+    public void release() {
+        if (buffers == RasterBufferPool.NONE)
+            return;
+        for (int i = 0; i < planes.length; i++) {
+            buffers.release(planes[i]);
+            planes[i] = null;
+        }
+    }
+
+    @Override
+    public RasterBufferPool getBuffers() {
+        return buffers;
     }
 
+    @Override
     public int getWidth() {
         return width;
     }
 
+    @Override
     public int getHeight() {
         return height;
     }
 
+    @Override
     public int getSteps() {
         return steps;
     }
 
+    @Override
     public Vector<String> getVars() {
         return vars;
     }
 
+    @Override
     public double lon(int i) { return minLon + diffLon*i; }
 
+    @Override
     public double lat(int i) { return maxLat - diffLat*i; }
 
     public double time(int i) {
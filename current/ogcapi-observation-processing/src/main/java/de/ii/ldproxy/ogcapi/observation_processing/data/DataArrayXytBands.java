@@ -0,0 +1,137 @@
+/**
+ * Copyright 2021 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.observation_processing.data;
+
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Vector;
+
+/**
+ * A grid that is resampled from the observations one time step at a time. Each band is a {@link DataArrayXyt} with a
+ * single time step that is only resampled when it is requested, so a consumer that writes and releases the bands
+ * needs the memory of one band instead of the whole grid.
+ */
+public class DataArrayXytBands implements DataArrayGrid, Iterator<DataArrayXyt> {
+
+    final Observations observations;
+    final double[] bbox;
+    final double[] lons;
+    final double[] lats;
+    final double[] times;
+    final double minTime;
+    final double maxTime;
+    // the cells that are resampled, all cells, if null
+    final BitSet cells;
+    final Vector<String> vars;
+    // the observations of the variables, grouped by their positions and times
+    final List<List<Observations>> groups;
+    final int idwCount;
+    final double idwDistanceKm;
+    final double idwPower;
+    final SpatialIndex.Type indexType;
+    final double indexErrorBound;
+    // the maximum difference of the corners of a block of cells that is filled by bilinear interpolation, all cells are interpolated, if 0
+    final double tolerance;
+    final InterpolationStencils stencils;
+    // the pool of the planes of the bands
+    final RasterBufferPool buffers;
+    private int nextStep;
+
+    DataArrayXytBands(Observations observations, double[] bbox, double[] lons, double[] lats, double[] times,
+                      double minTime, double maxTime, BitSet cells, Vector<String> vars, List<List<Observations>> groups,
+                      int idwCount, double idwDistanceKm, double idwPower, SpatialIndex.Type indexType, double indexErrorBound,
+                      double tolerance, InterpolationStencils stencils, RasterBufferPool buffers) {
+        this.observations = observations;
+        this.bbox = bbox;
+        this.lons = lons;
+        this.lats = lats;
+        this.times = times;
+        this.minTime = minTime;
+        this.maxTime = maxTime;
+        this.cells = cells;
+        this.vars = vars;
+        this.groups = groups;
+        this.idwCount = idwCount;
+        this.idwDistanceKm = idwDistanceKm;
+        this.idwPower = idwPower;
+        this.indexType = indexType;
+        this.indexErrorBound = indexErrorBound;
+        this.tolerance = tolerance;
+        this.stencils = stencils;
+        this.buffers = buffers;
+        this.nextStep = 0;
+    }
+
+    @Override
+    public int getWidth() {
+        return lons.length;
+    }
+
+    @Override
+    public int getHeight() {
+        return lats.length;
+    }
+
+    @Override
+    public int getSteps() {
+        return times.length;
+    }
+
+    @Override
+    public Vector<String> getVars() {
+        return vars;
+    }
+
+    @Override
+    public RasterBufferPool getBuffers() {
+        return buffers;
+    }
+
+    @Override
+    public double lon(int i) { return bbox[0] + (bbox[2] - bbox[0]) / lons.length * i; }
+
+    @Override
+    public double lat(int i) { return bbox[3] - (bbox[3] - bbox[1]) / lats.length * i; }
+
+    @Override
+    public boolean hasNext() {
+        return nextStep < times.length;
+    }
+
+    /**
+     * @return the next time step of the grid, the consumer releases the band, when it is no longer needed
+     */
+    @Override
+    public DataArrayXyt next() {
+        if (!hasNext())
+            throw new NoSuchElementException("All time steps of the grid have been resampled.");
+        return resample(nextStep, ++nextStep);
+    }
+
+    /**
+     * @return the remaining time steps of the grid in a single array
+     */
+    public DataArrayXyt toDataArray() {
+        int fromStep = nextStep;
+        nextStep = times.length;
+        return resample(fromStep, times.length);
+    }
+
+    private DataArrayXyt resample(int fromStep, int toStep) {
+        // the time axis of the band is the section of the time axis of the whole grid
+        double diffTime = (maxTime - minTime) / times.length;
+        DataArrayXyt array = new DataArrayXyt(lons.length, lats.length, toStep - fromStep, vars,
+                                              bbox[0], bbox[1], minTime + diffTime * fromStep,
+                                              bbox[2], bbox[3], toStep == times.length ? maxTime : minTime + diffTime * toStep,
+                                              buffers);
+        observations.resampleToGrid(this, fromStep, toStep, array);
+        return array;
+    }
+}
@@ -0,0 +1,68 @@
+/**
+ * Copyright 2021 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.observation_processing.data;
+
+import java.util.Arrays;
+
+/**
+ * Hash index (open addressing with linear probing) to find an observation with exactly the requested coordinates.
+ * The coordinates are compared in the float precision of the observation columns, which is also the precision
+ * used by the interpolators. If there are several observations with the same coordinates, the first one wins.
+ */
+class ExactHitIndex {
+
+    private static final int EMPTY = -1;
+
+    private final float[][] cells;
+    private final int[] table;
+    private final int mask;
+
+    /**
+     * @param cells the observation columns
+     * @param start the first row to index
+     * @param count the number of rows to index
+     */
+    ExactHitIndex(float[][] cells, int start, int count) {
+        this.cells = cells;
+        int capacity = Integer.highestOneBit(Math.max(count, 1) * 2 - 1) << 1;
+        this.table = new int[capacity];
+        this.mask = capacity - 1;
+        Arrays.fill(table, EMPTY);
+        for (int i = start; i < start + count; i++) {
+            int pos = hash(cells[0][i], cells[1][i], cells[2][i]) & mask;
+            while (table[pos] != EMPTY && !matches(table[pos], cells[0][i], cells[1][i], cells[2][i]))
+                pos = (pos + 1) & mask;
+            if (table[pos] == EMPTY)
+                table[pos] = i;
+        }
+    }
+
+    /**
+     * @return the row with the coordinates or -1, if there is no such row
+     */
+    int get(float lon, float lat, float time) {
+        int pos = hash(lon, lat, time) & mask;
+        while (table[pos] != EMPTY) {
+            if (matches(table[pos], lon, lat, time))
+                return table[pos];
+            pos = (pos + 1) & mask;
+        }
+        return EMPTY;
+    }
+
+    private boolean matches(int row, float lon, float lat, float time) {
+        return cells[2][row] == time && cells[0][row] == lon && cells[1][row] == lat;
+    }
+
+    private int hash(float lon, float lat, float time) {
+        int h = Float.floatToIntBits(time + 0.0f);
+        h = 31 * h + Float.floatToIntBits(lon + 0.0f);
+        h = 31 * h + Float.floatToIntBits(lat + 0.0f);
+        return h ^ (h >>> 16);
+    }
+}
@@ -13,6 +13,8 @@ import org.locationtech.jts.geom.LineString;
 import org.locationtech.jts.geom.MultiPolygon;
 import org.locationtech.jts.geom.Polygon;
 
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Vector;
 
@@ -89,4 +91,79 @@ public class GeometryMultiPolygon implements Geometry {
         });
         return bbox;
     }
+
+    /**
+     * @return {@code true}, if the position is inside the multi-polygon (even-odd rule, so holes are excluded)
+     */
+    public boolean contains(double lon, double lat) {
+        boolean inside = false;
+        for (List<List<List<Double>>> polygon : coord) {
+            for (List<List<Double>> ring : polygon) {
+                for (int i = 0, j = ring.size() - 1; i < ring.size(); j = i++) {
+                    double lon0 = ring.get(i).get(0);
+                    double lat0 = ring.get(i).get(1);
+                    double lon1 = ring.get(j).get(0);
+                    double lat1 = ring.get(j).get(1);
+                    if ((lat0 > lat) != (lat1 > lat) &&
+                            lon < (lon1 - lon0) * (lat - lat0) / (lat1 - lat0) + lon0)
+                        inside = !inside;
+                }
+            }
+        }
+        return inside;
+    }
+
+    /**
+     * Determines the cells of a grid whose centres are inside the multi-polygon, with the same rule as
+     * {@link #contains(double, double)}. Each row is intersected once with all edges, so the cost is linear in the
+     * number of rows times the number of edges plus the number of cells.
+     *
+     * @param lons the western boundary of each column
+     * @param lats the northern boundary of each row
+     * @return the cells inside the multi-polygon, cell {@code (row, column)} is bit {@code row * lons.length + column}
+     */
+    public BitSet rasterize(double[] lons, double[] lats, double diffLon, double diffLat) {
+        // the edges as (lon0, lat0, lon1, lat1)
+        int edgeCount = 0;
+        for (List<List<List<Double>>> polygon : coord)
+            for (List<List<Double>> ring : polygon)
+                edgeCount += ring.size();
+        double[] edges = new double[edgeCount * 4];
+        int e = 0;
+        for (List<List<List<Double>>> polygon : coord)
+            for (List<List<Double>> ring : polygon)
+                for (int i = 0, j = ring.size() - 1; i < ring.size(); j = i++) {
+                    edges[e++] = ring.get(i).get(0);
+                    edges[e++] = ring.get(i).get(1);
+                    edges[e++] = ring.get(j).get(0);
+                    edges[e++] = ring.get(j).get(1);
+                }
+
+        BitSet cells = new BitSet(lons.length * lats.length);
+        double[] crossings = new double[edgeCount];
+        for (int row = 0; row < lats.length; row++) {
+            double lat = lats[row] - diffLat / 2;
+            int n = 0;
+            for (e = 0; e < edges.length; e += 4) {
+                double lon0 = edges[e];
+                double lat0 = edges[e + 1];
+                double lon1 = edges[e + 2];
+                double lat1 = edges[e + 3];
+                if ((lat0 > lat) != (lat1 > lat))
+                    crossings[n++] = (lon1 - lon0) * (lat - lat0) / (lat1 - lat0) + lon0;
+            }
+            Arrays.sort(crossings, 0, n);
+
+            // a centre is inside, if an odd number of crossings is east of it; the number of crossings is even
+            int west = 0;
+            for (int column = 0; column < lons.length; column++) {
+                double lon = lons[column] + diffLon / 2;
+                while (west < n && crossings[west] <= lon)
+                    west++;
+                if (west % 2 == 1)
+                    cells.set(row * lons.length + column);
+            }
+        }
+        return cells;
+    }
 }
@@ -0,0 +1,280 @@
+/**
+ * Copyright 2021 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.observation_processing.data;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static de.ii.ldproxy.ogcapi.observation_processing.data.KdTree.DIMENSIONS;
+import static de.ii.ldproxy.ogcapi.observation_processing.parameters.QueryParameterCoordPosition.R;
+
+/**
+ * A uniform grid of cubic cells over the 3D positions of the observations on the sphere, see {@link KdTree#toPoint},
+ * with the observations of each cell ordered by time. The occupied cells are kept in a hash table. The cell size is
+ * chosen so that a cell contains about two stations, so the index suits dense networks of evenly spaced stations.
+ * A query visits the cells in rings around the cell of the query point and walks the times of each cell outwards
+ * from the query time, as long as the points may be closer than the current bound, and at most up to the maximum
+ * distance. The distances are the same as in {@link KdTree}. With sparse or clustered stations, a query may walk many
+ * empty cells, so {@link SpatialIndex.Type#AUTO} never selects this index, it has to be configured explicitly.
+ */
+class GridHashIndex implements SpatialIndex {
+
+    // the average number of stations in a cell
+    private static final int STATIONS_PER_CELL = 2;
+    // cell indexes are stored with 21 bits
+    private static final int OFFSET = 1 << 20;
+    // the bounds of the cells are widened by 1 m against rounding errors
+    private static final float SLACK = 0.001f;
+
+    private final int size;
+    private final float cellSize;
+    // the number of rings that cover the sphere
+    private final int maxRing;
+    // x, y, z, time in km, ordered by cell and time
+    private final float[][] coordinates;
+    private final float[] values;
+    // the row of each point relative to the first row
+    private final int[] rows;
+    // the points of cell i are [offsets[i], offsets[i + 1])
+    private final int[] offsets;
+    // open addressing hash table of the occupied cells
+    private final long[] keys;
+    private final int[] cells;
+    private final int mask;
+    // see KdTree
+    private final float timeOrigin;
+
+    GridHashIndex(float[][] observations, int start, int count) {
+        this.size = count;
+        this.timeOrigin = count > 0 ? observations[2][start] : 0f;
+        float[][] input = new float[DIMENSIONS][count];
+        float[] point = new float[DIMENSIONS];
+        Set<Long> positions = new HashSet<>();
+        for (int i = 0; i < count; i++) {
+            KdTree.toPoint(observations[0][start + i], observations[1][start + i], observations[2][start + i] - timeOrigin, point);
+            for (int j = 0; j < DIMENSIONS; j++)
+                input[j][i] = point[j];
+            positions.add(((long) Float.floatToIntBits(observations[0][start + i]) << 32) | (Float.floatToIntBits(observations[1][start + i]) & 0xffffffffL));
+        }
+
+        // the area covered by the stations is estimated from the two largest extents
+        float[] extents = new float[3];
+        for (int j = 0; j < 3; j++) {
+            float min = Float.POSITIVE_INFINITY;
+            float max = Float.NEGATIVE_INFINITY;
+            for (int i = 0; i < count; i++) {
+                min = Math.min(min, input[j][i]);
+                max = Math.max(max, input[j][i]);
+            }
+            extents[j] = count > 0 ? max - min : 0;
+        }
+        Arrays.sort(extents);
+        double area = (double) extents[1] * extents[2];
+        this.cellSize = (float) Math.max(1.0, Math.sqrt(area * STATIONS_PER_CELL / Math.max(1, positions.size())));
+        this.maxRing = (int) Math.ceil(2 * R / cellSize) + 1;
+
+        // number the occupied cells and group the points by cell
+        Map<Long, Integer> ordinals = new HashMap<>();
+        int[] cellOf = new int[count];
+        for (int i = 0; i < count; i++) {
+            long key = key(index(input[0][i]), index(input[1][i]), index(input[2][i]));
+            cellOf[i] = ordinals.computeIfAbsent(key, k -> ordinals.size());
+        }
+        int cellCount = ordinals.size();
+        offsets = new int[cellCount + 1];
+        for (int i = 0; i < count; i++)
+            offsets[cellOf[i] + 1]++;
+        for (int c = 0; c < cellCount; c++)
+            offsets[c + 1] += offsets[c];
+        int[] next = Arrays.copyOf(offsets, cellCount);
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++)
+            order[next[cellOf[i]]++] = i;
+
+        // sort each cell by time, the key is the order-preserving bit pattern of the time and the point
+        long[] sortKeys = new long[count];
+        for (int c = 0; c < cellCount; c++) {
+            for (int j = offsets[c]; j < offsets[c + 1]; j++) {
+                int bits = Float.floatToIntBits(input[3][order[j]]);
+                sortKeys[j] = ((long) (bits ^ ((bits >> 31) & 0x7fffffff)) << 32) | order[j];
+            }
+            Arrays.sort(sortKeys, offsets[c], offsets[c + 1]);
+        }
+        coordinates = new float[DIMENSIONS][count];
+        values = new float[count];
+        rows = new int[count];
+        for (int j = 0; j < count; j++) {
+            int row = (int) sortKeys[j];
+            rows[j] = row;
+            for (int d = 0; d < DIMENSIONS; d++)
+                coordinates[d][j] = input[d][row];
+            values[j] = observations[3][start + row];
+        }
+
+        int capacity = 2;
+        while (capacity < 2 * cellCount)
+            capacity <<= 1;
+        mask = capacity - 1;
+        keys = new long[capacity];
+        cells = new int[capacity];
+        Arrays.fill(cells, -1);
+        ordinals.forEach((key, cell) -> {
+            int slot = hash(key) & mask;
+            while (cells[slot] >= 0)
+                slot = (slot + 1) & mask;
+            keys[slot] = key;
+            cells[slot] = cell;
+        });
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public float getValue(int point) {
+        return values[point];
+    }
+
+    @Override
+    public int getRow(int point) {
+        return rows[point];
+    }
+
+    @Override
+    public int nearestNeighbours(float lon, float lat, float time, int k, float maxDistance, int[] indices, float[] distances) {
+        if (size == 0 || k <= 0)
+            return 0;
+
+        NeighbourQuery query = NeighbourQuery.get();
+        query.reset(k, maxDistance, 0.0);
+        KdTree.toPoint(lon, lat, time - timeOrigin, query.point);
+        search(query.point, query, maxDistance);
+        return query.drainTo(coordinates, indices, distances);
+    }
+
+    @Override
+    public int[] candidates(float minLon, float minLat, float maxLon, float maxLat, float time, int k, float maxDistance) {
+        if (size == 0 || k <= 0)
+            return new int[0];
+
+        float[] center = new float[DIMENSIONS];
+        double radius = KdTree.blockRadius(minLon, minLat, maxLon, maxLat, time - timeOrigin, center);
+
+        // see KdTree
+        NeighbourQuery query = NeighbourQuery.get();
+        query.reset(k, maxDistance, 0.0);
+        System.arraycopy(center, 0, query.point, 0, DIMENSIONS);
+        search(center, query, maxDistance);
+        double range = maxDistance + radius;
+        if (query.heap.isFull())
+            range = Math.min(range, Math.sqrt(query.heap.max()) + 2 * radius);
+
+        RangeCollector collector = RangeCollector.get();
+        collector.reset((float) range);
+        search(center, collector, range);
+        return collector.toArray();
+    }
+
+    @Override
+    public int nearestNeighbours(float lon, float lat, float time, int k, float maxDistance, int[] candidates, int[] indices, float[] distances) {
+        if (size == 0 || k <= 0)
+            return 0;
+
+        NeighbourQuery query = NeighbourQuery.get();
+        query.reset(k, maxDistance, 0.0);
+        KdTree.toPoint(lon, lat, time - timeOrigin, query.point);
+        for (int candidate : candidates)
+            query.visit(candidate, NeighbourQuery.squaredDistance(coordinates, candidate, query.point));
+        return query.drainTo(coordinates, indices, distances);
+    }
+
+    private void search(float[] point, KdTree.Visitor visitor, double distance) {
+        int x = index(point[0]);
+        int y = index(point[1]);
+        int z = index(point[2]);
+        // the rings beyond the distance have no points within the distance
+        int rings = (int) Math.min(maxRing, Math.ceil(distance / cellSize) + 1);
+        for (int ring = 0; ring <= rings; ring++) {
+            // the points of a ring are farther than the width of the rings inside along one of the axes
+            float inside = (ring - 1) * cellSize - SLACK;
+            if (ring > 1 && inside * inside > visitor.bound())
+                return;
+            for (int dx = -ring; dx <= ring; dx++)
+                for (int dy = -ring; dy <= ring; dy++) {
+                    // the cells inside the ring are skipped
+                    boolean side = Math.abs(dx) == ring || Math.abs(dy) == ring;
+                    for (int dz = -ring; dz <= ring; dz += side ? 1 : 2 * ring)
+                        visitCell(x + dx, y + dy, z + dz, point, visitor);
+                }
+        }
+    }
+
+    private void visitCell(int x, int y, int z, float[] point, KdTree.Visitor visitor) {
+        int cell = find(key(x, y, z));
+        if (cell < 0)
+            return;
+
+        float spatialSquared = gap(point[0], x) + gap(point[1], y) + gap(point[2], z);
+        if (spatialSquared > visitor.bound())
+            return;
+
+        float[] times = coordinates[3];
+        int from = offsets[cell];
+        int to = offsets[cell + 1];
+        int position = Arrays.binarySearch(times, from, to, point[3]);
+        if (position < 0)
+            position = -position - 1;
+        for (int j = position - 1; j >= from; j--) {
+            float dt = point[3] - times[j];
+            if (spatialSquared + dt * dt > visitor.bound())
+                break;
+            visitor.visit(j, NeighbourQuery.squaredDistance(coordinates, j, point));
+        }
+        for (int j = position; j < to; j++) {
+            float dt = times[j] - point[3];
+            if (spatialSquared + dt * dt > visitor.bound())
+                break;
+            visitor.visit(j, NeighbourQuery.squaredDistance(coordinates, j, point));
+        }
+    }
+
+    // the squared distance of a coordinate to a cell along an axis
+    private float gap(float coordinate, int index) {
+        float min = index * cellSize - SLACK;
+        float max = (index + 1) * cellSize + SLACK;
+        float delta = coordinate < min ? min - coordinate : Math.max(0f, coordinate - max);
+        return delta * delta;
+    }
+
+    private int index(float coordinate) {
+        return (int) Math.floor(coordinate / cellSize);
+    }
+
+    private static long key(int x, int y, int z) {
+        return ((long) (x + OFFSET) << 42) | ((long) (y + OFFSET) << 21) | (z + OFFSET);
+    }
+
+    private static int hash(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32);
+    }
+
+    private int find(long key) {
+        int slot = hash(key) & mask;
+        while (cells[slot] >= 0) {
+            if (keys[slot] == key)
+                return cells[slot];
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,77 @@
+/**
+ * Copyright 2021 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.observation_processing.data;
+
+/**
+ * The inverse distance weighting of a batch of targets. The neighbours of the targets are stored as structure of
+ * arrays with a fixed stride per target, so the weights of all neighbours are computed in one loop without branches
+ * or calls that the JIT compiler can vectorize. The powers 1, 2 and 3 are computed by multiplication instead of
+ * {@link Math#pow(double, double)}.
+ */
+final class IdwKernel {
+
+    private final double power;
+    // the power, if it is 1, 2 or 3, otherwise 0
+    private final int integerPower;
+
+    IdwKernel(double power) {
+        this.power = power;
+        this.integerPower = power == 1.0 || power == 2.0 || power == 3.0 ? (int) power : 0;
+    }
+
+    /**
+     * Compute the weights 1 / distance^p. Distances of 0 result in infinite weights.
+     *
+     * @param length the number of entries
+     */
+    void weights(float[] distances, float[] weights, int length) {
+        switch (integerPower) {
+            case 1:
+                for (int i = 0; i < length; i++)
+                    weights[i] = 1f / distances[i];
+                break;
+            case 2:
+                for (int i = 0; i < length; i++)
+                    weights[i] = 1f / (distances[i] * distances[i]);
+                break;
+            case 3:
+                for (int i = 0; i < length; i++)
+                    weights[i] = 1f / (distances[i] * distances[i] * distances[i]);
+                break;
+            default:
+                for (int i = 0; i < length; i++)
+                    weights[i] = (float) Math.pow(distances[i], -power);
+        }
+    }
+
+    /**
+     * Interpolate a batch of targets. The neighbours of target i are at [i * stride, i * stride + counts[i]), the
+     * entries beyond the count of a target are ignored.
+     *
+     * @param distances the distances of the neighbours
+     * @param values the values of the neighbours
+     * @param counts the number of neighbours of each target
+     * @param stride the number of entries per target
+     * @param targets the number of targets
+     * @param weights receives the weights of the neighbours
+     * @param results receives the interpolated values, NaN for targets without neighbours
+     */
+    void interpolate(float[] distances, float[] values, int[] counts, int stride, int targets, float[] weights, float[] results) {
+        weights(distances, weights, targets * stride);
+        for (int target = 0; target < targets; target++) {
+            int offset = target * stride;
+            float a = 0;
+            float b = 0;
+            for (int i = offset; i < offset + counts[target]; i++) {
+                a += weights[i] * values[i];
+                b += weights[i];
+            }
+            results[target] = a / b;
+        }
+    }
+}
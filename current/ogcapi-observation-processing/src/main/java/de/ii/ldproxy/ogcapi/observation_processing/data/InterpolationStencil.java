@@ -0,0 +1,73 @@
+/**
+ * Copyright 2021 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.observation_processing.data;
+
+/**
+ * The neighbours and normalized inverse distance weights of a sequence of interpolation targets, for example the
+ * cells of a grid. The neighbours are rows relative to the first row of the observations of a variable, so a stencil
+ * can be applied to all observations with the same positions and times, see {@link Observations#getStencilKey}.
+ */
+public class InterpolationStencil {
+
+    private final int targets;
+    private final int maxNeighbours;
+    // the neighbours of target i are at [i * maxNeighbours, i * maxNeighbours + counts[i])
+    private final int[] counts;
+    private final int[] rows;
+    private final float[] weights;
+
+    InterpolationStencil(int targets, int maxNeighbours) {
+        this.targets = targets;
+        // an exact hit needs one entry
+        this.maxNeighbours = Math.max(1, maxNeighbours);
+        this.counts = new int[targets];
+        this.rows = new int[targets * this.maxNeighbours];
+        this.weights = new float[targets * this.maxNeighbours];
+    }
+
+    public int size() {
+        return targets;
+    }
+
+    /**
+     * @return the number of neighbour entries, a measure of the memory of the stencil
+     */
+    public int weight() {
+        return rows.length;
+    }
+
+    void set(int target, int[] neighbours, float[] neighbourWeights, int count) {
+        int offset = target * maxNeighbours;
+        System.arraycopy(neighbours, 0, rows, offset, count);
+        System.arraycopy(neighbourWeights, 0, weights, offset, count);
+        counts[target] = count;
+    }
+
+    // the target is an observation
+    void setExact(int target, int row) {
+        rows[target * maxNeighbours] = row;
+        weights[target * maxNeighbours] = 1f;
+        counts[target] = 1;
+    }
+
+    /**
+     * @param values the value column of the observations
+     * @param start the first row of the observations of the variable
+     * @return the interpolated value of the target, NaN, if the target has no neighbours
+     */
+    float apply(int target, float[] values, int start) {
+        int count = counts[target];
+        if (count == 0)
+            return Float.NaN;
+        int offset = target * maxNeighbours;
+        float value = 0;
+        for (int i = offset; i < offset + count; i++)
+            value += weights[i] * values[start + rows[i]];
+        return value;
+    }
+}
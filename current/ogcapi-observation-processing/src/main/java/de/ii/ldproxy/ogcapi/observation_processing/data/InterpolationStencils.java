@@ -0,0 +1,49 @@
+/**
+ * Copyright 2021 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.observation_processing.data;
+
+import java.util.Optional;
+
+/**
+ * The interpolation stencils of a collection that are reused across requests.
+ */
+public interface InterpolationStencils {
+
+    InterpolationStencils NONE = new InterpolationStencils() {
+        @Override
+        public boolean isEnabled() {
+            return false;
+        }
+
+        @Override
+        public boolean accepts(long neighbours) {
+            return false;
+        }
+
+        @Override
+        public Optional<InterpolationStencil> get(String key) {
+            return Optional.empty();
+        }
+
+        @Override
+        public void put(String key, InterpolationStencil stencil) {
+        }
+    };
+
+    boolean isEnabled();
+
+    /**
+     * @param neighbours the number of neighbour entries of a stencil, see {@link InterpolationStencil#weight()}
+     * @return {@code true}, if a stencil of this size can be cached, larger stencils would be evicted immediately
+     */
+    boolean accepts(long neighbours);
+
+    Optional<InterpolationStencil> get(String key);
+
+    void put(String key, InterpolationStencil stencil);
+}
@@ -7,352 +7,376 @@
  */
 package de.ii.ldproxy.ogcapi.observation_processing.data;
 
-import com.google.common.collect.ImmutableList;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
-import java.util.*;
-import java.util.stream.Collectors;
+import static de.ii.ldproxy.ogcapi.observation_processing.parameters.QueryParameterCoordPosition.R;
 
 /**
- * Based on the k-d tree implementation by Justin Wetherell <phishman3579@gmail.com>.
- * See https://github.com/phishman3579/java-algorithms-implementation/blob/master/src/com/jwetherell/algorithms/data_structures/KdTree.java.
+ * A balanced k-d tree of observations in space and time that is bulk-loaded from observation columns. The positions
+ * are converted once to 3D coordinates on a sphere with the earth radius, the time is scaled like degrees on a great
+ * circle, so all distance comparisons are Euclidean in km and consistent with the pruning of the search. Only the
+ * distances of the points found are converted to great circle distances.
+ * The tree is implicit: the points are stored in flat arrays in tree order, the root of the range [lo, hi) is the
+ * median at (lo + hi) / 2, the lesser subtree is [lo, median) and the greater subtree is [median + 1, hi). Each range
+ * is split along the axis with the largest extent. Large ranges are partitioned in parallel, if the tree is built in a
+ * fork/join pool; otherwise the tree is built sequentially, so the build does not run on the common pool.
  */
-public class KdTree {
-
-    private final int k;
-    private KdNode root = null;
-
-    public KdTree(int k) {
-        this.k = k;
-    }
-
-    public KdTree(int k, List<NdPoint> list) {
-        this.k = k;
-        root = createNode(list, 0);
+public class KdTree implements SpatialIndex {
+
+    // x, y, z, time
+    static final int DIMENSIONS = 4;
+    static final double TIME_SCALE = R * Math.PI / 180.0;
+    // ranges of at least this size are partitioned in parallel
+    private static final int PARALLEL_THRESHOLD = 16 * 1024;
+
+    private final int size;
+    // x, y, z, time in km in tree order
+    private final float[][] coordinates;
+    private final float[] values;
+    // the row of each point relative to the first row
+    private final int[] rows;
+    // the split axis of the median of each range
+    private final byte[] axes;
+    // the relative error of the distances of approximate neighbours, 0 for exact neighbours
+    private final double errorBound;
+    // the times are relative to the time of the first point, so the scaled times keep the precision of the time differences
+    private final float timeOrigin;
+
+    /**
+     * Build the tree from the rows [start, start + count) of the observation columns lon, lat, time, value.
+     */
+    public KdTree(float[][] cells, int start, int count) {
+        this(cells, start, count, 0.0);
     }
 
-    private KdNode createNode(List<NdPoint> list, int depth) {
-        if (list == null || list.size() == 0)
-            return null;
-
-        list.sort(Comparator.comparingDouble(o -> o.val[depth % k]));
-
-        KdNode node = null;
-        List<NdPoint> less = new ArrayList<>(list.size());
-        List<NdPoint> more = new ArrayList<>(list.size());
-        if (list.size() > 0) {
-            int medianIndex = list.size() / 2;
-            node = new KdNode(list.get(medianIndex), depth);
-            // Process list to see where each non-median point lies
-            for (int i = 0; i < list.size(); i++) {
-                if (i == medianIndex)
-                    continue;
-                NdPoint p = list.get(i);
-                // Cannot assume points before the median are less since they could be equal
-                if (node.compareTo(depth, p) <= 0) {
-                    less.add(p);
-                } else {
-                    more.add(p);
-                }
-            }
-
-            if ((medianIndex-1 >= 0) && less.size() > 0) {
-                node.lesser = createNode(less, depth + 1);
-                node.lesser.parent = node;
-            }
-
-            if ((medianIndex <= list.size()-1) && more.size() > 0) {
-                node.greater = createNode(more, depth + 1);
-                node.greater.parent = node;
-            }
+    /**
+     * Build a tree for approximate neighbours, see {@link NeighbourQuery}.
+     *
+     * @param errorBound the relative error of the distances of the neighbours
+     */
+    public KdTree(float[][] cells, int start, int count, double errorBound) {
+        this.size = count;
+        this.errorBound = errorBound;
+        this.timeOrigin = count > 0 ? cells[2][start] : 0f;
+        float[][] input = new float[DIMENSIONS][count];
+        float[] point = new float[DIMENSIONS];
+        for (int i = 0; i < count; i++) {
+            toPoint(cells[0][start + i], cells[1][start + i], cells[2][start + i] - timeOrigin, point);
+            for (int j = 0; j < DIMENSIONS; j++)
+                input[j][i] = point[j];
         }
-
-        return node;
-    }
-
-    public void add(NdPoint value) {
-        if (value == null)
-            return;
-
-        if (root == null) {
-            root = new KdNode(value);
-            return;
-        }
-
-        KdNode node = root;
-        while (true) {
-            if (node.compareTo(node.depth, value) <= 0) {
-                // Lesser
-                if (node.lesser == null) {
-                    KdNode newNode = new KdNode(value, node.depth + 1);
-                    newNode.parent = node;
-                    node.lesser = newNode;
-                    break;
-                }
-                node = node.lesser;
-            } else {
-                // Greater
-                if (node.greater == null) {
-                    KdNode newNode = new KdNode(value, node.depth + 1);
-                    newNode.parent = node;
-                    node.greater = newNode;
-                    break;
-                }
-                node = node.greater;
-            }
+        rows = new int[count];
+        for (int i = 0; i < count; i++)
+            rows[i] = i;
+
+        axes = new byte[count];
+        new Build(input, rows, axes, 0, count, ForkJoinTask.inForkJoinPool()).compute();
+
+        coordinates = new float[DIMENSIONS][count];
+        values = new float[count];
+        for (int i = 0; i < count; i++) {
+            for (int j = 0; j < DIMENSIONS; j++)
+                coordinates[j][i] = input[j][rows[i]];
+            values[i] = cells[3][start + rows[i]];
         }
     }
 
-    public boolean contains(NdPoint value) {
-        if (value == null || root == null)
-            return false;
-
-        KdNode node = getNode(value);
-        return (node != null);
+    @Override
+    public int size() {
+        return size;
     }
 
-    private KdNode getNode(NdPoint value) {
-        if (root == null || value == null)
-            return null;
-
-        KdNode node = root;
-        while (true) {
-            if (node.id.equals(value)) {
-                return node;
-            } else if (node.compareTo(node.depth, value) <= 0) {
-                // Lesser
-                if (node.lesser == null) {
-                    return null;
-                }
-                node = node.lesser;
-            } else {
-                // Greater
-                if (node.greater == null) {
-                    return null;
-                }
-                node = node.greater;
-            }
-        }
+    @Override
+    public float getValue(int point) {
+        return values[point];
     }
 
-    public boolean remove(NdPoint value) {
-        if (value == null || root == null)
-            return false;
-
-        KdNode node = getNode(value);
-        if (node == null)
-            return false;
-
-        KdNode parent = node.parent;
-        List<NdPoint> nodes = getTree(node);
-        if (parent != null) {
-            if (node.equals(parent.lesser)) {
-                if (nodes.size() > 0) {
-                    parent.lesser = createNode(nodes, node.depth);
-                    if (parent.lesser != null) {
-                        parent.lesser.parent = parent;
-                    }
-                } else {
-                    parent.lesser = null;
-                }
-            } else {
-                if (nodes.size() > 0) {
-                    parent.greater = createNode(nodes, node.depth);
-                    if (parent.greater != null) {
-                        parent.greater.parent = parent;
-                    }
-                } else {
-                    parent.greater = null;
-                }
-            }
-        } else {
-            // root
-            if (nodes.size() > 0)
-                root = createNode(nodes, node.depth);
-            else
-                root = null;
-        }
-
-        return true;
+    @Override
+    public int getRow(int point) {
+        return rows[point];
     }
 
-    private List<NdPoint> getTree(KdNode subroot) {
-        List<NdPoint> list = new ArrayList<>();
-        if (subroot == null)
-            return list;
-
-        if (subroot.lesser != null) {
-            list.add(subroot.lesser.id);
-            list.addAll(getTree(subroot.lesser));
-        }
-        if (subroot.greater != null) {
-            list.add(subroot.greater.id);
-            list.addAll(getTree(subroot.greater));
-        }
+    /**
+     * Find the k nearest points within a maximum distance. The search uses a query context of the current thread
+     * and does not allocate.
+     *
+     * @param lon the longitude of the query point
+     * @param lat the latitude of the query point
+     * @param time the time of the query point
+     * @param k the maximum number of points
+     * @param maxDistance the maximum distance in km
+     * @param indices receives the points found, ordered by distance, see {@link #getValue(int)}
+     * @param distances receives the distances in km of the points found
+     * @return the number of points found
+     */
+    @Override
+    public int nearestNeighbours(float lon, float lat, float time, int k, float maxDistance, int[] indices, float[] distances) {
+        if (size == 0 || k <= 0)
+            return 0;
+
+        NeighbourQuery query = NeighbourQuery.get();
+        query.reset(k, maxDistance, errorBound);
+        toPoint(lon, lat, time - timeOrigin, query.point);
+        search(0, size, query.point, query);
+        return query.drainTo(coordinates, indices, distances);
+    }
 
-        return list;
+    /**
+     * Determine the candidate neighbours of a block of query points, for example the cells of a grid at a time step.
+     * Every point that is one of the k nearest points within the maximum distance of a query point in the block
+     * is a candidate, so {@link #nearestNeighbours(float, float, float, int, float, int[], int[], float[])} finds
+     * the same neighbours as a search in the tree.
+     *
+     * @param minLon the minimum longitude of the query points
+     * @param minLat the minimum latitude of the query points
+     * @param maxLon the maximum longitude of the query points
+     * @param maxLat the maximum latitude of the query points
+     * @param time the time of the query points
+     * @param k the maximum number of points of each query
+     * @param maxDistance the maximum distance in km
+     * @return the candidates
+     */
+    @Override
+    public int[] candidates(float minLon, float minLat, float maxLon, float maxLat, float time, int k, float maxDistance) {
+        if (size == 0 || k <= 0)
+            return new int[0];
+
+        float[] center = new float[DIMENSIONS];
+        double radius = blockRadius(minLon, minLat, maxLon, maxLat, time - timeOrigin, center);
+
+        // the neighbours of a query point are within the k-th distance of the center plus twice the radius, and within the maximum distance plus the radius
+        NeighbourQuery query = NeighbourQuery.get();
+        query.reset(k, maxDistance, errorBound);
+        System.arraycopy(center, 0, query.point, 0, DIMENSIONS);
+        search(0, size, center, query);
+        double range = maxDistance + radius;
+        if (query.heap.isFull())
+            range = Math.min(range, Math.sqrt(query.heap.max()) + 2 * radius);
+
+        return collect(center, (float) range);
     }
 
-    public List<NdPoint> nearestNeighbourSearch(int K, float maxDistance, NdPoint value) {
-        if (value == null || root == null)
-            return ImmutableList.of();
-
-        // Map used for results
-        TreeSet<KdNode> results = new TreeSet<>(new NodeComparator(value));
-
-        // Find the closest leaf node
-        KdNode prev = null;
-        KdNode node = root;
-        while (node != null) {
-            if (node.compareTo(node.depth, value) <= 0) {
-                // Lesser
-                prev = node;
-                node = node.lesser;
-            } else {
-                // Greater
-                prev = node;
-                node = node.greater;
-            }
-        }
-        KdNode leaf = prev;
+    /**
+     * Find the k nearest points within a maximum distance among candidates.
+     *
+     * @param candidates the candidates, see {@link #candidates(float, float, float, float, float, int, float)}
+     * @see #nearestNeighbours(float, float, float, int, float, int[], float[])
+     */
+    @Override
+    public int nearestNeighbours(float lon, float lat, float time, int k, float maxDistance, int[] candidates, int[] indices, float[] distances) {
+        if (size == 0 || k <= 0)
+            return 0;
+
+        NeighbourQuery query = NeighbourQuery.get();
+        query.reset(k, maxDistance, errorBound);
+        toPoint(lon, lat, time - timeOrigin, query.point);
+        for (int candidate : candidates)
+            query.visit(candidate, squaredDistance(candidate, query.point));
+        return query.drainTo(coordinates, indices, distances);
+    }
 
-        // Used to not re-examine nodes
-        Set<KdNode> examined = new HashSet<>();
+    /**
+     * Visitor of the points of a search, the search visits the points on the side of the query point first and
+     * skips the points beyond a split plane, if the distance to the plane exceeds the current bound of the visitor.
+     */
+    interface Visitor {
+        /**
+         * @param point the point
+         * @param distanceSquared the squared Euclidean distance in km of the point
+         */
+        void visit(int point, float distanceSquared);
+
+        /**
+         * @return the squared distance in km beyond which no points are requested
+         */
+        float bound();
+    }
 
-        // Go up the tree, looking for better solutions
-        node = leaf;
-        while (node != null) {
-            // Search node
-            searchNode(value, node, K, maxDistance, results, examined);
-            node = node.parent;
-        }
+    void search(float[] point, Visitor visitor) {
+        search(0, size, point, visitor);
+    }
 
-        return results.stream()
-                      .map(n -> n.id)
-                      .collect(Collectors.toList());
+    /**
+     * @return all points within a Euclidean distance in km, ordered by their position in the tree
+     */
+    int[] collect(float[] point, float range) {
+        RangeCollector collector = RangeCollector.get();
+        collector.reset(range);
+        search(0, size, point, collector);
+        return collector.toArray();
     }
 
-    private void searchNode(NdPoint value, KdNode node, int K, float maxDistance, TreeSet<KdNode> results, Set<KdNode> examined) {
-        examined.add(node);
+    /**
+     * @param time the time relative to the time origin of the index, the scaled time is stored as a float
+     * @param point receives the x, y, z, time coordinates in km of a position and time
+     */
+    static void toPoint(float lon, float lat, float time, float[] point) {
+        double lonRad = Math.toRadians(lon);
+        double latRad = Math.toRadians(lat);
+        point[0] = (float) (R * Math.cos(latRad) * Math.cos(lonRad));
+        point[1] = (float) (R * Math.cos(latRad) * Math.sin(lonRad));
+        point[2] = (float) (R * Math.sin(latRad));
+        point[3] = (float) (time * TIME_SCALE);
+    }
 
-        // Search node
-        KdNode lastNode = null;
-        float lastDistance = Float.MAX_VALUE;
-        if (results.size() > 0) {
-            lastNode = results.last();
-            lastDistance = lastNode.id.distance(value);
-        }
-        Float nodeDistance = node.id.distance(value);
-        if (nodeDistance <= maxDistance) {
-            if (nodeDistance.compareTo(lastDistance) < 0) {
-                if (results.size() == K && lastNode != null)
-                    results.remove(lastNode);
-                results.add(node);
-            } else if (nodeDistance.equals(lastDistance)) {
-                results.add(node);
-            } else if (results.size() < K) {
-                results.add(node);
+    /**
+     * @param center receives the center of the block
+     * @return the radius in km of a block of query points at a time around its center, the farthest query points are the corners
+     */
+    static double blockRadius(float minLon, float minLat, float maxLon, float maxLat, float time, float[] center) {
+        float[] corner = new float[DIMENSIONS];
+        toPoint((minLon + maxLon) / 2, (minLat + maxLat) / 2, time, center);
+        double radius = 0;
+        for (float lon : new float[]{minLon, maxLon})
+            for (float lat : new float[]{minLat, maxLat}) {
+                toPoint(lon, lat, time, corner);
+                radius = Math.max(radius, Math.sqrt(squaredDistance(center, corner)));
             }
-        }
-        if (results.size() > 0) {
-            lastNode = results.last();
-            lastDistance = lastNode.id.distance(value);
-        }
-
-        int axis = node.depth % node.k;
-        KdNode lesser = node.lesser;
-        KdNode greater = node.greater;
-
-        // Search children branches, if axis aligned distance is less than
-        // current distance
-        if (lesser != null && !examined.contains(lesser)) {
-            examined.add(lesser);
-
-            float nodePoint = NdPoint.getValueInKm(axis,node.id);
-            float valuePlusDistance = NdPoint.getValueInKm(axis,value) - lastDistance;
-            boolean lineIntersectsCube = (valuePlusDistance <= nodePoint);
-
-            // Continue down lesser branch
-            if (lineIntersectsCube)
-                searchNode(value, lesser, K, maxDistance, results, examined);
-        }
-        if (greater != null && !examined.contains(greater)) {
-            examined.add(greater);
-
-            float nodePoint = NdPoint.getValueInKm(axis,node.id);
-            float valuePlusDistance = NdPoint.getValueInKm(axis,value) + lastDistance;
-            boolean lineIntersectsCube = (valuePlusDistance >= nodePoint);
+        return radius * 1.0001 + 0.001;
+    }
 
-            // Continue down greater branch
-            if (lineIntersectsCube)
-                searchNode(value, greater, K, maxDistance, results, examined);
-        }
+    /**
+     * @return the great circle distance in km for a squared chord length in km
+     */
+    static double arc(double chordSquared) {
+        return 2 * R * Math.asin(Math.min(1.0, Math.sqrt(chordSquared) / (2 * R)));
     }
 
-    protected class NodeComparator implements Comparator<KdNode> {
+    private void search(int lo, int hi, float[] point, Visitor visitor) {
+        if (lo >= hi)
+            return;
 
-        private final NdPoint point;
+        int median = (lo + hi) >>> 1;
+        visitor.visit(median, squaredDistance(median, point));
 
-        public NodeComparator(NdPoint point) {
-            this.point = point;
-        }
+        if (hi - lo == 1)
+            return;
 
-        @Override
-        public int compare(KdNode o1, KdNode o2) {
-            Float d1 = point.distance(o1.id);
-            Float d2 = point.distance(o2.id);
-            if (d1.compareTo(d2) < 0)
-                return -1;
-            else if (d2.compareTo(d1) < 0)
-                return 1;
-            return o1.id.compareTo(o2.id);
+        // search the side of the query first, the other side only if it may contain closer points
+        int axis = axes[median];
+        float delta = point[axis] - coordinates[axis][median];
+        if (delta <= 0)
+            search(lo, median, point, visitor);
+        else
+            search(median + 1, hi, point, visitor);
+
+        if (delta * delta <= visitor.bound()) {
+            if (delta <= 0)
+                search(median + 1, hi, point, visitor);
+            else
+                search(lo, median, point, visitor);
         }
     }
 
-    private static class KdNode implements Comparable<KdNode> {
-
-        private final NdPoint id;
-        private final int k;
-        private final int depth;
-
-        private KdNode parent = null;
-        private KdNode lesser = null;
-        private KdNode greater = null;
-
-        public KdNode(NdPoint id) {
-            this.id = id;
-            this.k = id.k;
-            this.depth = 0;
-        }
+    float squaredDistance(int point, float[] query) {
+        return NeighbourQuery.squaredDistance(coordinates, point, query);
+    }
 
-        public KdNode(NdPoint id, int depth) {
-            this.id = id;
-            this.k = id.k;
-            this.depth = depth;
-        }
+    private static float squaredDistance(float[] point1, float[] point2) {
+        float distanceSquared = 0;
+        for (int j = 0; j < DIMENSIONS; j++)
+            distanceSquared += (point1[j] - point2[j]) * (point1[j] - point2[j]);
+        return distanceSquared;
+    }
 
-        public int compareTo(int depth, NdPoint o1) {
-            int axis = depth % k;
-            return Float.compare(o1.val[axis], id.val[axis]);
+    private static class Build extends RecursiveAction {
+        private final float[][] coordinates;
+        private final int[] index;
+        private final byte[] axes;
+        private final int lo;
+        private final int hi;
+        private final boolean parallel;
+
+        Build(float[][] coordinates, int[] index, byte[] axes, int lo, int hi, boolean parallel) {
+            this.coordinates = coordinates;
+            this.index = index;
+            this.axes = axes;
+            this.lo = lo;
+            this.hi = hi;
+            this.parallel = parallel;
         }
 
         @Override
-        public boolean equals(Object other) {
-            if (!(other instanceof KdNode))
-                return false;
+        protected void compute() {
+            if (hi - lo <= 1)
+                return;
+
+            int median = (lo + hi) >>> 1;
+            int axis = widestAxis();
+            select(coordinates[axis], index, lo, hi - 1, median);
+            axes[median] = (byte) axis;
+            Build lesser = new Build(coordinates, index, axes, lo, median, parallel);
+            Build greater = new Build(coordinates, index, axes, median + 1, hi, parallel);
+            if (parallel && hi - lo >= PARALLEL_THRESHOLD) {
+                invokeAll(lesser, greater);
+            } else {
+                lesser.compute();
+                greater.compute();
+            }
+        }
 
-            KdNode node = (KdNode) other;
-            return this.compareTo(node) == 0;
+        private int widestAxis() {
+            int axis = 0;
+            float widest = -1;
+            for (int j = 0; j < DIMENSIONS; j++) {
+                float[] values = coordinates[j];
+                float min = Float.POSITIVE_INFINITY;
+                float max = Float.NEGATIVE_INFINITY;
+                for (int i = lo; i < hi; i++) {
+                    float value = values[index[i]];
+                    if (value < min)
+                        min = value;
+                    if (value > max)
+                        max = value;
+                }
+                if (max - min > widest) {
+                    widest = max - min;
+                    axis = j;
+                }
+            }
+            return axis;
         }
 
-        @Override
-        public int compareTo(KdNode o) {
-            return compareTo(depth, o.id);
+        // partition index[left..right] so that the k-th element is in place, smaller keys before, larger keys after
+        private static void select(float[] keys, int[] index, int left, int right, int k) {
+            while (right > left) {
+                int mid = (left + right) >>> 1;
+                // median of three as pivot
+                if (keys[index[mid]] < keys[index[left]])
+                    swap(index, mid, left);
+                if (keys[index[right]] < keys[index[left]])
+                    swap(index, right, left);
+                if (keys[index[right]] < keys[index[mid]])
+                    swap(index, right, mid);
+                float pivot = keys[index[mid]];
+
+                int i = left;
+                int j = right;
+                while (i <= j) {
+                    while (keys[index[i]] < pivot)
+                        i++;
+                    while (keys[index[j]] > pivot)
+                        j--;
+                    if (i <= j) {
+                        swap(index, i, j);
+                        i++;
+                        j--;
+                    }
+                }
+                if (k <= j)
+                    right = j;
+                else if (k >= i)
+                    left = i;
+                else
+                    return;
+            }
         }
 
-        @Override
-        public String toString() {
-            return String.format("k=%d, depth=%d, id=%s", k, depth, id);
+        private static void swap(int[] index, int i, int j) {
+            int tmp = index[i];
+            index[i] = index[j];
+            index[j] = tmp;
         }
     }
-
-}
\ No newline at end of file
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright 2021 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.observation_processing.data;
+
+/**
+ * The k closest points found so far by a neighbour search, a bounded max-heap by distance. A heap is reused by
+ * the queries of a thread, so the arrays only grow.
+ */
+class NeighbourHeap {
+
+    private float[] distances = new float[0];
+    private int[] points = new int[0];
+    private int capacity;
+    private int size;
+
+    void reset(int k) {
+        if (distances.length < k) {
+            distances = new float[k];
+            points = new int[k];
+        }
+        this.capacity = k;
+        this.size = 0;
+    }
+
+    boolean isFull() {
+        return size == capacity;
+    }
+
+    /**
+     * @return the largest distance in the heap, only valid if the heap is not empty
+     */
+    float max() {
+        return distances[0];
+    }
+
+    void offer(float distance, int point) {
+        if (size < capacity) {
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (distances[parent] >= distance)
+                    break;
+                distances[i] = distances[parent];
+                points[i] = points[parent];
+                i = parent;
+            }
+            distances[i] = distance;
+            points[i] = point;
+        } else if (distance < distances[0]) {
+            siftDown(distance, point);
+        }
+    }
+
+    private void siftDown(float distance, int point) {
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size)
+                break;
+            if (child + 1 < size && distances[child + 1] > distances[child])
+                child++;
+            if (distances[child] <= distance)
+                break;
+            distances[i] = distances[child];
+            points[i] = points[child];
+            i = child;
+        }
+        distances[i] = distance;
+        points[i] = point;
+    }
+
+    /**
+     * Write the points and distances ordered by distance, the heap is consumed.
+     *
+     * @return the number of points
+     */
+    int drainTo(int[] indices, float[] result) {
+        int count = size;
+        while (size > 0) {
+            indices[size - 1] = points[0];
+            result[size - 1] = distances[0];
+            size--;
+            if (size > 0)
+                siftDown(distances[size], points[size]);
+        }
+        return count;
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright 2021 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.observation_processing.data;
+
+/**
+ * The state of a search for the k nearest points by Euclidean distance in km, see {@link KdTree#toPoint}. A query is
+ * reused by the queries of a thread, the heap holds squared Euclidean distances. With an error bound e, the bound of
+ * the search is reduced by the factor (1 + e)^2, so the distance of each point found is at most (1 + e) times the
+ * distance of the exact neighbour.
+ */
+class NeighbourQuery implements KdTree.Visitor {
+
+    private static final ThreadLocal<NeighbourQuery> QUERY = ThreadLocal.withInitial(NeighbourQuery::new);
+
+    static NeighbourQuery get() {
+        return QUERY.get();
+    }
+
+    final float[] point = new float[KdTree.DIMENSIONS];
+    final NeighbourHeap heap = new NeighbourHeap();
+    private float maxDistance;
+    private float maxDistanceSquared;
+    private float approximation;
+
+    void reset(int k, float maxDistance, double errorBound) {
+        heap.reset(k);
+        this.maxDistance = maxDistance;
+        this.maxDistanceSquared = maxDistance * maxDistance;
+        this.approximation = (float) ((1 + errorBound) * (1 + errorBound));
+    }
+
+    @Override
+    public void visit(int point, float distanceSquared) {
+        if (distanceSquared <= maxDistanceSquared)
+            heap.offer(distanceSquared, point);
+    }
+
+    @Override
+    public float bound() {
+        // the approximation only applies to the distance of the k-th neighbour, all points within the maximum distance are candidates until k have been found
+        return heap.isFull() ? heap.max() / approximation : maxDistanceSquared;
+    }
+
+    /**
+     * Write the points ordered by distance; points beyond the maximum great circle distance are dropped.
+     *
+     * @param coordinates the x, y, z, time coordinates of the points
+     * @return the number of points
+     */
+    int drainTo(float[][] coordinates, int[] indices, float[] result) {
+        int count = heap.drainTo(indices, result);
+        int found = 0;
+        for (int i = 0; i < count; i++) {
+            float distance = distance(coordinates, indices[i], point);
+            if (distance <= maxDistance) {
+                indices[found] = indices[i];
+                result[found++] = distance;
+            }
+        }
+        return found;
+    }
+
+    static float squaredDistance(float[][] coordinates, int point, float[] query) {
+        float dx = coordinates[0][point] - query[0];
+        float dy = coordinates[1][point] - query[1];
+        float dz = coordinates[2][point] - query[2];
+        float dt = coordinates[3][point] - query[3];
+        return dx * dx + dy * dy + dz * dz + dt * dt;
+    }
+
+    // the great circle distance in km combined with the time distance
+    private static float distance(float[][] coordinates, int point, float[] query) {
+        float dx = coordinates[0][point] - query[0];
+        float dy = coordinates[1][point] - query[1];
+        float dz = coordinates[2][point] - query[2];
+        float dt = coordinates[3][point] - query[3];
+        double arc = KdTree.arc(dx * dx + dy * dy + dz * dz);
+        return (float) Math.sqrt(arc * arc + dt * dt);
+    }
+}
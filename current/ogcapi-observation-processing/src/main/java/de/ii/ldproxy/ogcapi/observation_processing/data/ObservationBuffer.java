@@ -0,0 +1,192 @@
+/**
+ * Copyright 2021 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.observation_processing.data;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Growable column buffer for the ingest of observations. The rows are stored in chunks, the first chunk is sized
+ * from the expected number of rows (if known), every further chunk doubles the capacity up to a maximum chunk size.
+ * So the memory scales with the number of rows actually received and no large array has to be copied on growth.
+ * If more rows than the memory budget allows are received, full chunks are spilled to memory-mapped temporary
+ * files and their columns are read from the mapping. The budget only bounds the heap during the ingest, the
+ * partitioned columns of {@link Observations} are on the heap.
+ */
+class ObservationBuffer {
+
+    static final int MIN_CHUNK_SIZE = 1024;
+    static final int MAX_CHUNK_SIZE = 64 * 1024;
+    // lon, lat, time, value, variable index, station index
+    static final int BYTES_PER_ROW = 6 * 4;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ObservationBuffer.class);
+
+    private final List<Chunk> chunks;
+    // the number of rows of variable v and station s is at counts[v][s + 1], s = -1 for rows without a station
+    private int[][] counts;
+    private final long maxRowsInMemory;
+    private Chunk current;
+    private long rowsInMemory;
+    private int count;
+
+    /**
+     * @param expectedCount the number of rows that are expected, if known, otherwise 0
+     * @param memoryBudget the maximum number of bytes of the chunks on the heap, 0 for no limit
+     */
+    ObservationBuffer(int expectedCount, long memoryBudget) {
+        this.chunks = new ArrayList<>();
+        this.counts = new int[0][];
+        this.maxRowsInMemory = memoryBudget > 0 ? Math.max(memoryBudget / BYTES_PER_ROW, MAX_CHUNK_SIZE) : Long.MAX_VALUE;
+        this.rowsInMemory = 0;
+        this.count = 0;
+        addChunk(Math.max(MIN_CHUNK_SIZE, Math.min(expectedCount, MAX_CHUNK_SIZE)));
+    }
+
+    private void addChunk(int size) {
+        current = new Chunk(size);
+        chunks.add(current);
+        rowsInMemory += size;
+    }
+
+    void add(float lon, float lat, float time, float value, int varIdx, int stationIdx) {
+        if (current.size == current.cells[0].length) {
+            if (rowsInMemory > maxRowsInMemory) {
+                rowsInMemory -= current.size;
+                current.spill();
+            }
+            addChunk(Math.min(current.size * 2, MAX_CHUNK_SIZE));
+        }
+
+        current.cells[0][current.size] = lon;
+        current.cells[1][current.size] = lat;
+        current.cells[2][current.size] = time;
+        current.cells[3][current.size] = value;
+        current.indices[0][current.size] = varIdx;
+        current.indices[1][current.size] = stationIdx;
+        current.size++;
+        count++;
+
+        if (varIdx >= counts.length)
+            counts = Arrays.copyOf(counts, Math.max(varIdx + 1, counts.length * 2));
+        int[] varCounts = counts[varIdx];
+        if (varCounts == null || stationIdx + 1 >= varCounts.length)
+            varCounts = counts[varIdx] = varCounts == null ? new int[Math.max(stationIdx + 2, 16)] : Arrays.copyOf(varCounts, Math.max(stationIdx + 2, varCounts.length * 2));
+        varCounts[stationIdx + 1]++;
+    }
+
+    /**
+     * @param stationIdx the station, -1 for the rows without a station
+     * @return the number of rows of the variable at the station
+     */
+    int getCount(int varIdx, int stationIdx) {
+        return varIdx < counts.length && counts[varIdx] != null && stationIdx + 1 < counts[varIdx].length ? counts[varIdx][stationIdx + 1] : 0;
+    }
+
+    int size() {
+        return count;
+    }
+
+    int getChunkCount() {
+        return chunks.size();
+    }
+
+    int getChunkSize(int chunk) {
+        return chunks.get(chunk).size;
+    }
+
+    /**
+     * @return the chunk, the columns of a spilled chunk are read from the mapping of its file
+     */
+    Chunk getChunk(int chunk) {
+        return chunks.get(chunk);
+    }
+
+    /**
+     * Release a chunk that has been processed, it must not be accessed afterwards.
+     */
+    void release(int chunk) {
+        chunks.set(chunk, null);
+    }
+
+    static class Chunk {
+        // the columns lon, lat, time and value
+        float[][] cells;
+        // the columns variable index and station index
+        int[][] indices;
+        int size;
+        private MappedByteBuffer spilled;
+
+        Chunk(int capacity) {
+            cells = new float[4][capacity];
+            indices = new int[2][capacity];
+            size = 0;
+        }
+
+        private void spill() {
+            try {
+                Path file = Files.createTempFile("observations", ".chunk");
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    spilled = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) size * BYTES_PER_ROW);
+                }
+                // the mapping remains valid, the file is removed as soon as possible
+                try {
+                    Files.delete(file);
+                } catch (IOException e) {
+                    file.toFile().deleteOnExit();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Observations could not be written to a temporary file.", e);
+            }
+            for (int j = 0; j < 4; j++)
+                column(j).asFloatBuffer().put(cells[j], 0, size);
+            for (int j = 0; j < 2; j++)
+                column(4 + j).asIntBuffer().put(indices[j], 0, size);
+            cells = null;
+            indices = null;
+            LOGGER.trace("{} observations spilled to a temporary file.", size);
+        }
+
+        private ByteBuffer column(int column) {
+            ByteBuffer buffer = spilled.duplicate();
+            buffer.position(column * size * 4);
+            return buffer.slice().order(ByteOrder.nativeOrder());
+        }
+
+        /**
+         * @param column lon, lat, time or value
+         * @return the column, the chunk is not copied to the heap
+         */
+        FloatBuffer getCells(int column) {
+            return spilled == null ? FloatBuffer.wrap(cells[column], 0, size) : column(column).asFloatBuffer();
+        }
+
+        /**
+         * @param column variable index or station index
+         * @return the column, the chunk is not copied to the heap
+         */
+        IntBuffer getIndices(int column) {
+            return spilled == null ? IntBuffer.wrap(indices[column], 0, size) : column(4 + column).asIntBuffer();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright 2021 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.observation_processing.data;
+
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.Temporal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The observations of a single variable on a single day (UTC) in a compact columnar representation,
+ * independent of the dictionaries of the {@link Observations} they have been taken from.
+ */
+public class ObservationChunk {
+
+    private static final ObservationChunk EMPTY = new ObservationChunk(new float[4][0], new int[0], new String[0], new String[0]);
+
+    private final float[][] cells;
+    private final int[] stationIndex;
+    private final String[] stationIds;
+    private final String[] stationNames;
+
+    private ObservationChunk(float[][] cells, int[] stationIndex, String[] stationIds, String[] stationNames) {
+        this.cells = cells;
+        this.stationIndex = stationIndex;
+        this.stationIds = stationIds;
+        this.stationNames = stationNames;
+    }
+
+    public static ObservationChunk empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Split observations into chunks per variable and day. Chunks are created for all days between
+     * {@code firstDay} and {@code lastDay}, including empty chunks for days without observations.
+     * Observations outside of the days are ignored.
+     *
+     * @param observations the observations
+     * @param firstDay the first day
+     * @param lastDay the last day
+     * @return the chunks by variable and day
+     */
+    public static Map<String, Map<LocalDate, ObservationChunk>> split(Observations observations, LocalDate firstDay, LocalDate lastDay) {
+        observations.partition();
+        int days = (int) ChronoUnit.DAYS.between(firstDay, lastDay) + 1;
+        long first = ChronoUnit.DAYS.between(Observations.day(0), firstDay);
+        Map<String, Map<LocalDate, ObservationChunk>> chunks = new HashMap<>();
+        for (int var = 0; var < observations.index2variable.size(); var++) {
+            Observations obsVar = observations.getObservations(var);
+            int[] counts = new int[days];
+            int[] dayIndex = new int[obsVar.count];
+            for (int i = 0; i < obsVar.count; i++) {
+                long day = Observations.dayNumber(obsVar.cells[2][obsVar.start + i]) - first;
+                dayIndex[i] = day >= 0 && day < days ? (int) day : -1;
+                if (dayIndex[i] >= 0)
+                    counts[dayIndex[i]]++;
+            }
+
+            // fill the chunks of all days in a single pass, the stations are numbered per chunk in the order of their first observation
+            float[][][] cells = new float[days][][];
+            int[][] stationIndex = new int[days][];
+            List<Map<Integer, Integer>> stations = new ArrayList<>(days);
+            for (int day = 0; day < days; day++) {
+                cells[day] = new float[4][counts[day]];
+                stationIndex[day] = new int[counts[day]];
+                stations.add(new HashMap<>());
+            }
+            int[] next = new int[days];
+            for (int i = 0; i < obsVar.count; i++) {
+                int day = dayIndex[i];
+                if (day < 0)
+                    continue;
+                int row = obsVar.start + i;
+                int k = next[day]++;
+                for (int j = 0; j < 4; j++)
+                    cells[day][j][k] = obsVar.cells[j][row];
+                int station = obsVar.stationIndex[row];
+                Map<Integer, Integer> dayStations = stations.get(day);
+                stationIndex[day][k] = station >= 0 ? dayStations.computeIfAbsent(station, s -> dayStations.size()) : -1;
+            }
+
+            Map<LocalDate, ObservationChunk> varChunks = new HashMap<>();
+            for (int day = 0; day < days; day++) {
+                Map<Integer, Integer> dayStations = stations.get(day);
+                String[] stationIds = new String[dayStations.size()];
+                String[] stationNames = new String[dayStations.size()];
+                dayStations.forEach((station, idx) -> {
+                    stationIds[idx] = observations.index2stationId.get(station);
+                    stationNames[idx] = observations.index2stationName.get(station);
+                });
+                varChunks.put(firstDay.plusDays(day), counts[day] > 0 ? new ObservationChunk(cells[day], stationIndex[day], stationIds, stationNames) : EMPTY);
+            }
+            chunks.put(observations.index2variable.get(var), varChunks);
+        }
+        return chunks;
+    }
+
+    /**
+     * @return the number of observations in the chunk
+     */
+    public int size() {
+        return stationIndex.length;
+    }
+
+    /**
+     * Add the observations in the chunk that are in a time window to the observations of a request.
+     *
+     * @param observations the target
+     * @param variable the variable of the chunk
+     * @param from the begin of the time window
+     * @param to the end of the time window, a local date includes the whole day
+     */
+    public void addTo(Observations observations, String variable, Temporal from, Temporal to) {
+        float min = (float) Observations.temporalToDouble(from);
+        float max = to instanceof LocalDate ?
+                (float) Observations.temporalToDouble(((LocalDate) to).plusDays(1)) :
+                Math.nextUp((float) Observations.temporalToDouble(to));
+        int varIdx = observations.getOrAddVariable(variable);
+        for (int i = 0; i < size(); i++) {
+            if (cells[2][i] < min || cells[2][i] >= max)
+                continue;
+            int station = stationIndex[i];
+            observations.addValue(cells[0][i], cells[1][i], cells[2][i], varIdx, cells[3][i],
+                                  station >= 0 ? stationIds[station] : null, station >= 0 ? stationNames[station] : null);
+        }
+    }
+}
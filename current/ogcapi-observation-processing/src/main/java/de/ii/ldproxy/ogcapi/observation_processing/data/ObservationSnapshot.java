@@ -0,0 +1,304 @@
+/**
+ * Copyright 2021 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.observation_processing.data;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.temporal.Temporal;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Objects;
+
+/**
+ * A columnar snapshot of all observations of a collection in a local file that is memory-mapped. The file starts
+ * with a header (variable dictionary with the row offsets of each variable, station dictionary), followed by the
+ * columns longitude, latitude, time, value and station index. Within each variable, the rows are sorted by time,
+ * so the rows of a time window are found with a binary search. A snapshot is incomplete, if the feature query has
+ * been limited; then the observations are only taken from the features.
+ */
+public class ObservationSnapshot {
+
+    private static final int MAGIC = 0x4f425353;
+    private static final int VERSION = 2;
+
+    private final Instant created;
+    private final boolean complete;
+    private final int count;
+    private final String[] variables;
+    private final int[] offsets;
+    private final String[] stationIds;
+    private final String[] stationNames;
+    private final float[] stationLon;
+    private final float[] stationLat;
+    private final FloatBuffer lon;
+    private final FloatBuffer lat;
+    private final FloatBuffer time;
+    private final FloatBuffer value;
+    private final IntBuffer station;
+
+    private ObservationSnapshot(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            int headerLength = in.readInt();
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException(String.format("The file '%s' is not an observation snapshot.", path));
+            created = Instant.ofEpochMilli(in.readLong());
+            complete = in.readBoolean();
+            count = in.readInt();
+            variables = new String[in.readInt()];
+            offsets = new int[variables.length + 1];
+            for (int i = 0; i < variables.length; i++)
+                variables[i] = in.readUTF();
+            for (int i = 0; i <= variables.length; i++)
+                offsets[i] = in.readInt();
+            int stationCount = in.readInt();
+            stationIds = new String[stationCount];
+            stationNames = new String[stationCount];
+            stationLon = new float[stationCount];
+            stationLat = new float[stationCount];
+            for (int i = 0; i < stationCount; i++) {
+                stationIds[i] = in.readUTF();
+                stationNames[i] = in.readBoolean() ? in.readUTF() : null;
+                stationLon[i] = in.readFloat();
+                stationLat[i] = in.readFloat();
+            }
+
+            // the mapping remains valid after the channel has been closed
+            long position = columnsPosition(headerLength);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, (long) count * 5 * Float.BYTES);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            lon = column(buffer, 0).asFloatBuffer();
+            lat = column(buffer, 1).asFloatBuffer();
+            time = column(buffer, 2).asFloatBuffer();
+            value = column(buffer, 3).asFloatBuffer();
+            station = column(buffer, 4).asIntBuffer();
+        }
+    }
+
+    private ByteBuffer column(ByteBuffer buffer, int column) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(column * count * Float.BYTES);
+        slice.limit((column + 1) * count * Float.BYTES);
+        return slice.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static long columnsPosition(int headerLength) {
+        // the columns start at a 4-byte boundary
+        return (Integer.BYTES + headerLength + 3) / 4 * 4;
+    }
+
+    /**
+     * Map an existing snapshot file.
+     *
+     * @param path the snapshot file
+     * @return the snapshot
+     * @throws IOException the file could not be read
+     */
+    public static ObservationSnapshot open(Path path) throws IOException {
+        return new ObservationSnapshot(path);
+    }
+
+    /**
+     * Write all observations of a collection to a snapshot file.
+     *
+     * @param observations the observations
+     * @param path the snapshot file
+     * @throws IOException the file could not be written
+     */
+    public static void write(Observations observations, Path path) throws IOException {
+        write(observations, path, Instant.now(), true);
+    }
+
+    /**
+     * Write the observations to a snapshot file. The file is written next to the target and then moved, so an
+     * existing snapshot is replaced atomically and mappings of the old file remain valid.
+     *
+     * @param observations the observations
+     * @param path the snapshot file
+     * @param created the time when the observations have been queried
+     * @param complete {@code false}, if the observations are not all observations of the collection
+     * @throws IOException the file could not be written
+     */
+    public static void write(Observations observations, Path path, Instant created, boolean complete) throws IOException {
+        observations.partition();
+        int count = observations.count;
+        int varCount = observations.index2variable.size();
+        int stationCount = observations.stationId2index.size();
+        if ((long) count * 5 * Float.BYTES > Integer.MAX_VALUE)
+            throw new IllegalArgumentException(String.format("Too many observations for a snapshot: %d.", count));
+
+        // sort the rows within each variable by time, the key is the order-preserving bit pattern of the time and the row
+        int[] offsets = new int[varCount + 1];
+        int[] rows = new int[count];
+        int k = 0;
+        for (int var = 0; var < varCount; var++) {
+            Observations obsVar = observations.getObservations(var);
+            long[] keys = new long[obsVar.count];
+            for (int i = 0; i < obsVar.count; i++) {
+                int bits = Float.floatToIntBits(obsVar.cells[2][obsVar.start + i]);
+                keys[i] = ((long) (bits ^ ((bits >> 31) & 0x7fffffff)) << 32) | (obsVar.start + i);
+            }
+            Arrays.parallelSort(keys);
+            for (long key : keys)
+                rows[k++] = (int) key;
+            offsets[var + 1] = k;
+        }
+
+        ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(headerBytes);
+        header.writeInt(MAGIC);
+        header.writeInt(VERSION);
+        header.writeLong(created.toEpochMilli());
+        header.writeBoolean(complete);
+        header.writeInt(count);
+        header.writeInt(varCount);
+        for (int var = 0; var < varCount; var++)
+            header.writeUTF(observations.index2variable.get(var));
+        for (int offset : offsets)
+            header.writeInt(offset);
+        header.writeInt(stationCount);
+        for (int s = 0; s < stationCount; s++) {
+            header.writeUTF(observations.index2stationId.get(s));
+            String name = observations.index2stationName.get(s);
+            header.writeBoolean(Objects.nonNull(name));
+            if (Objects.nonNull(name))
+                header.writeUTF(name);
+            GeometryPoint position = observations.index2stationPosition.get(s);
+            header.writeFloat(position.getLon().floatValue());
+            header.writeFloat(position.getLat().floatValue());
+        }
+        header.flush();
+
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        long position = columnsPosition(headerBytes.size());
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer head = ByteBuffer.allocate((int) position);
+            head.putInt(headerBytes.size());
+            head.put(headerBytes.toByteArray());
+            head.rewind();
+            channel.write(head, 0);
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, position, (long) count * 5 * Float.BYTES);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            for (int j = 0; j < 4; j++)
+                for (int row : rows)
+                    buffer.putFloat(observations.cells[j][row]);
+            for (int row : rows)
+                buffer.putInt(observations.stationIndex[row]);
+            buffer.force();
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return the time when the observations of the snapshot have been queried
+     */
+    public Instant getCreated() {
+        return created;
+    }
+
+    /**
+     * @return {@code true}, if the snapshot has all observations of the collection at the time of its creation
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * @param to the end of a time window, a local date includes the whole day
+     * @return {@code true}, if the snapshot is complete and has been created after the end of the time window, so
+     * it has all observations of the time window
+     */
+    public boolean covers(Temporal to) {
+        Instant end = to instanceof LocalDate ?
+                ((LocalDate) to).plusDays(1).atStartOfDay(ZoneOffset.UTC).toInstant() :
+                Instant.from(to);
+        return complete && !end.isAfter(created);
+    }
+
+    /**
+     * @return the number of observations in the snapshot
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Select observations from the snapshot.
+     *
+     * @param variableNames the variables
+     * @param from the begin of the time window
+     * @param to the end of the time window, a local date includes the whole day
+     * @param bbox the bounding box (lon/lat) of the stations, or {@code null}
+     * @param area the area of the stations, or {@code null}
+     * @return the observations
+     */
+    public Observations select(Collection<String> variableNames, Temporal from, Temporal to, double[] bbox, GeometryMultiPolygon area) {
+        float min = (float) Observations.temporalToDouble(from);
+        float max = to instanceof LocalDate ?
+                (float) Observations.temporalToDouble(((LocalDate) to).plusDays(1)) :
+                Math.nextUp((float) Observations.temporalToDouble(to));
+
+        boolean[] stationSelected = new boolean[stationIds.length];
+        for (int s = 0; s < stationIds.length; s++)
+            stationSelected[s] = isSelected(stationLon[s], stationLat[s], bbox, area);
+
+        Observations observations = new Observations();
+        for (int var = 0; var < variables.length; var++) {
+            if (!variableNames.contains(variables[var]))
+                continue;
+            int varIdx = observations.getOrAddVariable(variables[var]);
+            int end = offsets[var + 1];
+            for (int row = firstRow(offsets[var], end, min); row < end && time.get(row) < max; row++) {
+                int s = station.get(row);
+                if (s >= 0 ? !stationSelected[s] : !isSelected(lon.get(row), lat.get(row), bbox, area))
+                    continue;
+                observations.addValue(lon.get(row), lat.get(row), time.get(row), varIdx, value.get(row),
+                                      s >= 0 ? stationIds[s] : null, s >= 0 ? stationNames[s] : null);
+            }
+        }
+        return observations;
+    }
+
+    private int firstRow(int begin, int end, float min) {
+        int low = begin;
+        int high = end;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (time.get(mid) < min)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    private static boolean isSelected(float lon, float lat, double[] bbox, GeometryMultiPolygon area) {
+        if (Objects.nonNull(bbox) && (lon < bbox[0] || lon > bbox[2] || lat < bbox[1] || lat > bbox[3]))
+            return false;
+        return Objects.isNull(area) || area.contains(lon, lat);
+    }
+}
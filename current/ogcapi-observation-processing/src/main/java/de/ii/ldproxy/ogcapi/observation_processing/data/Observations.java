@@ -9,19 +9,18 @@ package de.ii.ldproxy.ogcapi.observation_processing.data;
 
 import com.google.common.collect.ImmutableList;
 import de.ii.ldproxy.ogcapi.observation_processing.api.TemporalInterval;
-import org.apache.commons.math3.analysis.UnivariateFunction;
-import org.apache.commons.math3.analysis.function.Constant;
-import org.apache.commons.math3.analysis.interpolation.LinearInterpolator;
-import org.apache.commons.math3.analysis.interpolation.SplineInterpolator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
 import java.time.*;
 import java.time.temporal.Temporal;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 import static de.ii.ldproxy.ogcapi.observation_processing.parameters.QueryParameterDatetimeDapa.ANI;
@@ -31,9 +30,10 @@ public class Observations {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(Observations.class);
 
-    static double THRESHOLD = 0.000001;
     static float NULL = Float.MIN_VALUE;
     private static final OffsetTime MIDNIGHT_UTC = OffsetTime.of(LocalTime.MIDNIGHT, ZoneOffset.UTC);
+    // the number of rows and columns of a block of grid cells with shared candidate neighbours
+    private static final int GRID_BLOCK_SIZE = 8;
     private static LocalDate REFERENCE_DATE = LocalDate.of(1970, Month.JANUARY, 1);
     private static OffsetDateTime REFERENCE_DATETIME = REFERENCE_DATE.atTime(MIDNIGHT_UTC);
     private static OffsetDateTime toOffsetDateTime(Temporal temp) {
@@ -43,37 +43,80 @@ public class Observations {
     }
     static LocalDate date(double time) {return REFERENCE_DATE.plusDays(Math.round(time / ANI));}
     static OffsetDateTime datetime(double time) {return REFERENCE_DATETIME.plusSeconds((long)(time/ANI*60*60*24));}
-    private static double temporalToDouble(Temporal temp) {
+    static LocalDate day(double time) {return REFERENCE_DATE.plusDays(dayNumber(time));}
+    static long dayNumber(double time) {return (long) Math.floor(time / ANI);}
+    static double temporalToDouble(Temporal temp) {
         return temp instanceof LocalDate ?
                 Duration.between(REFERENCE_DATETIME, ((LocalDate) temp).atTime(MIDNIGHT_UTC)).toDays()*ANI :
                 Duration.between(REFERENCE_DATETIME, temp).getSeconds()*ANI/(60*60*24);
     }
+    ObservationBuffer buffer;
     float[][] cells;
-    int[] variableIndex;
     int[] stationIndex;
+    int start;
+    int[] offsets;
+    int stationSlots;
     String variable;
     ConcurrentMap<String, Integer> variable2index;
     ConcurrentMap<String, Integer> stationId2index;
     ConcurrentMap<Integer, String> index2variable;
     ConcurrentMap<Integer, String> index2stationId;
     ConcurrentMap<Integer, String> index2stationName;
-    UnivariateFunction tInterpolator;
+    ConcurrentMap<Integer, GeometryPoint> index2stationPosition;
     XytInterpolator xytInterpolator;
+    ExactHitIndex exactHits;
     int count;
 
-    public Observations(int count) {
-        cells = new float[4][count];
-        variableIndex = new int[count];
-        stationIndex = new int[count];
+    public Observations() {
+        this(0);
+    }
+
+    public Observations(int expectedCount) {
+        this(expectedCount, 0);
+    }
+
+    /**
+     * @param expectedCount the number of observations that are expected, if known, otherwise 0;
+     *                      the buffers grow as needed
+     * @param memoryBudget the number of bytes of received observations that are kept on the heap during the ingest,
+     *                     further observations are spilled to temporary files; 0 for no limit
+     */
+    public Observations(int expectedCount, long memoryBudget) {
+        buffer = new ObservationBuffer(expectedCount, memoryBudget);
+        cells = null;
+        stationIndex = null;
         variable = null;
+        this.start = 0;
         this.count = 0;
+        offsets = null;
+        stationSlots = 0;
         variable2index = new ConcurrentHashMap<>();
         index2variable = new ConcurrentHashMap<>();
         stationId2index = new ConcurrentHashMap<>();
         index2stationId = new ConcurrentHashMap<>();
         index2stationName = new ConcurrentHashMap<>();
-        tInterpolator = null;
+        index2stationPosition = new ConcurrentHashMap<>();
+        xytInterpolator = null;
+        exactHits = null;
+    }
+
+    private Observations(Observations parent, int start, int count, String variable) {
+        buffer = null;
+        cells = parent.cells;
+        stationIndex = parent.stationIndex;
+        this.start = start;
+        this.count = count;
+        this.variable = variable;
+        offsets = null;
+        stationSlots = 0;
+        variable2index = parent.variable2index;
+        index2variable = parent.index2variable;
+        stationId2index = parent.stationId2index;
+        index2stationId = parent.index2stationId;
+        index2stationName = parent.index2stationName;
+        index2stationPosition = parent.index2stationPosition;
         xytInterpolator = null;
+        exactHits = null;
     }
 
     public int getOrAddVariable(String varName) {
@@ -87,236 +130,425 @@ public class Observations {
     }
 
     public boolean addValue(String currentId, double lon, double lat, Temporal time, int varIdx, float result, String locationCode, String locationName) {
-        double convertedTime = temporalToDouble(time);
-        cells[0][count] = (float) lon;
-        cells[1][count] = (float) lat;
-        cells[2][count] = (float) convertedTime;
-        cells[3][count] = result;
-        variableIndex[count] = varIdx;
+        return addValue((float) lon, (float) lat, (float) temporalToDouble(time), varIdx, result, locationCode, locationName);
+    }
 
+    boolean addValue(float lon, float lat, float time, int varIdx, float result, String locationCode, String locationName) {
+        int stationIdx = -1;
         if (Objects.nonNull(locationCode)) {
             if (stationId2index.containsKey(locationCode)) {
-                stationIndex[count] = stationId2index.get(locationCode);
+                stationIdx = stationId2index.get(locationCode);
             } else {
-                stationId2index.put(locationCode, count);
-                index2stationId.put(count, locationCode);
-                index2stationName.put(count, locationName);
-                stationIndex[count] = count;
+                stationIdx = stationId2index.size();
+                stationId2index.put(locationCode, stationIdx);
+                index2stationId.put(stationIdx, locationCode);
+                index2stationName.put(stationIdx, locationName);
+                index2stationPosition.put(stationIdx, new GeometryPoint(ImmutableList.of((double) lon, (double) lat)));
             }
-        } else {
-            stationIndex[count] = -1;
         }
 
+        buffer.add(lon, lat, time, result, varIdx, stationIdx);
         count++;
         return true;
     }
 
-    Observations getObservations(int varIdx) {
-        int count = 0;
-        for (int i = 0; i < this.count; i++) {
-            if (variableIndex[i] == varIdx) {
-                count++;
+    /**
+     * Groups the rows by variable and, within each variable, by station (stable counting sort). The rows of a station
+     * are ordered by time, rows with the same time keep their order. The partition
+     * boundaries are kept in a CSR-style offset table with one slot per station plus a last slot for rows without
+     * a station, so that the rows of variable {@code v} at station {@code s} are
+     * {@code [offsets[v*stationSlots+s], offsets[v*stationSlots+s+1])}.
+     * This is done once after the ingest has been completed, the columns are allocated on the heap with the exact
+     * number of rows and the ingest buffer is released. Afterwards the columns are no longer modified.
+     */
+    synchronized void partition() {
+        if (Objects.nonNull(offsets))
+            return;
+
+        int varCount = index2variable.size();
+        int slots = stationId2index.size() + 1;
+        int[] newOffsets = new int[varCount * slots + 1];
+        // the counts are kept during the ingest, so the rows are read only once
+        for (int v = 0; v < varCount; v++)
+            for (int st = -1; st < slots - 1; st++)
+                newOffsets[slot(v, st, slots) + 1] = buffer.getCount(v, st);
+        for (int k = 0; k < varCount * slots; k++)
+            newOffsets[k + 1] += newOffsets[k];
+
+        int[] next = Arrays.copyOf(newOffsets, varCount * slots);
+        float[][] sortedCells = new float[4][count];
+        int[] sortedStationIndex = new int[count];
+        for (int c = 0; c < buffer.getChunkCount(); c++) {
+            // the rows of a spilled chunk are copied from the mapped columns
+            ObservationBuffer.Chunk chunk = buffer.getChunk(c);
+            FloatBuffer[] chunkCells = {chunk.getCells(0), chunk.getCells(1), chunk.getCells(2), chunk.getCells(3)};
+            IntBuffer varIndex = chunk.getIndices(0);
+            IntBuffer chunkStationIndex = chunk.getIndices(1);
+            int size = chunk.size;
+            for (int i = 0; i < size; i++) {
+                int station = chunkStationIndex.get(i);
+                int k = next[slot(varIndex.get(i), station, slots)]++;
+                sortedCells[0][k] = chunkCells[0].get(i);
+                sortedCells[1][k] = chunkCells[1].get(i);
+                sortedCells[2][k] = chunkCells[2].get(i);
+                sortedCells[3][k] = chunkCells[3].get(i);
+                sortedStationIndex[k] = station;
             }
+            buffer.release(c);
         }
+        for (int k = 0; k < varCount * slots; k++)
+            sortByTime(sortedCells, sortedStationIndex, newOffsets[k], newOffsets[k + 1]);
+
+        buffer = null;
+        cells = sortedCells;
+        stationIndex = sortedStationIndex;
+        start = 0;
+        stationSlots = slots;
+        offsets = newOffsets;
+    }
 
-        Observations newObs = new Observations(count);
-        newObs.count = count;
-        newObs.index2variable = index2variable;
-        newObs.variable = index2variable.get(varIdx);
-        newObs.index2stationId = index2stationId;
-        newObs.index2stationName = index2stationName;
-        newObs.stationId2index = stationId2index;
-        int k = 0;
-        for (int i = 0; i < this.count; i++) {
-            if (variableIndex[i] == varIdx) {
-                newObs.cells[0][k] = this.cells[0][i];
-                newObs.cells[1][k] = this.cells[1][i];
-                newObs.cells[2][k] = this.cells[2][i];
-                newObs.cells[3][k] = this.cells[3][i];
-                newObs.variableIndex[k] = this.variableIndex[i];
-                newObs.stationIndex[k] = this.stationIndex[i];
-                k++;
-            }
+    private static void sortByTime(float[][] cells, int[] stationIndex, int from, int to) {
+        boolean sorted = true;
+        for (int i = from + 1; i < to && sorted; i++)
+            sorted = cells[2][i - 1] <= cells[2][i];
+        if (sorted)
+            return;
+
+        // the bits of a time, with the magnitude bits of negative times flipped, have the same order as the times;
+        // the row is the tie-breaker for a stable sort
+        long[] keys = new long[to - from];
+        for (int i = from; i < to; i++) {
+            int bits = Float.floatToIntBits(cells[2][i]);
+            keys[i - from] = ((long) (bits ^ ((bits >> 31) & 0x7fffffff)) << 32) | (i - from);
+        }
+        Arrays.sort(keys);
+        for (float[] column : cells) {
+            float[] values = Arrays.copyOfRange(column, from, to);
+            for (int i = 0; i < keys.length; i++)
+                column[from + i] = values[(int) keys[i]];
         }
+        int[] stations = Arrays.copyOfRange(stationIndex, from, to);
+        for (int i = 0; i < keys.length; i++)
+            stationIndex[from + i] = stations[(int) keys[i]];
+    }
 
-        return newObs;
-    }
-
-    Observations getObservations(ObservationCollectionPointTimeSeries pos) {
-        GeometryPoint loc = pos.getGeometry();
-        Double lon = loc.getLon();
-        Double lat = loc.getLat();
-        int posCount = (int) IntStream.range(0, count).parallel()
-                .filter(i -> Math.abs(cells[0][i] - lon) < THRESHOLD && Math.abs(cells[1][i] - lat) < THRESHOLD)
-                .count();
-        Observations newObs = new Observations(posCount);
-        newObs.count = posCount;
-        newObs.index2variable = index2variable;
-        newObs.index2stationId = index2stationId;
-        newObs.index2stationName = index2stationName;
-        newObs.stationId2index = stationId2index;
-        if (Objects.nonNull(this.variable))
-            newObs.variable = this.variable;
-
-        int k = 0;
-        for (int i = 0; i < count; i++) {
-            if (Math.abs(this.cells[0][i] - lon) < THRESHOLD && Math.abs(this.cells[1][i] - lat) < THRESHOLD) {
-                newObs.cells[0][k] = this.cells[0][i];
-                newObs.cells[1][k] = this.cells[1][i];
-                newObs.cells[2][k] = this.cells[2][i];
-                newObs.cells[3][k] = this.cells[3][i];
-                newObs.variableIndex[k] = this.variableIndex[i];
-                newObs.stationIndex[k] = this.stationIndex[i];
-                k++;
-            }
+    // whether a block of grid cells has a cell in the mask
+    private static boolean anyCell(BitSet cells, int width, int fromRow, int toRow, int fromColumn, int toColumn) {
+        if (Objects.isNull(cells))
+            return true;
+        for (int row = fromRow; row < toRow; row++) {
+            int next = cells.nextSetBit(row * width + fromColumn);
+            if (next >= 0 && next < row * width + toColumn)
+                return true;
         }
+        return false;
+    }
+
+    private static int slot(int varIdx, int stationIdx, int slots) {
+        return varIdx * slots + (stationIdx >= 0 ? stationIdx : slots - 1);
+    }
+
+    Observations getObservations(int varIdx) {
+        partition();
+        int from = offsets[varIdx * stationSlots];
+        int to = offsets[(varIdx + 1) * stationSlots];
+        return new Observations(this, from, to - from, index2variable.get(varIdx));
+    }
 
-        return newObs;
+    Observations getObservations(int varIdx, int stationIdx) {
+        partition();
+        int from = offsets[slot(varIdx, stationIdx, stationSlots)];
+        int to = offsets[slot(varIdx, stationIdx, stationSlots) + 1];
+        return new Observations(this, from, to - from, index2variable.get(varIdx));
     }
 
     ObservationCollectionPointTimeSeriesList findUniquePositions() {
         ObservationCollectionPointTimeSeriesList positions = new ObservationCollectionPointTimeSeriesList();
-        stationId2index.values().stream()
-                .forEachOrdered(i -> positions.add(new ObservationCollectionPointTimeSeries(new GeometryPoint(ImmutableList.of((double)cells[0][i], (double)cells[1][i])), index2stationId.get(stationIndex[i]), index2stationName.get(stationIndex[i]))));
+        IntStream.range(0, stationId2index.size())
+                .forEachOrdered(i -> positions.add(new ObservationCollectionPointTimeSeries(index2stationPosition.get(i), index2stationId.get(i), index2stationName.get(i))));
         return positions;
     }
 
     private class XytInterpolator {
-        final KdTree kdtree;
-        final float p;
+        final SpatialIndex index;
+        final IdwKernel kernel;
         final int n;
         final float maxDistance;
+        final ThreadLocal<Batch> batch;
 
-        public XytInterpolator(float[][] cells, int idwCount, double idwDistanceKm, double idwPower) {
-            kdtree = new KdTree(3);
-            for (int i = 0; i < cells[0].length; i++) {
-                kdtree.add(new NdPoint(cells[0][i], cells[1][i], cells[2][i], cells[3][i]));
-            }
-            this.p = (float) idwPower;
+        public XytInterpolator(float[][] cells, int start, int count, int idwCount, double idwDistanceKm, double idwPower, SpatialIndex.Type indexType, double indexErrorBound) {
+            this.index = SpatialIndex.of(indexType, indexErrorBound, cells, start, count);
+            this.kernel = new IdwKernel(idwPower);
             this.n = idwCount;
             this.maxDistance = (float) idwDistanceKm;
+            this.batch = ThreadLocal.withInitial(() -> new Batch(GRID_BLOCK_SIZE * GRID_BLOCK_SIZE, n));
         }
 
         float interpolate(float x, float y, float t) {
-            NdPoint location = new NdPoint(x, y, t, 0);
-            Collection<NdPoint> observations = kdtree.nearestNeighbourSearch(n, maxDistance, location);
-
-            // compute IDW
-            float a = 0;
-            float b = 0;
-            for (NdPoint obs : observations) {
-                double distance = obs.distance(location);
-                double c = Math.pow(1 / distance, p);
-                b += c;
-                a += c * obs.val[3];
+            float[] result = new float[1];
+            interpolate(new float[]{x}, new float[]{y}, 1, t, null, result);
+            return result[0];
+        }
+
+        int[] candidates(float minX, float minY, float maxX, float maxY, float t) {
+            return index.candidates(minX, minY, maxX, maxY, t, n, maxDistance);
+        }
+
+        // interpolate a batch of at most GRID_BLOCK_SIZE^2 targets at a time, the candidates are optional
+        void interpolate(float[] xs, float[] ys, int targets, float t, int[] candidates, float[] results) {
+            Batch batch = this.batch.get();
+            for (int target = 0; target < targets; target++) {
+                int found = nearestNeighbours(xs[target], ys[target], t, candidates, batch.neighbours, batch.distances);
+                int offset = target * n;
+                System.arraycopy(batch.distances, 0, batch.targetDistances, offset, found);
+                for (int i = 0; i < found; i++)
+                    batch.values[offset + i] = index.getValue(batch.neighbours[i]);
+                batch.counts[target] = found;
             }
-            return a/b;
+            kernel.interpolate(batch.targetDistances, batch.values, batch.counts, n, targets, batch.weights, results);
         }
-    }
 
-    void createXytInterpolator(int idwCount, double idwDistanceKm, double idwPower) {
-        if (Objects.isNull(xytInterpolator)) {
-            xytInterpolator = new XytInterpolator(cells, idwCount, idwDistanceKm, idwPower);
+        // determine the neighbours and the normalized weights of a target
+        void stencil(float x, float y, float t, int[] candidates, InterpolationStencil stencil, int target) {
+            Batch batch = this.batch.get();
+            int[] neighbours = batch.neighbours;
+            float[] weights = batch.weights;
+            int found = nearestNeighbours(x, y, t, candidates, neighbours, batch.distances);
+            kernel.weights(batch.distances, weights, found);
+            double b = 0;
+            for (int i = 0; i < found; i++) {
+                b += weights[i];
+                neighbours[i] = index.getRow(neighbours[i]);
+            }
+            for (int i = 0; i < found; i++)
+                weights[i] = (float) (weights[i] / b);
+            stencil.set(target, neighbours, weights, found);
+        }
+
+        // the candidates are optional
+        private int nearestNeighbours(float x, float y, float t, int[] candidates, int[] neighbours, float[] distances) {
+            return Objects.nonNull(candidates)
+                    ? index.nearestNeighbours(x, y, t, n, maxDistance, candidates, neighbours, distances)
+                    : index.nearestNeighbours(x, y, t, n, maxDistance, neighbours, distances);
         }
     }
 
-    void createTInterpolator() {
-        if (Objects.isNull(tInterpolator)) {
-            int len = cells[2].length;
-            if (len<2) {
-                tInterpolator = len==1 ? new Constant(cells[3][0]) : new Constant(NULL);
-                return;
-            }
-            double[] times = new double[len];
-            IntStream.range(0, len)
-                    .parallel()
-                    .forEach(i -> times[i] = (double) cells[2][i]);
-            double[] values = new double[len];
-            IntStream.range(0, len)
-                    .parallel()
-                    .forEach(i -> values[i] = (double) cells[3][i]);
+    // the buffers of the interpolation of a batch of targets, the neighbours of target i are at [i * n, (i + 1) * n)
+    private static class Batch {
+        final int[] neighbours;
+        final float[] distances;
+        final float[] targetDistances;
+        final float[] values;
+        final float[] weights;
+        final int[] counts;
+
+        Batch(int targets, int n) {
+            this.neighbours = new int[n];
+            this.distances = new float[n];
+            this.targetDistances = new float[targets * n];
+            this.values = new float[targets * n];
+            this.weights = new float[targets * n];
+            this.counts = new int[targets];
+        }
+    }
 
-            tInterpolator = len==2 ? new LinearInterpolator().interpolate(times, values) : new SplineInterpolator().interpolate(times, values);
+    void createXytInterpolator(int idwCount, double idwDistanceKm, double idwPower, SpatialIndex.Type indexType, double indexErrorBound) {
+        if (Objects.isNull(xytInterpolator)) {
+            xytInterpolator = new XytInterpolator(cells, start, count, idwCount, idwDistanceKm, idwPower, indexType, indexErrorBound);
+            exactHits = new ExactHitIndex(cells, start, count);
         }
     }
 
-    public ObservationCollectionPointTimeSeries interpolate(GeometryPoint point, TemporalInterval interval, int idwCount, double idwDistanceKm, double idwPower) {
+    public ObservationCollectionPointTimeSeries interpolate(GeometryPoint point, TemporalInterval interval, int idwCount, double idwDistanceKm, double idwPower, SpatialIndex.Type indexType, double indexErrorBound, InterpolationStencils stencils) {
         ObservationCollectionPointTimeSeries timeSeriesPoint = new ObservationCollectionPointTimeSeries(point, null, null);
         interval.parallelStream()
                 .forEach(time -> timeSeriesPoint.addTimeStep(time));
-        IntStream.range(0, variable2index.size()).parallel()
-                .forEach(var -> {
-                    Observations obsVar = getObservations(var);
-                    obsVar.createXytInterpolator(idwCount, idwDistanceKm, idwPower);
-                    if (obsVar.count > 0) {
-                        interval.stream()
-                                .forEach(time -> {
-                                    float val = obsVar.interpolateAll(point.getLon(), point.getLat(), temporalToDouble(time));
-                                    if (val != NULL) {
-                                        timeSeriesPoint.addValue(time, index2variable.get(var), val);
-                                    }
-                                });
+        List<Temporal> times = interval.stream().collect(Collectors.toList());
+        String targets = String.format("position/%s,%s/%s/%s/%d", point.getLon(), point.getLat(), interval.getBegin(), interval.getEnd(), times.size());
+        partition();
+        List<Observations> variables = IntStream.range(0, variable2index.size())
+                                                .mapToObj(var -> getObservations(var))
+                                                .filter(obsVar -> obsVar.count > 0)
+                                                .collect(Collectors.toList());
+        groupByLayout(variables).parallelStream()
+                .forEach(group -> {
+                    Observations obsVar = group.get(0);
+                    // with the same positions and times of the observations, the neighbours and weights of a previous request
+                    // are reused, if the stencil fits into the cache; within a request, they are shared by all variables of the group
+                    boolean cacheable = stencils.accepts((long) times.size() * Math.max(1, idwCount));
+                    String key = cacheable ? obsVar.getStencilKey(targets, idwCount, idwDistanceKm, idwPower, indexType, indexErrorBound) : null;
+                    InterpolationStencil stencil = cacheable ? stencils.get(key).orElse(null) : null;
+                    if (Objects.isNull(stencil)) {
+                        obsVar.createXytInterpolator(idwCount, idwDistanceKm, idwPower, indexType, indexErrorBound);
+                        if (cacheable || group.size() > 1) {
+                            stencil = new InterpolationStencil(times.size(), idwCount);
+                            for (int i = 0; i < times.size(); i++)
+                                obsVar.stencilAll(point.getLon(), point.getLat(), temporalToDouble(times.get(i)), null, stencil, i);
+                            if (cacheable)
+                                stencils.put(key, stencil);
+                        }
+                    }
+
+                    for (Observations obsMember : group) {
+                        for (int i = 0; i < times.size(); i++) {
+                            Temporal time = times.get(i);
+                            float val = Objects.nonNull(stencil)
+                                    ? obsMember.applyStencil(stencil, i)
+                                    : obsMember.interpolateAll(point.getLon(), point.getLat(), temporalToDouble(time));
+                            if (val != NULL) {
+                                timeSeriesPoint.addValue(time, obsMember.variable, val);
+                            }
+                        }
                     }
                 });
         return timeSeriesPoint;
     }
 
     public ObservationCollectionPointTimeSeriesList interpolate(TemporalInterval interval) {
+        partition();
+        List<Temporal> times = interval.stream().collect(Collectors.toList());
+        double[] steps = times.stream().mapToDouble(Observations::temporalToDouble).toArray();
         ObservationCollectionPointTimeSeriesList positions = findUniquePositions();
-        positions.parallelStream()
-                .forEach(pos -> {
-                    Observations obsPos = getObservations(pos);
+        IntStream.range(0, positions.size()).parallel()
+                .forEach(station -> {
+                    ObservationCollectionPointTimeSeries pos = positions.get(station);
                     interval.parallelStream()
                             .forEach(time -> pos.addTimeStep(time));
                     IntStream.range(0, variable2index.size()).parallel()
                             .forEach(var -> {
-                                Observations obsPosVar = obsPos.getObservations(var);
-                                if (obsPosVar.variableIndex.length > 0) {
-                                    obsPosVar.createTInterpolator();
-                                    interval.parallelStream()
-                                            .forEach(time -> {
-                                                double val = obsPosVar.interpolateTime(temporalToDouble(time));
-                                                if (val != NULL) {
-                                                    pos.addValue(time, index2variable.get(var), val);
-                                                }
-                                            });
+                                Observations obsPosVar = getObservations(var, station);
+                                if (obsPosVar.count > 0) {
+                                    // the rows of a station are ordered by time, so all steps are interpolated in one pass
+                                    double[] values = new double[steps.length];
+                                    TemporalInterpolator.interpolate(cells[2], cells[3], obsPosVar.start, obsPosVar.start + obsPosVar.count, steps, values);
+                                    for (int i = 0; i < steps.length; i++) {
+                                        if (values[i] != NULL) {
+                                            pos.addValue(times.get(i), index2variable.get(var), values[i]);
+                                        }
+                                    }
                                 }
                             });
                 });
         return positions;
     }
 
-    private double interpolateTime(double ttime) {
-        int count = this.count;
-        if (count==1)
-            return cells[3][0];
+    float interpolateAll(double tlon, double tlat, double ttime) {
+        int hit = exactHits.get((float) tlon, (float) tlat, (float) ttime);
+        if (hit >= 0)
+            return cells[3][hit];
 
-        for (int i = 0; i < count; i++) {
-            if (Math.abs(this.cells[2][i] - ttime) < THRESHOLD) {
-                return cells[3][i];
-            }
+        return xytInterpolate(tlon, tlat, ttime);
+    }
+
+    // interpolate a batch of at most GRID_BLOCK_SIZE^2 targets at a time
+    void interpolateAll(float[] tlons, float[] tlats, int targets, double ttime, int[] candidates, float[] results) {
+        xytInterpolator.interpolate(tlons, tlats, targets, (float) ttime, candidates, results);
+        for (int i = 0; i < targets; i++) {
+            int hit = exactHits.get(tlons[i], tlats[i], (float) ttime);
+            if (hit >= 0)
+                results[i] = cells[3][hit];
         }
+    }
 
-        return ttime < cells[2][0] ? cells[3][0] : ttime > cells[2][count-1] ? cells[3][count-1] : tInterpolator.value(ttime);
+    void stencilAll(double tlon, double tlat, double ttime, int[] candidates, InterpolationStencil stencil, int target) {
+        int hit = exactHits.get((float) tlon, (float) tlat, (float) ttime);
+        if (hit >= 0)
+            stencil.setExact(target, hit - start);
+        else
+            xytInterpolator.stencil((float) tlon, (float) tlat, (float) ttime, candidates, stencil, target);
     }
 
-    float interpolateAll(double tlon, double tlat, double ttime) {
-        for (int i = 0; i < cells[0].length; i++) {
-            if (Math.abs(cells[0][i] - tlon) < THRESHOLD &&
-                Math.abs(cells[1][i] - tlat) < THRESHOLD &&
-                Math.abs(cells[2][i] - ttime) < THRESHOLD) {
-                return cells[3][i];
+    /**
+     * @return the key of an interpolation stencil of the observations of a variable, it identifies the positions and
+     * times of the observations, the targets and the interpolation parameters
+     */
+    String getStencilKey(String targets, int idwCount, double idwDistanceKm, double idwPower, SpatialIndex.Type indexType, double indexErrorBound) {
+        String index = indexType == SpatialIndex.Type.APPROXIMATE ? indexType + "/" + indexErrorBound : indexType.toString();
+        return String.format("%016x/%d/%s/%d/%s/%s/%s", getLayoutHash(), count, targets, idwCount, idwDistanceKm, idwPower, index);
+    }
+
+    /**
+     * @return a hash of the variables, positions, times and values of the observations, results that are derived from
+     * the observations can be cached with it
+     */
+    public long getFingerprint() {
+        partition();
+        // FNV-1a
+        long hash = 0xcbf29ce484222325L;
+        for (int var = 0; var < index2variable.size(); var++)
+            hash = (hash ^ index2variable.get(var).hashCode()) * 0x100000001b3L;
+        for (int offset : offsets)
+            hash = (hash ^ offset) * 0x100000001b3L;
+        for (int i = start; i < start + count; i++)
+            for (int j = 0; j < 4; j++)
+                hash = (hash ^ Float.floatToIntBits(cells[j][i])) * 0x100000001b3L;
+        return hash;
+    }
+
+    // FNV-1a of the positions and times
+    private long getLayoutHash() {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = start; i < start + count; i++)
+            for (int j = 0; j < 3; j++)
+                hash = (hash ^ Float.floatToIntBits(cells[j][i])) * 0x100000001b3L;
+        return hash;
+    }
+
+    private boolean hasSameLayout(Observations other) {
+        if (count != other.count)
+            return false;
+        for (int j = 0; j < 3; j++)
+            if (!Arrays.equals(cells[j], start, start + count, other.cells[j], other.start, other.start + count))
+                return false;
+        return true;
+    }
+
+    /**
+     * Groups the observations of variables with the same positions and times in the same order. The neighbours and
+     * weights of an interpolation are the same for all variables of a group, so they are determined once with the
+     * first variable of the group and applied to the values of the others.
+     */
+    static List<List<Observations>> groupByLayout(Collection<Observations> variables) {
+        Map<Long, List<List<Observations>>> groupsByHash = new HashMap<>();
+        List<List<Observations>> groups = new ArrayList<>();
+        for (Observations obsVar : variables) {
+            List<List<Observations>> candidates = groupsByHash.computeIfAbsent(obsVar.getLayoutHash(), hash -> new ArrayList<>());
+            List<Observations> group = candidates.stream()
+                                                 .filter(candidate -> candidate.get(0).hasSameLayout(obsVar))
+                                                 .findFirst()
+                                                 .orElse(null);
+            if (Objects.isNull(group)) {
+                group = new ArrayList<>();
+                candidates.add(group);
+                groups.add(group);
             }
+            group.add(obsVar);
         }
+        return groups;
+    }
 
-        return xytInterpolate(tlon, tlat, ttime);
+    float applyStencil(InterpolationStencil stencil, int target) {
+        return stencil.apply(target, cells[3], start);
     }
 
     float xytInterpolate(double tlon, double tlat, double ttime) {
         return xytInterpolator.interpolate((float) tlon, (float) tlat, (float) ttime);
     }
 
-    public DataArrayXyt resampleToGrid(double[] bbox, TemporalInterval interval, OptionalInt gridWidth, OptionalInt gridHeight, OptionalInt gridSteps, int idwCount, double idwDistanceKm, double idwPower) {
+    /**
+     * @param mask if present, only the cells with a centre inside the mask are interpolated, the other cells are NaN
+     * @param tolerance if positive, blocks of cells are filled by bilinear interpolation, where the inverse distance
+     *                  weighting on a coarse lattice differs by at most the tolerance; otherwise all cells are interpolated
+     * @param buffers the pool of the planes of the grid
+     */
+    public DataArrayXyt resampleToGrid(double[] bbox, Optional<GeometryMultiPolygon> mask, TemporalInterval interval, OptionalInt gridWidth, OptionalInt gridHeight, OptionalInt gridSteps, int idwCount, double idwDistanceKm, double idwPower, SpatialIndex.Type indexType, double indexErrorBound, double tolerance, InterpolationStencils stencils, RasterBufferPool buffers) {
+        return resampleToGridBands(bbox, mask, interval, gridWidth, gridHeight, gridSteps, idwCount, idwDistanceKm, idwPower, indexType, indexErrorBound, tolerance, stencils, buffers).toDataArray();
+    }
+
+    /**
+     * Like {@link #resampleToGrid}, but the time steps of the grid are only resampled when the bands are requested.
+     */
+    public DataArrayXytBands resampleToGridBands(double[] bbox, Optional<GeometryMultiPolygon> mask, TemporalInterval interval, OptionalInt gridWidth, OptionalInt gridHeight, OptionalInt gridSteps, int idwCount, double idwDistanceKm, double idwPower, SpatialIndex.Type indexType, double indexErrorBound, double tolerance, InterpolationStencils stencils, RasterBufferPool buffers) {
         double widthLon = bbox[2] - bbox[0];
         double heightLat = bbox[3] - bbox[1];
         long width = gridWidth.orElse(0);
@@ -337,59 +569,293 @@ public class Observations {
         double diffx = (bbox[2] - bbox[0])/width;
         double diffy = (bbox[3] - bbox[1])/height;
         double difft = tsteps==1 ? 0f : (tend - tbegin)/(tsteps-1);
-        List<Double> lons = new Vector<>();
-        List<Double> lats = new Vector<>();
-        List<Double> times = new Vector<>();
+        double[] lons = new double[(int) width];
+        double[] lats = new double[(int) height];
+        double[] times = new double[(int) tsteps];
         for (int i=0; i<width; i++)
-            lons.add(bbox[0]+i*diffx);
+            lons[i] = bbox[0]+i*diffx;
         for (int i=0; i<height; i++)
-            lats.add(bbox[3]-i*diffy);
+            lats[i] = bbox[3]-i*diffy;
         for (int i=0; i<tsteps; i++)
-            times.add(tbegin+i*difft);
+            times[i] = tbegin+i*difft;
 
         ConcurrentMap<Integer, Observations> obsMap = new ConcurrentHashMap<>();
         CopyOnWriteArrayList<String> vars = new CopyOnWriteArrayList<>();
+        partition();
         IntStream.range(0, variable2index.size()).parallel()
                 .forEach(var -> {
                     Observations obsVar = getObservations(var);
-                    if (obsVar.variableIndex.length > 0) {
+                    if (obsVar.count > 0) {
                         vars.add(index2variable.get(var));
                         obsMap.put(var,obsVar);
-                        obsVar.createXytInterpolator(idwCount, idwDistanceKm, idwPower);
                     }
                 });
 
-        DataArrayXyt array = new DataArrayXyt(lons.size(), lats.size(), times.size(), new Vector<>(vars), bbox[0], bbox[1], tbegin, bbox[2], bbox[3], tend);
+        // the mask is rasterized once for all time steps
+        BitSet cells = mask.map(area -> area.rasterize(lons, lats, diffx, diffy)).orElse(null);
 
-        new ArrayList<>(obsMap.keySet()).parallelStream()
-                .forEach(var -> {
-                    Observations obsVar = obsMap.get(var);
-                    LOGGER.debug("Resampling variable {}.", index2variable.get(var));
-
-                    final int i3 = vars.indexOf(index2variable.get(var));
-
-                    IntStream.range(0, lons.size())
-                            .parallel()
-                            .forEach(i0 -> {
-                                double lon = lons.get(i0);
-                                int i1 = 0;
-                                for (double lat : lats) {
-                                    int i2 = 0;
-                                    for (double time : times) {
-                                        final float val = obsVar.xytInterpolate(lon+diffx/2, lat-diffy/2, time);
-                                        if (val == Observations.NULL)
-                                            array.array[i2][i1][i0][i3] = NaN;
-                                        else
-                                            array.array[i2][i1][i0][i3] = val;
-                                        i2++;
+        return new DataArrayXytBands(this, bbox, lons, lats, times, tbegin, tend, cells, new Vector<>(vars), groupByLayout(obsMap.values()),
+                                     idwCount, idwDistanceKm, idwPower, indexType, indexErrorBound, tolerance, stencils, buffers);
+    }
+
+    /**
+     * Resamples the time steps {@code [fromStep, toStep)} of a grid.
+     */
+    void resampleToGrid(DataArrayXytBands grid, int fromStep, int toStep, DataArrayXyt array) {
+        if (grid.tolerance > 0) {
+            resampleToGridAdaptive(grid, fromStep, toStep, array);
+            return;
+        }
+
+        double[] bbox = grid.bbox;
+        double[] lons = grid.lons;
+        double[] lats = grid.lats;
+        double[] times = grid.times;
+        int steps = toStep - fromStep;
+        Vector<String> vars = grid.vars;
+        int idwCount = grid.idwCount;
+        double idwDistanceKm = grid.idwDistanceKm;
+        double idwPower = grid.idwPower;
+        SpatialIndex.Type indexType = grid.indexType;
+        double indexErrorBound = grid.indexErrorBound;
+        InterpolationStencils stencils = grid.stencils;
+        BitSet cells = grid.cells;
+        String targets = String.format("grid/%s,%s,%s,%s/%d/%d/%s/%s/%d/%d-%d", bbox[0], bbox[1], bbox[2], bbox[3], lons.length, lats.length, grid.minTime, grid.maxTime, times.length, fromStep, toStep) +
+                (Objects.nonNull(cells) ? String.format("/mask/%d/%x", cells.cardinality(), cells.hashCode()) : "");
+
+        grid.groups.parallelStream()
+                .forEach(group -> {
+                    Observations obsVar = group.get(0);
+                    LOGGER.debug("Resampling variables {}.", group.stream().map(obs -> obs.variable).collect(Collectors.joining(", ")));
+
+                    final int i3 = vars.indexOf(obsVar.variable);
+
+                    // with the same positions and times of the observations, the neighbours and weights of a previous request
+                    // are reused, if the stencil fits into the cache; otherwise the variables of a group share the stencil of
+                    // one time step at a time and a single variable is interpolated without a stencil
+                    final int planeSize = lons.length * lats.length;
+                    boolean cacheable = stencils.accepts((long) steps * planeSize * Math.max(1, idwCount));
+                    String key = cacheable ? obsVar.getStencilKey(targets, idwCount, idwDistanceKm, idwPower, indexType, indexErrorBound) : null;
+                    InterpolationStencil stencil = cacheable ? stencils.get(key).orElse(null) : null;
+
+                    if (Objects.nonNull(stencil)) {
+                        applyStencil(group, vars, stencil, array, 0, planeSize);
+                    } else {
+                        obsVar.createXytInterpolator(idwCount, idwDistanceKm, idwPower, indexType, indexErrorBound);
+                        if (cacheable) {
+                            stencil = new InterpolationStencil(steps * planeSize, idwCount);
+                            obsVar.resampleBlocks(grid, fromStep, toStep, stencil, null, -1);
+                            stencils.put(key, stencil);
+                            applyStencil(group, vars, stencil, array, 0, planeSize);
+                        } else if (group.size() > 1) {
+                            // the same cells are set in each time step, so the stencil is reused for the next time step
+                            InterpolationStencil band = new InterpolationStencil(planeSize, idwCount);
+                            for (int i2 = 0; i2 < steps; i2++) {
+                                obsVar.resampleBlocks(grid, fromStep + i2, fromStep + i2 + 1, band, null, -1);
+                                applyStencil(group, vars, band, array, i2, planeSize);
+                            }
+                        } else {
+                            obsVar.resampleBlocks(grid, fromStep, toStep, null, array, i3);
+                        }
+                    }
+
+                    LOGGER.debug("Variables {} finished.", group.stream().map(obs -> obs.variable).collect(Collectors.joining(", ")));
+                });
+    }
+
+    /**
+     * Determines the stencil of the cells of the time steps {@code [fromStep, toStep)} of a grid or, without a stencil,
+     * interpolates the cells into the planes of the variable {@code i3} of the array.
+     */
+    private void resampleBlocks(DataArrayXytBands grid, int fromStep, int toStep, InterpolationStencil stencil, DataArrayXyt array, int i3) {
+        double[] lons = grid.lons;
+        double[] lats = grid.lats;
+        double diffx = (grid.bbox[2] - grid.bbox[0])/lons.length;
+        double diffy = (grid.bbox[3] - grid.bbox[1])/lats.length;
+        BitSet cells = grid.cells;
+
+        // adjacent cells share most neighbours, so the candidate neighbours are determined once for each block of cells of a time step
+        final int columnBlocks = (lons.length + GRID_BLOCK_SIZE - 1) / GRID_BLOCK_SIZE;
+        final int rowBlocks = (lats.length + GRID_BLOCK_SIZE - 1) / GRID_BLOCK_SIZE;
+        IntStream.range(0, (toStep - fromStep) * rowBlocks * columnBlocks)
+                .parallel()
+                .forEach(block -> {
+                    int i2 = block / (rowBlocks * columnBlocks);
+                    int fromRow = (block / columnBlocks % rowBlocks) * GRID_BLOCK_SIZE;
+                    int toRow = Math.min(lats.length, fromRow + GRID_BLOCK_SIZE);
+                    int fromColumn = (block % columnBlocks) * GRID_BLOCK_SIZE;
+                    int toColumn = Math.min(lons.length, fromColumn + GRID_BLOCK_SIZE);
+                    double time = grid.times[fromStep + i2];
+                    float[] plane = Objects.isNull(stencil) ? array.getPlane(i2, i3) : null;
+                    if (!anyCell(cells, lons.length, fromRow, toRow, fromColumn, toColumn)) {
+                        // the block is outside of the mask, without neighbours a cell of a stencil is NaN
+                        if (Objects.nonNull(plane))
+                            for (int i1 = fromRow; i1 < toRow; i1++)
+                                Arrays.fill(plane, i1 * lons.length + fromColumn, i1 * lons.length + toColumn, NaN);
+                        return;
+                    }
+
+                    if (Objects.nonNull(stencil)) {
+                        int[] candidates = xytInterpolator.candidates((float) (lons[fromColumn]+diffx/2), (float) (lats[toRow-1]-diffy/2),
+                                                                      (float) (lons[toColumn-1]+diffx/2), (float) (lats[fromRow]-diffy/2), (float) time);
+                        for (int i1 = fromRow; i1 < toRow; i1++)
+                            for (int i0 = fromColumn; i0 < toColumn; i0++)
+                                if (Objects.isNull(cells) || cells.get(i1 * lons.length + i0))
+                                    stencilAll(lons[i0]+diffx/2, lats[i1]-diffy/2, time, candidates, stencil, (i2 * lats.length + i1) * lons.length + i0);
+                        return;
+                    }
+
+                    interpolateBlock(grid, time, fromRow, toRow, fromColumn, toColumn, plane);
+                });
+    }
+
+    // the targets of a time step are the cells of its plane in row-major order, the first time step of the stencil is the plane fromPlane
+    private static void applyStencil(List<Observations> group, Vector<String> vars, InterpolationStencil stencil, DataArrayXyt array, int fromPlane, int planeSize) {
+        for (Observations obsMember : group) {
+            final int member = vars.indexOf(obsMember.variable);
+            IntStream.range(0, stencil.size())
+                    .parallel()
+                    .forEach(target -> array.getPlane(fromPlane + target / planeSize, member)[target % planeSize] = obsMember.applyStencil(stencil, target));
+        }
+    }
+
+    /**
+     * Resamples the time steps {@code [fromStep, toStep)} of a grid on a coarse lattice first. The lattice points are
+     * the corners of the blocks of cells. A block is filled by bilinear interpolation of its corners, if the corners
+     * differ by at most the tolerance, otherwise all cells of the block are interpolated. A block with an observation
+     * is always interpolated, since the inverse distance weighting has a peak at each observation. The refined blocks
+     * depend on the values, so each variable is resampled on its own and no stencils are used.
+     */
+    private void resampleToGridAdaptive(DataArrayXytBands grid, int fromStep, int toStep, DataArrayXyt array) {
+        double[] lons = grid.lons;
+        double[] lats = grid.lats;
+        double diffx = (grid.bbox[2] - grid.bbox[0])/lons.length;
+        double diffy = (grid.bbox[3] - grid.bbox[1])/lats.length;
+        int steps = toStep - fromStep;
+        BitSet cells = grid.cells;
+        final int columnBlocks = (lons.length + GRID_BLOCK_SIZE - 1) / GRID_BLOCK_SIZE;
+        final int rowBlocks = (lats.length + GRID_BLOCK_SIZE - 1) / GRID_BLOCK_SIZE;
+
+        grid.groups.stream()
+                .flatMap(List::stream)
+                .parallel()
+                .forEach(obsVar -> {
+                    LOGGER.debug("Resampling variable {} adaptively.", obsVar.variable);
+
+                    final int i3 = grid.vars.indexOf(obsVar.variable);
+                    obsVar.createXytInterpolator(grid.idwCount, grid.idwDistanceKm, grid.idwPower, grid.indexType, grid.indexErrorBound);
+
+                    // the blocks with an observation
+                    BitSet stations = new BitSet(rowBlocks * columnBlocks);
+                    for (int row = obsVar.start; row < obsVar.start + obsVar.count; row++) {
+                        int column = (int) Math.floor((obsVar.cells[0][row] - grid.bbox[0]) / diffx);
+                        int line = (int) Math.floor((grid.bbox[3] - obsVar.cells[1][row]) / diffy);
+                        if (column >= 0 && column < lons.length && line >= 0 && line < lats.length)
+                            stations.set(line / GRID_BLOCK_SIZE * columnBlocks + column / GRID_BLOCK_SIZE);
+                    }
+
+                    IntStream.range(0, steps).forEach(i2 -> {
+                        double time = grid.times[fromStep + i2];
+                        float[] plane = array.getPlane(i2, i3);
+
+                        // the lattice point (k, l) is the cell (min(k * GRID_BLOCK_SIZE, height - 1), min(l * GRID_BLOCK_SIZE, width - 1))
+                        float[] lattice = new float[(rowBlocks + 1) * (columnBlocks + 1)];
+                        IntStream.rangeClosed(0, rowBlocks)
+                                .parallel()
+                                .forEach(k -> {
+                                    float[] latticeLons = new float[GRID_BLOCK_SIZE * GRID_BLOCK_SIZE];
+                                    float[] latticeLats = new float[GRID_BLOCK_SIZE * GRID_BLOCK_SIZE];
+                                    float[] values = new float[GRID_BLOCK_SIZE * GRID_BLOCK_SIZE];
+                                    float lat = (float) (lats[Math.min(k * GRID_BLOCK_SIZE, lats.length - 1)] - diffy/2);
+                                    for (int from = 0; from <= columnBlocks; from += values.length) {
+                                        int count = Math.min(values.length, columnBlocks + 1 - from);
+                                        for (int l = 0; l < count; l++) {
+                                            latticeLons[l] = (float) (lons[Math.min((from + l) * GRID_BLOCK_SIZE, lons.length - 1)] + diffx/2);
+                                            latticeLats[l] = lat;
+                                        }
+                                        obsVar.interpolateAll(latticeLons, latticeLats, count, time, null, values);
+                                        for (int l = 0; l < count; l++)
+                                            lattice[k * (columnBlocks + 1) + from + l] = values[l] == Observations.NULL ? NaN : values[l];
                                     }
-                                    i1++;
-                                }
-                            });
+                                });
+
+                        IntStream.range(0, rowBlocks * columnBlocks)
+                                .parallel()
+                                .forEach(block -> {
+                                    int k = block / columnBlocks;
+                                    int l = block % columnBlocks;
+                                    int fromRow = k * GRID_BLOCK_SIZE;
+                                    int toRow = Math.min(lats.length, fromRow + GRID_BLOCK_SIZE);
+                                    int fromColumn = l * GRID_BLOCK_SIZE;
+                                    int toColumn = Math.min(lons.length, fromColumn + GRID_BLOCK_SIZE);
+                                    if (!anyCell(cells, lons.length, fromRow, toRow, fromColumn, toColumn)) {
+                                        for (int i1 = fromRow; i1 < toRow; i1++)
+                                            Arrays.fill(plane, i1 * lons.length + fromColumn, i1 * lons.length + toColumn, NaN);
+                                        return;
+                                    }
+
+                                    float v00 = lattice[k * (columnBlocks + 1) + l];
+                                    float v01 = lattice[k * (columnBlocks + 1) + l + 1];
+                                    float v10 = lattice[(k + 1) * (columnBlocks + 1) + l];
+                                    float v11 = lattice[(k + 1) * (columnBlocks + 1) + l + 1];
+                                    float min = Math.min(Math.min(v00, v01), Math.min(v10, v11));
+                                    float max = Math.max(Math.max(v00, v01), Math.max(v10, v11));
+                                    // a NaN corner fails the comparison
+                                    if (stations.get(block) || !(max - min <= grid.tolerance)) {
+                                        obsVar.interpolateBlock(grid, time, fromRow, toRow, fromColumn, toColumn, plane);
+                                        return;
+                                    }
+
+                                    // the corners are the first cells of this and the next block, or the last cells of the grid
+                                    int rows = Math.min(toRow, lats.length - 1) - fromRow;
+                                    int columns = Math.min(toColumn, lons.length - 1) - fromColumn;
+                                    for (int i1 = fromRow; i1 < toRow; i1++) {
+                                        float v = rows > 0 ? (float) (i1 - fromRow) / rows : 0f;
+                                        for (int i0 = fromColumn; i0 < toColumn; i0++) {
+                                            if (Objects.nonNull(cells) && !cells.get(i1 * lons.length + i0)) {
+                                                plane[i1 * lons.length + i0] = NaN;
+                                                continue;
+                                            }
+                                            float u = columns > 0 ? (float) (i0 - fromColumn) / columns : 0f;
+                                            plane[i1 * lons.length + i0] = (1 - v) * ((1 - u) * v00 + u * v01) + v * ((1 - u) * v10 + u * v11);
+                                        }
+                                    }
+                                });
+                    });
 
-                    LOGGER.debug("Variable {} finished.", index2variable.get(var));
+                    LOGGER.debug("Variable {} finished.", obsVar.variable);
                 });
+    }
 
-        return array;
+    // interpolate the cells of a block as a batch, the cells outside of the mask are NaN
+    private void interpolateBlock(DataArrayXytBands grid, double time, int fromRow, int toRow, int fromColumn, int toColumn, float[] plane) {
+        double[] lons = grid.lons;
+        double[] lats = grid.lats;
+        double diffx = (grid.bbox[2] - grid.bbox[0])/lons.length;
+        double diffy = (grid.bbox[3] - grid.bbox[1])/lats.length;
+        BitSet cells = grid.cells;
+        int[] candidates = xytInterpolator.candidates((float) (lons[fromColumn]+diffx/2), (float) (lats[toRow-1]-diffy/2),
+                                                      (float) (lons[toColumn-1]+diffx/2), (float) (lats[fromRow]-diffy/2), (float) time);
+        float[] blockLons = new float[GRID_BLOCK_SIZE * GRID_BLOCK_SIZE];
+        float[] blockLats = new float[GRID_BLOCK_SIZE * GRID_BLOCK_SIZE];
+        float[] values = new float[GRID_BLOCK_SIZE * GRID_BLOCK_SIZE];
+        int cellCount = 0;
+        for (int i1 = fromRow; i1 < toRow; i1++)
+            for (int i0 = fromColumn; i0 < toColumn; i0++)
+                if (Objects.isNull(cells) || cells.get(i1 * lons.length + i0)) {
+                    blockLons[cellCount] = (float) (lons[i0]+diffx/2);
+                    blockLats[cellCount++] = (float) (lats[i1]-diffy/2);
+                }
+        interpolateAll(blockLons, blockLats, cellCount, time, candidates, values);
+        int cell = 0;
+        for (int i1 = fromRow; i1 < toRow; i1++)
+            for (int i0 = fromColumn; i0 < toColumn; i0++) {
+                if (Objects.nonNull(cells) && !cells.get(i1 * lons.length + i0)) {
+                    plane[i1 * lons.length + i0] = NaN;
+                    continue;
+                }
+                final float val = values[cell++];
+                plane[i1 * lons.length + i0] = val == Observations.NULL ? NaN : val;
+            }
     }
 }
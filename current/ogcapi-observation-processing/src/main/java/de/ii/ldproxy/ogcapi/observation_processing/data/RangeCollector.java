@@ -0,0 +1,49 @@
+/**
+ * Copyright 2021 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.observation_processing.data;
+
+import java.util.Arrays;
+
+/**
+ * Collects the points within a Euclidean distance in km. A collector is reused by the searches of a thread.
+ */
+class RangeCollector implements KdTree.Visitor {
+
+    private static final ThreadLocal<RangeCollector> COLLECTOR = ThreadLocal.withInitial(RangeCollector::new);
+
+    static RangeCollector get() {
+        return COLLECTOR.get();
+    }
+
+    private int[] points = new int[16];
+    private int count;
+    private float rangeSquared;
+
+    void reset(float range) {
+        this.count = 0;
+        this.rangeSquared = range * range;
+    }
+
+    @Override
+    public void visit(int point, float distanceSquared) {
+        if (distanceSquared > rangeSquared)
+            return;
+        if (count == points.length)
+            points = Arrays.copyOf(points, points.length * 2);
+        points[count++] = point;
+    }
+
+    @Override
+    public float bound() {
+        return rangeSquared;
+    }
+
+    int[] toArray() {
+        return Arrays.copyOf(points, count);
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright 2021 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.observation_processing.data;
+
+import java.util.Deque;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of the buffers of raster planes that are reused across requests. The buffers are classified by their exact
+ * length, since the planes of a grid and the tiles of the output formats are backed by buffers of the size of the
+ * grid, and a request usually acquires many buffers of the same size. Released buffers are retained up to a maximum
+ * total size, further buffers are left to the garbage collector.
+ */
+public class RasterBufferPool {
+
+    // a pool that does not retain buffers
+    public static final RasterBufferPool NONE = new RasterBufferPool(0);
+
+    // smaller buffers are cheap to allocate and are not retained
+    private static final int MIN_LENGTH = 4096;
+
+    private final long maxRetainedBytes;
+    private final ConcurrentMap<Integer, Deque<float[]>> sizeClasses;
+    private final AtomicLong retainedBytes;
+
+    public RasterBufferPool(long maxRetainedBytes) {
+        this.maxRetainedBytes = maxRetainedBytes;
+        this.sizeClasses = new ConcurrentHashMap<>();
+        this.retainedBytes = new AtomicLong();
+    }
+
+    public long getMaxRetainedBytes() {
+        return maxRetainedBytes;
+    }
+
+    public long getRetainedBytes() {
+        return retainedBytes.get();
+    }
+
+    /**
+     * @return a buffer of the length, the values of a reused buffer are undefined
+     */
+    public float[] acquire(int length) {
+        Deque<float[]> sizeClass = sizeClasses.get(length);
+        float[] buffer = Objects.nonNull(sizeClass) ? sizeClass.pollFirst() : null;
+        if (Objects.isNull(buffer))
+            return new float[length];
+        retainedBytes.addAndGet(-bytes(buffer));
+        return buffer;
+    }
+
+    /**
+     * Return a buffer to the pool, the buffer must not be used afterwards.
+     */
+    public void release(float[] buffer) {
+        if (Objects.isNull(buffer) || buffer.length < MIN_LENGTH)
+            return;
+        // the size is reserved first, so that concurrent releases do not exceed the maximum
+        long bytes = bytes(buffer);
+        if (retainedBytes.addAndGet(bytes) > maxRetainedBytes) {
+            retainedBytes.addAndGet(-bytes);
+            return;
+        }
+        // the most recently used buffers are reused first
+        sizeClasses.computeIfAbsent(buffer.length, length -> new ConcurrentLinkedDeque<>()).offerFirst(buffer);
+    }
+
+    private static long bytes(float[] buffer) {
+        return (long) buffer.length * Float.BYTES;
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright 2021 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.observation_processing.data;
+
+/**
+ * An index of observations in space and time for the neighbour search of the inverse distance weighting. The
+ * distance of two observations combines the great circle distance in km and the time difference scaled like degrees
+ * on a great circle, see {@link KdTree#toPoint}. The points of an index are numbered by the index.
+ */
+public interface SpatialIndex {
+
+    enum Type {
+        // the station/time index, if the stations report repeatedly, the k-d tree otherwise
+        AUTO,
+        KD_TREE,
+        STATION_TIME,
+        // a uniform grid for dense networks of evenly spaced stations, AUTO does not select it
+        GRID_HASH,
+        // a k-d tree with approximate neighbours within the error bound
+        APPROXIMATE
+    }
+
+    /**
+     * Build an index from the rows [start, start + count) of the observation columns lon, lat, time, value.
+     *
+     * @param type the type of the index
+     * @param errorBound the relative error of the distances of approximate neighbours
+     */
+    static SpatialIndex of(Type type, double errorBound, float[][] cells, int start, int count) {
+        switch (type) {
+            case KD_TREE:
+                return new KdTree(cells, start, count);
+            case STATION_TIME:
+                return new StationTimeIndex(cells, start, count);
+            case GRID_HASH:
+                return new GridHashIndex(cells, start, count);
+            case APPROXIMATE:
+                return new KdTree(cells, start, count, errorBound);
+            default:
+                StationTimeIndex index = new StationTimeIndex(cells, start, count);
+                if (count >= StationTimeIndex.MIN_OBSERVATIONS_PER_STATION * index.stationCount())
+                    return index;
+                return new KdTree(cells, start, count);
+        }
+    }
+
+    int size();
+
+    float getValue(int point);
+
+    /**
+     * @return the row of a point relative to the first row of the observations
+     */
+    int getRow(int point);
+
+    /**
+     * Find the k nearest points within a maximum distance.
+     *
+     * @param lon the longitude of the query point
+     * @param lat the latitude of the query point
+     * @param time the time of the query point
+     * @param k the maximum number of points
+     * @param maxDistance the maximum distance in km
+     * @param indices receives the points found, ordered by distance
+     * @param distances receives the distances in km of the points found
+     * @return the number of points found
+     */
+    int nearestNeighbours(float lon, float lat, float time, int k, float maxDistance, int[] indices, float[] distances);
+
+    /**
+     * Determine the candidate neighbours of a block of query points, for example the cells of a grid at a time step.
+     * Every point that is one of the k nearest points within the maximum distance of a query point in the block
+     * is a candidate.
+     *
+     * @param minLon the minimum longitude of the query points
+     * @param minLat the minimum latitude of the query points
+     * @param maxLon the maximum longitude of the query points
+     * @param maxLat the maximum latitude of the query points
+     * @param time the time of the query points
+     * @param k the maximum number of points of each query
+     * @param maxDistance the maximum distance in km
+     * @return the candidates
+     */
+    int[] candidates(float minLon, float minLat, float maxLon, float maxLat, float time, int k, float maxDistance);
+
+    /**
+     * Find the k nearest points within a maximum distance among candidates.
+     *
+     * @param candidates the candidates, see {@link #candidates(float, float, float, float, float, int, float)}
+     * @see #nearestNeighbours(float, float, float, int, float, int[], float[])
+     */
+    int nearestNeighbours(float lon, float lat, float time, int k, float maxDistance, int[] candidates, int[] indices, float[] distances);
+}
@@ -0,0 +1,221 @@
+/**
+ * Copyright 2021 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.observation_processing.data;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A two-level index of observations in space and time for stations that report repeatedly at the same position.
+ * The first level is a k-d tree of the station positions, the second level are the times of each station in
+ * ascending order. A query visits the stations by distance and walks the times of each station outwards from the
+ * query time, as long as the observations may be closer than the k-th neighbour found so far. The distances are the
+ * same as in {@link KdTree}, the great circle distance combined with the scaled time difference.
+ */
+class StationTimeIndex implements SpatialIndex {
+
+    // the index is chosen automatically, if the stations report often enough to make the walk along their times cheaper than a search in space and time
+    static final int MIN_OBSERVATIONS_PER_STATION = 4;
+
+    private final KdTree stations;
+    // the observations of the station at tree position i are [offsets[i], offsets[i + 1]), ordered by time
+    private final int[] offsets;
+    private final float[] times;
+    private final float[] values;
+    // the row of each observation relative to the first row
+    private final int[] rows;
+
+    /**
+     * Build the index from the rows [start, start + count) of the observation columns lon, lat, time, value. The
+     * stations are identified by their position.
+     */
+    StationTimeIndex(float[][] cells, int start, int count) {
+        Map<Long, Integer> positions = new HashMap<>();
+        int[] station = new int[count];
+        for (int i = 0; i < count; i++) {
+            long key = ((long) Float.floatToIntBits(cells[0][start + i] + 0.0f) << 32) | (Float.floatToIntBits(cells[1][start + i] + 0.0f) & 0xffffffffL);
+            station[i] = positions.computeIfAbsent(key, k -> positions.size());
+        }
+        int stationCount = positions.size();
+        float[][] stationCells = new float[4][stationCount];
+        for (int i = 0; i < count; i++) {
+            stationCells[0][station[i]] = cells[0][start + i];
+            stationCells[1][station[i]] = cells[1][start + i];
+        }
+        stations = new KdTree(stationCells, 0, stationCount);
+
+        int[] position = new int[stationCount];
+        for (int p = 0; p < stationCount; p++)
+            position[stations.getRow(p)] = p;
+        offsets = new int[stationCount + 1];
+        for (int i = 0; i < count; i++)
+            offsets[position[station[i]] + 1]++;
+        for (int p = 0; p < stationCount; p++)
+            offsets[p + 1] += offsets[p];
+
+        // sort by station and time, the key is the order-preserving bit pattern of the time and the row
+        long[] keys = new long[count];
+        int[] next = Arrays.copyOf(offsets, stationCount);
+        rows = new int[count];
+        for (int i = 0; i < count; i++)
+            rows[next[position[station[i]]]++] = i;
+        times = new float[count];
+        values = new float[count];
+        for (int p = 0; p < stationCount; p++) {
+            int from = offsets[p];
+            int to = offsets[p + 1];
+            for (int j = from; j < to; j++) {
+                int bits = Float.floatToIntBits(cells[2][start + rows[j]]);
+                keys[j] = ((long) (bits ^ ((bits >> 31) & 0x7fffffff)) << 32) | rows[j];
+            }
+            Arrays.sort(keys, from, to);
+            for (int j = from; j < to; j++) {
+                int row = (int) keys[j];
+                rows[j] = row;
+                times[j] = cells[2][start + row];
+                values[j] = cells[3][start + row];
+            }
+        }
+    }
+
+    int stationCount() {
+        return stations.size();
+    }
+
+    @Override
+    public int size() {
+        return times.length;
+    }
+
+    @Override
+    public float getValue(int point) {
+        return values[point];
+    }
+
+    @Override
+    public int getRow(int point) {
+        return rows[point];
+    }
+
+    /**
+     * @see KdTree#nearestNeighbours(float, float, float, int, float, int[], float[])
+     */
+    @Override
+    public int nearestNeighbours(float lon, float lat, float time, int k, float maxDistance, int[] indices, float[] distances) {
+        if (stations.size() == 0 || k <= 0)
+            return 0;
+
+        Query query = QUERY.get();
+        query.reset(this, lon, lat, time, k, maxDistance);
+        stations.search(query.point, query);
+        return query.drainTo(indices, distances);
+    }
+
+    /**
+     * @see KdTree#candidates(float, float, float, float, float, int, float)
+     * @return the candidate stations
+     */
+    @Override
+    public int[] candidates(float minLon, float minLat, float maxLon, float maxLat, float time, int k, float maxDistance) {
+        if (stations.size() == 0 || k <= 0)
+            return new int[0];
+
+        float[] center = new float[KdTree.DIMENSIONS];
+        double radius = KdTree.blockRadius(minLon, minLat, maxLon, maxLat, 0f, center);
+
+        // the neighbours of a query point are at stations within the k-th distance of the center plus twice the radius, and within the maximum distance plus the radius
+        Query query = QUERY.get();
+        query.reset(this, (minLon + maxLon) / 2, (minLat + maxLat) / 2, time, k, maxDistance);
+        stations.search(query.point, query);
+        double range = maxDistance + radius;
+        if (query.heap.isFull())
+            range = Math.min(range, Math.sqrt(query.heap.max()) + 2 * radius);
+
+        return stations.collect(center, (float) range);
+    }
+
+    /**
+     * @param candidates the candidate stations, see {@link #candidates(float, float, float, float, float, int, float)}
+     * @see KdTree#nearestNeighbours(float, float, float, int, float, int[], int[], float[])
+     */
+    @Override
+    public int nearestNeighbours(float lon, float lat, float time, int k, float maxDistance, int[] candidates, int[] indices, float[] distances) {
+        if (stations.size() == 0 || k <= 0)
+            return 0;
+
+        Query query = QUERY.get();
+        query.reset(this, lon, lat, time, k, maxDistance);
+        for (int candidate : candidates)
+            query.visit(candidate, stations.squaredDistance(candidate, query.point));
+        return query.drainTo(indices, distances);
+    }
+
+    private static final ThreadLocal<Query> QUERY = ThreadLocal.withInitial(Query::new);
+
+    // the state of a query that is reused by the queries of a thread, the heap holds squared distances
+    private static class Query implements KdTree.Visitor {
+        // the position of the query, the time is 0 like in the tree of the stations
+        final float[] point = new float[KdTree.DIMENSIONS];
+        final NeighbourHeap heap = new NeighbourHeap();
+        private StationTimeIndex index;
+        private float time;
+        private float maxDistanceSquared;
+
+        void reset(StationTimeIndex index, float lon, float lat, float time, int k, float maxDistance) {
+            this.index = index;
+            this.time = time;
+            this.maxDistanceSquared = maxDistance * maxDistance;
+            KdTree.toPoint(lon, lat, 0f, point);
+            heap.reset(k);
+        }
+
+        @Override
+        public float bound() {
+            return heap.isFull() ? heap.max() : maxDistanceSquared;
+        }
+
+        @Override
+        public void visit(int station, float chordSquared) {
+            // the chord is shorter than the great circle distance, so the chord is checked first
+            if (chordSquared > bound())
+                return;
+            double arc = KdTree.arc(chordSquared);
+            float spatialSquared = (float) (arc * arc);
+            if (spatialSquared > bound())
+                return;
+
+            float[] times = index.times;
+            int from = index.offsets[station];
+            int to = index.offsets[station + 1];
+            int position = Arrays.binarySearch(times, from, to, time);
+            if (position < 0)
+                position = -position - 1;
+            for (int j = position - 1; j >= from && offer(j, spatialSquared, times[j]); j--);
+            for (int j = position; j < to && offer(j, spatialSquared, times[j]); j++);
+        }
+
+        // offer an observation, false if it and all observations of the station that are farther in time are too far
+        private boolean offer(int point, float spatialSquared, float observationTime) {
+            float dt = (float) ((observationTime - time) * KdTree.TIME_SCALE);
+            float distanceSquared = spatialSquared + dt * dt;
+            if (distanceSquared > bound())
+                return false;
+            heap.offer(distanceSquared, point);
+            return true;
+        }
+
+        int drainTo(int[] indices, float[] distances) {
+            int count = heap.drainTo(indices, distances);
+            for (int i = 0; i < count; i++)
+                distances[i] = (float) Math.sqrt(distances[i]);
+            index = null;
+            return count;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright 2021 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.observation_processing.data;
+
+/**
+ * Interpolation of a time series at the time steps of an interval in a single pass. The samples are ordered by time
+ * and the steps are in ascending order, so the segment of a step is found by advancing from the segment of the
+ * previous step. Each segment is a cubic Hermite curve with the tangents of the parabola through the neighbouring
+ * samples, only the samples next to the segment are used. With two samples the interpolation is linear. Before
+ * the first and after the last sample the value of that sample is used. If several samples have the same time, the
+ * first one is used.
+ */
+final class TemporalInterpolator {
+
+    private TemporalInterpolator() {
+    }
+
+    /**
+     * @param times the times of the samples in ascending order
+     * @param values the values of the samples
+     * @param from the first sample
+     * @param to the end of the samples, exclusive, at least one sample is required
+     * @param steps the time steps, in ascending order for a single pass
+     * @param results receives the values at the time steps
+     */
+    static void interpolate(float[] times, float[] values, int from, int to, double[] steps, double[] results) {
+        int last = to - 1;
+        // the segment [times[i], times[i + 1]) of the current step
+        int i = from;
+        for (int s = 0; s < steps.length; s++) {
+            double t = steps[s];
+            if (t <= times[from]) {
+                results[s] = values[from];
+                continue;
+            }
+            if (t >= times[last]) {
+                results[s] = values[t == times[last] ? first(times, from, last) : last];
+                continue;
+            }
+
+            if (t < times[i])
+                i = from;
+            while (times[i + 1] <= t)
+                i++;
+            if (t == times[i]) {
+                results[s] = values[first(times, from, i)];
+                continue;
+            }
+
+            int k0 = first(times, from, i);
+            int k1 = i + 1;
+            int previous = k0 > from ? first(times, from, k0 - 1) : -1;
+            int next = k1;
+            while (next <= last && times[next] == times[k1])
+                next++;
+            if (next > last)
+                next = -1;
+
+            double h = times[k1] - times[k0];
+            double slope = (values[k1] - values[k0]) / h;
+            double d0 = previous < 0 ? slope : tangent(times[previous], values[previous], times[k0], values[k0], slope, h);
+            double d1 = next < 0 ? slope : tangent(times[k0], values[k0], times[k1], values[k1], (values[next] - values[k1]) / (times[next] - times[k1]), times[next] - times[k1]);
+
+            double u = (t - times[k0]) / h;
+            double u2 = u * u;
+            double u3 = u2 * u;
+            results[s] = (2 * u3 - 3 * u2 + 1) * values[k0]
+                    + (u3 - 2 * u2 + u) * h * d0
+                    + (-2 * u3 + 3 * u2) * values[k1]
+                    + (u3 - u2) * h * d1;
+        }
+    }
+
+    // the first sample with the same time as sample i
+    private static int first(float[] times, int from, int i) {
+        while (i > from && times[i - 1] == times[i])
+            i--;
+        return i;
+    }
+
+    // the derivative at the middle sample of the parabola through three samples, given the slope and length after the middle sample
+    private static double tangent(double t0, double v0, double t1, double v1, double slopeAfter, double hAfter) {
+        double hBefore = t1 - t0;
+        double slopeBefore = (v1 - v0) / hBefore;
+        return (hAfter * slopeBefore + hBefore * slopeAfter) / (hBefore + hAfter);
+    }
+}
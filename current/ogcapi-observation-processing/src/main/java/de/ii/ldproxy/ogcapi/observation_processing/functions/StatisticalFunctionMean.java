@@ -8,6 +8,7 @@
 package de.ii.ldproxy.ogcapi.observation_processing.functions;
 
 import de.ii.ldproxy.ogcapi.domain.ExtensionRegistry;
+import de.ii.ldproxy.ogcapi.observation_processing.api.GridAccumulator;
 import de.ii.ldproxy.ogcapi.observation_processing.api.ObservationProcessingStatisticalFunction;
 import org.apache.felix.ipojo.annotations.Component;
 import org.apache.felix.ipojo.annotations.Instantiate;
@@ -37,6 +38,28 @@ public class StatisticalFunctionMean implements ObservationProcessingStatistical
         return (float) values.parallelStream().mapToDouble(Number::doubleValue).average().orElse(Double.NaN);
     }
 
+    @Override
+    public GridAccumulator createGridAccumulator(int cells) {
+        int[] counts = new int[cells];
+        double[] sums = new double[cells];
+        return new GridAccumulator() {
+            @Override
+            public void add(float[] plane) {
+                for (int cell = 0; cell < cells; cell++)
+                    if (!Float.isNaN(plane[cell])) {
+                        counts[cell]++;
+                        sums[cell] += plane[cell];
+                    }
+            }
+
+            @Override
+            public void getValues(float[] results) {
+                for (int cell = 0; cell < cells; cell++)
+                    results[cell] = counts[cell] > 0 ? (float) (sums[cell] / counts[cell]) : Float.NaN;
+            }
+        };
+    }
+
     @Override
     public Class getType() { return Float.class; }
 }
@@ -8,12 +8,14 @@
 package de.ii.ldproxy.ogcapi.observation_processing.functions;
 
 import de.ii.ldproxy.ogcapi.domain.ExtensionRegistry;
+import de.ii.ldproxy.ogcapi.observation_processing.api.GridAccumulator;
 import de.ii.ldproxy.ogcapi.observation_processing.api.ObservationProcessingStatisticalFunction;
 import org.apache.felix.ipojo.annotations.Component;
 import org.apache.felix.ipojo.annotations.Instantiate;
 import org.apache.felix.ipojo.annotations.Provides;
 import org.apache.felix.ipojo.annotations.Requires;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.concurrent.CopyOnWriteArrayList;
@@ -39,6 +41,26 @@ public class StatisticalFunctionMin implements ObservationProcessingStatisticalF
         return Collections.min(values, Comparator.comparing(v -> v.floatValue()));
     }
 
+    @Override
+    public GridAccumulator createGridAccumulator(int cells) {
+        // NaN, until the cell has a value
+        float[] mins = new float[cells];
+        Arrays.fill(mins, Float.NaN);
+        return new GridAccumulator() {
+            @Override
+            public void add(float[] plane) {
+                for (int cell = 0; cell < cells; cell++)
+                    if (plane[cell] < mins[cell] || Float.isNaN(mins[cell]))
+                        mins[cell] = plane[cell];
+            }
+
+            @Override
+            public void getValues(float[] results) {
+                System.arraycopy(mins, 0, results, 0, cells);
+            }
+        };
+    }
+
     @Override
     public Class getType() { return Float.class; }
 }
@@ -9,6 +9,7 @@ package de.ii.ldproxy.ogcapi.observation_processing.functions;
 
 import de.ii.ldproxy.ogcapi.domain.ExtensionConfiguration;
 import de.ii.ldproxy.ogcapi.domain.ExtensionRegistry;
+import de.ii.ldproxy.ogcapi.observation_processing.api.GridAccumulator;
 import de.ii.ldproxy.ogcapi.observation_processing.api.ObservationProcessingStatisticalFunction;
 import org.apache.felix.ipojo.annotations.Component;
 import org.apache.felix.ipojo.annotations.Instantiate;
@@ -42,6 +43,31 @@ public class StatisticalFunctionStandardDeviation implements ObservationProcessi
         return (float) Math.sqrt(variance);
     }
 
+    @Override
+    public GridAccumulator createGridAccumulator(int cells) {
+        // the running mean and sum of squared differences from the mean (Welford)
+        int[] counts = new int[cells];
+        double[] means = new double[cells];
+        double[] squares = new double[cells];
+        return new GridAccumulator() {
+            @Override
+            public void add(float[] plane) {
+                for (int cell = 0; cell < cells; cell++)
+                    if (!Float.isNaN(plane[cell])) {
+                        double delta = plane[cell] - means[cell];
+                        means[cell] += delta / ++counts[cell];
+                        squares[cell] += delta * (plane[cell] - means[cell]);
+                    }
+            }
+
+            @Override
+            public void getValues(float[] results) {
+                for (int cell = 0; cell < cells; cell++)
+                    results[cell] = counts[cell] > 0 ? (float) Math.sqrt(squares[cell] / (counts[cell] - 1)) : Float.NaN;
+            }
+        };
+    }
+
     @Override
     public Class getType() { return Float.class; }
 
@@ -126,7 +126,9 @@ public class QueryParameterBboxResampleToGrid extends ApiExtensionCache implemen
         // TODO support bbox-crs and other CRSs
         String bboxParam = parameters.get(getName());
         List<Double> bbox;
-        if (bboxParam==null) {
+        if (parameters.containsKey("tile")) {
+            bbox = QueryParameterTile.getBbox(parameters.get("tile"));
+        } else if (bboxParam==null) {
             bbox = getDefault(apiData, Optional.of(featureType.getId()));
             if (bbox==null)
                 throw new IllegalArgumentException("Missing parameter 'bbox', no bounding box has been provided.");
@@ -154,7 +156,9 @@ public class QueryParameterBboxResampleToGrid extends ApiExtensionCache implemen
 
         String bboxParam = parameters.get(getName());
         List<Double> bbox = null;
-        if (bboxParam==null) {
+        if (parameters.containsKey("tile")) {
+            bbox = QueryParameterTile.getBbox(parameters.get("tile"));
+        } else if (bboxParam==null) {
             bbox = getDefault(apiData, Optional.of(featureType.getId()));
             if (bbox==null)
                 throw new IllegalArgumentException("Missing parameter 'bbox', no bounding box has been provided.");
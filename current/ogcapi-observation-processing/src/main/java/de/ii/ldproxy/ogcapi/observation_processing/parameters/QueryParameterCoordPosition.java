@@ -28,7 +28,7 @@ import java.util.Optional;
 @Instantiate
 public class QueryParameterCoordPosition extends ApiExtensionCache implements OgcApiQueryParameter {
 
-    static final double BUFFER = 75.0; // buffer in km
+    static public final double BUFFER = 75.0; // buffer in km
     static public final double R = 6378.1; // earth radius in km
 
     private final Schema baseSchema;
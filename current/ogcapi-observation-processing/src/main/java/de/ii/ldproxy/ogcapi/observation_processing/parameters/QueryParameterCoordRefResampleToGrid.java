@@ -77,7 +77,8 @@ public class QueryParameterCoordRefResampleToGrid extends ApiExtensionCache impl
 
     @Override
     public String getDescription() {
-        return "A URI that returns a GeoJSON feature. For a polygon or multi-polygon the envelope of the geometry is used, for other geometries a buffer is added before determining the envelope.";
+        return "A URI that returns a GeoJSON feature. For a polygon or multi-polygon the envelope of the geometry is used, for other geometries a buffer is added before determining the envelope. " +
+                "For a polygon or multi-polygon only the grid cells with a centre inside the geometry are interpolated, the other cells have no value.";
     }
 
     @Override
@@ -114,7 +115,7 @@ public class QueryParameterCoordRefResampleToGrid extends ApiExtensionCache impl
         if (coordRef==null)
             return parameters;
 
-        String coord = geometryHelper.convertMultiPolygonToWkt(new GeometryMultiPolygon(getEnvelope(coordRef)).asList());
+        String coord = geometryHelper.convertMultiPolygonToWkt(new GeometryMultiPolygon(getEnvelope(getGeometry(coordRef))).asList());
 
         String spatialPropertyName = getSpatialProperty(apiData, featureType.getId());
         String filter = parameters.get("filter");
@@ -137,7 +138,7 @@ public class QueryParameterCoordRefResampleToGrid extends ApiExtensionCache impl
                 .orElseThrow(() -> new RuntimeException(String.format("Configuration for feature collection '%s' does not specify any spatial queryable.",collectionId)));
     }
 
-    private Geometry getEnvelope(String coordRef) {
+    private Geometry getGeometry(String coordRef) {
         String response = httpClient.getAsString(coordRef);
         GeoJsonReader geoJsonReader = new GeoJsonReader();
 
@@ -150,7 +151,10 @@ public class QueryParameterCoordRefResampleToGrid extends ApiExtensionCache impl
         if (geometry==null || geometry.isEmpty()) {
             throw new IllegalArgumentException("The value of the parameter 'coordsRef' (" + coordRef + ") is not a URI that resolves to a GeoJSON feature.");
         }
+        return geometry;
+    }
 
+    private Geometry getEnvelope(Geometry geometry) {
         if (geometry instanceof Polygon || geometry instanceof MultiPolygon)
             return geometry.getEnvelope();
 
@@ -167,7 +171,11 @@ public class QueryParameterCoordRefResampleToGrid extends ApiExtensionCache impl
             return context;
 
         // coordRef has a higher priority than coord and bbox, so always set "area"
-        context.put("area",new GeometryMultiPolygon(getEnvelope(coordRef)));
+        Geometry geometry = getGeometry(coordRef);
+        context.put("area",new GeometryMultiPolygon(getEnvelope(geometry)));
+        // the cells outside of a polygon are not interpolated
+        if (geometry instanceof Polygon || geometry instanceof MultiPolygon)
+            context.put("mask",new GeometryMultiPolygon(geometry));
         return context;
     }
 }
@@ -40,6 +40,9 @@ import static de.ii.ldproxy.ogcapi.observation_processing.parameters.QueryParame
 public class QueryParameterDatetimeDapa extends ApiExtensionCache implements OgcApiQueryParameter {
 
     public static final double ANI = 2; // TODO document
+    // the temporal buffer that is added to the requested interval in the feature query, in seconds and in days
+    public static final long TIME_BUFFER = (long)(60*60*24 * BUFFER / (R * Math.PI/180.0) * ANI); // TODO review and document
+    public static final long TIME_BUFFER_DAYS = Math.round(TIME_BUFFER/(60*60*24));
 
     private static final String OPEN_REGEX = "(?:\\.\\.)?";
     private static final String LOCAL_DATE_REGEX = "(?:\\d{4})-(?:0[1-9]|1[0-2])-(?:0[1-9]|[12][0-9]|3[01])";
@@ -153,7 +156,6 @@ public class QueryParameterDatetimeDapa extends ApiExtensionCache implements Ogc
         String newDatetime = null;
         Temporal start = null;
         Temporal end = null;
-        long timeBuffer = (long)(60*60*24 * BUFFER / (R * Math.PI/180.0) * ANI); // TODO review and document
         List<String> temps = Splitter.on('/').splitToList(datetime);
         boolean localDate = !datetime.contains("T");
         try {
@@ -161,11 +163,11 @@ public class QueryParameterDatetimeDapa extends ApiExtensionCache implements Ogc
                 case 1:
                     String s = temps.get(0);
                     start = localDate ?
-                            LocalDate.from(DateTimeFormatter.ISO_DATE.parse(s)).minusDays(Math.round(timeBuffer/(60*60*24))) :
-                            OffsetDateTime.from(DateTimeFormatter.ISO_DATE.parse(s)).minusSeconds(timeBuffer);
+                            LocalDate.from(DateTimeFormatter.ISO_DATE.parse(s)).minusDays(TIME_BUFFER_DAYS) :
+                            OffsetDateTime.from(DateTimeFormatter.ISO_DATE.parse(s)).minusSeconds(TIME_BUFFER);
                     end = localDate ?
-                            LocalDate.from(DateTimeFormatter.ISO_DATE.parse(s)).plusDays(Math.round(timeBuffer/(60*60*24))) :
-                            OffsetDateTime.from(DateTimeFormatter.ISO_DATE.parse(s)).plusSeconds(timeBuffer);
+                            LocalDate.from(DateTimeFormatter.ISO_DATE.parse(s)).plusDays(TIME_BUFFER_DAYS) :
+                            OffsetDateTime.from(DateTimeFormatter.ISO_DATE.parse(s)).plusSeconds(TIME_BUFFER);
                     newDatetime = start.toString() + "/" + end.toString();
                     break;
                 case 2:
@@ -173,18 +175,18 @@ public class QueryParameterDatetimeDapa extends ApiExtensionCache implements Ogc
                     start = localDate ?
                             (s.matches("^(\\.){0,2}$") ?
                                 null :
-                                LocalDate.from(DateTimeFormatter.ISO_DATE.parse(s)).minusDays(Math.round(timeBuffer/(60*60*24)))) :
+                                LocalDate.from(DateTimeFormatter.ISO_DATE.parse(s)).minusDays(TIME_BUFFER_DAYS)) :
                             (s.matches("^(\\.){0,2}$") ?
                                 null :
-                                OffsetDateTime.from(DateTimeFormatter.ISO_DATE.parse(s)).minusSeconds(timeBuffer));
+                                OffsetDateTime.from(DateTimeFormatter.ISO_DATE.parse(s)).minusSeconds(TIME_BUFFER));
                     s = temps.get(1);
                     end = localDate ?
                             (s.matches("^(\\.){0,2}$") ?
                                 null :
-                                LocalDate.from(DateTimeFormatter.ISO_DATE.parse(s)).plusDays(Math.round(timeBuffer/(60*60*24)))) :
+                                LocalDate.from(DateTimeFormatter.ISO_DATE.parse(s)).plusDays(TIME_BUFFER_DAYS)) :
                             (s.matches("^(\\.){0,2}$") ?
                                 null :
-                                OffsetDateTime.from(DateTimeFormatter.ISO_DATE.parse(s)).plusSeconds(timeBuffer));
+                                OffsetDateTime.from(DateTimeFormatter.ISO_DATE.parse(s)).plusSeconds(TIME_BUFFER));
                     newDatetime = (start==null?"..":start.toString()) + "/" + (end==null?"..":end.toString());
                     break;
                 default:
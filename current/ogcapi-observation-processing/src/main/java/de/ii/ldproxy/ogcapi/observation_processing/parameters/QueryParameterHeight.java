@@ -75,6 +75,10 @@ public class QueryParameterHeight extends ApiExtensionCache implements OgcApiQue
                                                 Map<String, Object> context,
                                                 Map<String, String> parameters,
                                                 OgcApiDataV2 apiData) {
+        if (parameters.containsKey("tile"))
+            // the size of a tile is fixed
+            return context;
+
         OptionalInt gridHeight = OptionalInt.empty();
         if (parameters.containsKey(getName()))
             gridHeight = OptionalInt.of(Integer.valueOf(parameters.get(getName())));
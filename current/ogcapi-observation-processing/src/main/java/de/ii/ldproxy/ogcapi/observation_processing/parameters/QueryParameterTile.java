@@ -0,0 +1,135 @@
+/**
+ * Copyright 2021 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.observation_processing.parameters;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import de.ii.ldproxy.ogcapi.domain.*;
+import de.ii.ldproxy.ogcapi.features.core.domain.processing.FeatureProcessInfo;
+import de.ii.ldproxy.ogcapi.observation_processing.api.ObservationProcess;
+import de.ii.ldproxy.ogcapi.observation_processing.application.ObservationProcessingConfiguration;
+import io.swagger.v3.oas.models.media.Schema;
+import io.swagger.v3.oas.models.media.StringSchema;
+import org.apache.felix.ipojo.annotations.Component;
+import org.apache.felix.ipojo.annotations.Instantiate;
+import org.apache.felix.ipojo.annotations.Provides;
+import org.apache.felix.ipojo.annotations.Requires;
+
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalInt;
+
+@Component
+@Provides
+@Instantiate
+public class QueryParameterTile extends ApiExtensionCache implements OgcApiQueryParameter {
+
+    // the number of grid cells in each direction of a tile
+    public static final int TILE_SIZE = 256;
+    private static final int MAX_LEVEL = 24;
+
+    private final Schema baseSchema;
+    final FeatureProcessInfo featureProcessInfo;
+
+    public QueryParameterTile(@Requires FeatureProcessInfo featureProcessInfo) {
+        this.featureProcessInfo = featureProcessInfo;
+        baseSchema = new StringSchema().pattern("^\\d+/\\d+/\\d+$");
+    }
+
+    @Override
+    public String getName() {
+        return "tile";
+    }
+
+    @Override
+    public String getDescription() {
+        return "A tile of the tile matrix set WorldCRS84Quad, provided as '{tileMatrix}/{tileRow}/{tileCol}'. " +
+                "The grid is the tile with " + TILE_SIZE + " by " + TILE_SIZE + " cells, the parameters `bbox`, " +
+                "`width` and `height` are ignored. Tiles are cached, so tiles that have been requested before are " +
+                "not resampled again.";
+    }
+
+    @Override
+    public boolean isApplicable(OgcApiDataV2 apiData, String definitionPath, HttpMethods method) {
+        return computeIfAbsent(this.getClass().getCanonicalName() + apiData.hashCode() + definitionPath + method.name(), () ->
+            isEnabledForApi(apiData) &&
+                method== HttpMethods.GET &&
+                featureProcessInfo.matches(apiData, ObservationProcess.class, definitionPath,"grid"));
+    }
+
+    @Override
+    public Schema getSchema(OgcApiDataV2 apiData) {
+        return baseSchema;
+    }
+
+    @Override
+    public Schema getSchema(OgcApiDataV2 apiData, String collectionId) {
+        return baseSchema;
+    }
+
+    @Override
+    public boolean isEnabledForApi(OgcApiDataV2 apiData) {
+        return isExtensionEnabled(apiData, ObservationProcessingConfiguration.class) ||
+                apiData.getCollections()
+                        .values()
+                        .stream()
+                        .filter(FeatureTypeConfigurationOgcApi::getEnabled)
+                        .anyMatch(featureType -> isEnabledForApi(apiData, featureType.getId()));
+    }
+
+    @Override
+    public Class<? extends ExtensionConfiguration> getBuildingBlockConfigurationType() {
+        return ObservationProcessingConfiguration.class;
+    }
+
+    @Override
+    public Map<String, Object> transformContext(FeatureTypeConfigurationOgcApi featureType,
+                                                Map<String, Object> context,
+                                                Map<String, String> parameters,
+                                                OgcApiDataV2 apiData) {
+        if (!parameters.containsKey(getName()))
+            return context;
+        if (parameters.containsKey("coordsRef"))
+            throw new IllegalArgumentException("Only one of the parameters 'tile' and 'coordsRef' may be provided.");
+
+        // validates the tile, the area of the grid is set by the bbox parameter
+        getBbox(parameters.get(getName()));
+        context.put(getName(), parameters.get(getName()));
+        context.put("width", OptionalInt.of(TILE_SIZE));
+        context.put("height", OptionalInt.of(TILE_SIZE));
+        return context;
+    }
+
+    /**
+     * In WorldCRS84Quad, the tile matrix {@code n} has {@code 2^(n+1)} columns and {@code 2^n} rows, the first row is
+     * at the north pole.
+     *
+     * @param tile the tile as '{tileMatrix}/{tileRow}/{tileCol}'
+     * @return the bounding box of the tile
+     */
+    public static List<Double> getBbox(String tile) {
+        List<String> ids = Splitter.on("/").splitToList(tile);
+        if (ids.size()!=3)
+            throw new IllegalArgumentException(String.format("Invalid value for parameter 'tile': '%s'. Expected '{tileMatrix}/{tileRow}/{tileCol}'.", tile));
+        int level;
+        int row;
+        int col;
+        try {
+            level = Integer.parseInt(ids.get(0));
+            row = Integer.parseInt(ids.get(1));
+            col = Integer.parseInt(ids.get(2));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("Invalid value for parameter 'tile': '%s'. Expected '{tileMatrix}/{tileRow}/{tileCol}'.", tile));
+        }
+        if (level<0 || level>MAX_LEVEL || row<0 || row>=(1<<level) || col<0 || col>=(2<<level))
+            throw new IllegalArgumentException(String.format("Invalid value for parameter 'tile': '%s'. The tile is not in the tile matrix set WorldCRS84Quad.", tile));
+
+        double span = 180.0 / (1<<level);
+        return ImmutableList.of(-180.0 + col*span, 90.0 - (row+1)*span, -180.0 + (col+1)*span, 90.0 - row*span);
+    }
+}
@@ -0,0 +1,118 @@
+/**
+ * Copyright 2021 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.observation_processing.parameters;
+
+import de.ii.ldproxy.ogcapi.domain.*;
+import de.ii.ldproxy.ogcapi.features.core.domain.processing.FeatureProcessInfo;
+import de.ii.ldproxy.ogcapi.observation_processing.api.ObservationProcess;
+import de.ii.ldproxy.ogcapi.observation_processing.application.ObservationProcessingConfiguration;
+import io.swagger.v3.oas.models.media.NumberSchema;
+import io.swagger.v3.oas.models.media.Schema;
+import org.apache.felix.ipojo.annotations.Component;
+import org.apache.felix.ipojo.annotations.Instantiate;
+import org.apache.felix.ipojo.annotations.Provides;
+import org.apache.felix.ipojo.annotations.Requires;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+@Component
+@Provides
+@Instantiate
+public class QueryParameterTolerance extends ApiExtensionCache implements OgcApiQueryParameter {
+
+    private final Schema baseSchema;
+    final FeatureProcessInfo featureProcessInfo;
+
+    public QueryParameterTolerance(@Requires FeatureProcessInfo featureProcessInfo) {
+        this.featureProcessInfo = featureProcessInfo;
+        baseSchema = new NumberSchema().minimum(BigDecimal.ZERO);
+    }
+
+    @Override
+    public String getName() {
+        return "tolerance";
+    }
+
+    @Override
+    public String getDescription() {
+        return "If the tolerance is positive, the grid is first interpolated on a coarse lattice. Blocks of cells where " +
+                "the values at the lattice points differ by at most the tolerance are filled by bilinear interpolation, " +
+                "all other blocks are interpolated cell by cell. With a tolerance of 0 every cell is interpolated.";
+    }
+
+    @Override
+    public boolean isApplicable(OgcApiDataV2 apiData, String definitionPath, HttpMethods method) {
+        return computeIfAbsent(this.getClass().getCanonicalName() + apiData.hashCode() + definitionPath + method.name(), () ->
+            isEnabledForApi(apiData) &&
+                method== HttpMethods.GET &&
+                featureProcessInfo.matches(apiData, ObservationProcess.class, definitionPath,"grid"));
+    }
+
+    @Override
+    public Schema getSchema(OgcApiDataV2 apiData) {
+        Schema schema = baseSchema;
+        schema.setDefault(getDefault(apiData, Optional.empty()));
+        return schema;
+    }
+
+    @Override
+    public Schema getSchema(OgcApiDataV2 apiData, String collectionId) {
+        Schema schema = baseSchema;
+        schema.setDefault(getDefault(apiData, Optional.of(collectionId)));
+        return schema;
+    }
+
+    @Override
+    public boolean isEnabledForApi(OgcApiDataV2 apiData) {
+        return isExtensionEnabled(apiData, ObservationProcessingConfiguration.class) ||
+                apiData.getCollections()
+                        .values()
+                        .stream()
+                        .filter(FeatureTypeConfigurationOgcApi::getEnabled)
+                        .anyMatch(featureType -> isEnabledForApi(apiData, featureType.getId()));
+    }
+
+    @Override
+    public Class<? extends ExtensionConfiguration> getBuildingBlockConfigurationType() {
+        return ObservationProcessingConfiguration.class;
+    }
+
+    @Override
+    public Map<String, Object> transformContext(FeatureTypeConfigurationOgcApi featureType,
+                                                Map<String, Object> context,
+                                                Map<String, String> parameters,
+                                                OgcApiDataV2 apiData) {
+        double tolerance;
+        if (parameters.containsKey(getName())) {
+            try {
+                tolerance = Double.parseDouble(parameters.get(getName()));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(String.format("Invalid value for parameter '%s': '%s'. Expected a number.", getName(), parameters.get(getName())));
+            }
+            if (!(tolerance >= 0))
+                throw new IllegalArgumentException(String.format("Invalid value for parameter '%s': '%s'. The tolerance must not be negative.", getName(), parameters.get(getName())));
+        } else
+            tolerance = getDefault(apiData, Optional.of(featureType.getId()));
+
+        context.put(getName(),tolerance);
+        return context;
+    }
+
+    private double getDefault(OgcApiDataV2 apiData, Optional<String> collectionId) {
+        FeatureTypeConfigurationOgcApi featureType = collectionId.isPresent() ? apiData.getCollections().get(collectionId.get()) : null;
+        Optional<ObservationProcessingConfiguration> config = featureType!=null ?
+                featureType.getExtension(ObservationProcessingConfiguration.class) :
+                apiData.getExtension(ObservationProcessingConfiguration.class);
+        return config.map(ObservationProcessingConfiguration::getGridTolerance)
+                     .filter(Objects::nonNull)
+                     .orElse(0.0);
+    }
+}
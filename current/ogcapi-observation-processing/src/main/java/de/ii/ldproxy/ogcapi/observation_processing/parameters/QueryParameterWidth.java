@@ -95,6 +95,10 @@ public class QueryParameterWidth extends ApiExtensionCache implements OgcApiQuer
                                                 Map<String, Object> context,
                                                 Map<String, String> parameters,
                                                 OgcApiDataV2 apiData) {
+        if (parameters.containsKey("tile"))
+            // the size of a tile is fixed
+            return context;
+
         OptionalInt gridWidth;
         if (parameters.containsKey(getName()))
             gridWidth = OptionalInt.of(Integer.valueOf(parameters.get(getName())));
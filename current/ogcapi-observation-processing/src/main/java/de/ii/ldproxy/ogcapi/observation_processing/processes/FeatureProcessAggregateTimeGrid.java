@@ -7,25 +7,30 @@
  */
 package de.ii.ldproxy.ogcapi.observation_processing.processes;
 
+import com.google.common.collect.Iterators;
 import de.ii.ldproxy.ogcapi.domain.OgcApiDataV2;
 import de.ii.ldproxy.ogcapi.domain.ExtensionRegistry;
 import de.ii.ldproxy.ogcapi.features.core.domain.processing.FeatureProcess;
+import de.ii.ldproxy.ogcapi.observation_processing.api.GridAccumulator;
 import de.ii.ldproxy.ogcapi.observation_processing.api.ObservationProcess;
 import de.ii.ldproxy.ogcapi.observation_processing.api.ObservationProcessingStatisticalFunction;
 import de.ii.ldproxy.ogcapi.observation_processing.api.TemporalInterval;
+import de.ii.ldproxy.ogcapi.observation_processing.data.DataArrayGrid;
 import de.ii.ldproxy.ogcapi.observation_processing.data.DataArrayXy;
 import de.ii.ldproxy.ogcapi.observation_processing.data.DataArrayXyt;
+import de.ii.ldproxy.ogcapi.observation_processing.data.DataArrayXytBands;
 import org.apache.felix.ipojo.annotations.Component;
 import org.apache.felix.ipojo.annotations.Instantiate;
 import org.apache.felix.ipojo.annotations.Provides;
 import org.apache.felix.ipojo.annotations.Requires;
 
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Vector;
-import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 @Component
 @Provides
@@ -41,7 +46,7 @@ public class FeatureProcessAggregateTimeGrid implements ObservationProcess {
     @Override
     public List<FeatureProcess> getSupportedProcesses(OgcApiDataV2 apiData) {
         return extensionRegistry.getExtensionsForType(FeatureProcess.class).stream()
-                .filter(proc -> proc.getOutputType()== DataArrayXyt.class && !proc.isAlwaysTerminal())
+                .filter(proc -> proc.getOutputType()== DataArrayGrid.class && !proc.isAlwaysTerminal())
                 .collect(Collectors.toList());
     }
 
@@ -60,49 +65,59 @@ public class FeatureProcessAggregateTimeGrid implements ObservationProcess {
     @Override
     public Object execute(Object data, Map<String, Object> processingParameters) {
         validateProcessingParameters(processingParameters);
-        if (!(data instanceof DataArrayXyt)) {
+        if (!(data instanceof DataArrayGrid)) {
             throw new RuntimeException("Missing information for executing '" + getName() + "': No grid data has been provided.");
         }
-        DataArrayXyt array = (DataArrayXyt) data;
         TemporalInterval interval = (TemporalInterval) processingParameters.get("interval");
-        List<ObservationProcessingStatisticalFunction> functions = (List<ObservationProcessingStatisticalFunction>) processingParameters.get("functions");
+        List<ObservationProcessingStatisticalFunction> functions = ((List<ObservationProcessingStatisticalFunction>) processingParameters.get("functions"))
+                .stream()
+                .filter(f -> Number.class.isAssignableFrom(f.getType()))
+                .collect(Collectors.toList());
         int functionCount = functions.size();
 
-        Vector<String> vars = array.getVars();
-        Vector<String> newVars = new Vector<>();
-        for (String var: vars) {
-            for (ObservationProcessingStatisticalFunction f : functions) {
-                if (Number.class.isAssignableFrom(f.getType())) {
-                    String variable_function = String.join("_", var, f.getName());
-                    newVars.add(variable_function);
-                }
+        // the time steps are aggregated as they are resampled, only the current band and the accumulators are kept
+        DataArrayGrid grid = (DataArrayGrid) data;
+        Iterator<DataArrayXyt> bands = data instanceof DataArrayXytBands ?
+                (DataArrayXytBands) data :
+                Iterators.singletonIterator((DataArrayXyt) data);
+        DataArrayXy newArray = new DataArrayXy(grid.getWidth(), grid.getHeight(), getNewVars(grid.getVars(), functions),
+                grid.lon(0), grid.lat(grid.getHeight()), grid.lon(grid.getWidth()), grid.lat(0),
+                interval, grid.getBuffers());
+
+        // the accumulator of variable v and function f is at v * functionCount + f, like the variables of the result
+        int cells = newArray.getWidth() * newArray.getHeight();
+        GridAccumulator[] accumulators = new GridAccumulator[newArray.getVars().size()];
+        for (int i = 0; i < accumulators.length; i++)
+            accumulators[i] = functions.get(i % functionCount).createGridAccumulator(cells);
+
+        while (bands.hasNext()) {
+            DataArrayXyt band = bands.next();
+            for (int i2 = 0; i2 < band.getSteps(); i2++) {
+                int step = i2;
+                IntStream.range(0, accumulators.length)
+                         .parallel()
+                         .forEach(i -> accumulators[i].add(band.getPlane(step, i / functionCount)));
             }
+            // the planes of the band are reused for the next band
+            if (data instanceof DataArrayXytBands)
+                band.release();
         }
 
-        DataArrayXy newArray = new DataArrayXy(array.getWidth(), array.getHeight(), newVars,
-                array.lon(0), array.lat(array.getHeight()), array.lon(array.getWidth()), array.lat(0),
-                interval);
-
-        for (int i0=0; i0<array.getWidth(); i0++)
-            for (int i1=0; i1<array.getHeight(); i1++) {
-                for (int i3 = 0; i3 < vars.size(); i3++) {
-                    CopyOnWriteArrayList<Number> vals = new CopyOnWriteArrayList<>();
-                    for (int i2 = 0; i2 < array.getSteps(); i2++)
-                        if (!Float.isNaN(array.array[i2][i1][i0][i3]))
-                            vals.add(array.array[i2][i1][i0][i3]);
-                    for (int i4 = 0; i4 < functionCount; i4++) {
-                        ObservationProcessingStatisticalFunction f = functions.get(i4);
-                        if (Number.class.isAssignableFrom(f.getType()) && !vals.isEmpty())
-                            newArray.array[i1][i0][i3*functionCount+i4] = f.getValue(vals).floatValue();
-                        else
-                            newArray.array[i1][i0][i3*functionCount+i4] = Float.NaN;
-                    }
-                }
-            }
+        IntStream.range(0, accumulators.length)
+                 .parallel()
+                 .forEach(i -> accumulators[i].getValues(newArray.getPlane(i)));
 
         return newArray;
     }
 
+    private Vector<String> getNewVars(Vector<String> vars, List<ObservationProcessingStatisticalFunction> functions) {
+        Vector<String> newVars = new Vector<>();
+        for (String var: vars)
+            for (ObservationProcessingStatisticalFunction f : functions)
+                newVars.add(String.join("_", var, f.getName()));
+        return newVars;
+    }
+
     @Override
     public Class<?> getOutputType() {
         return DataArrayXy.class;
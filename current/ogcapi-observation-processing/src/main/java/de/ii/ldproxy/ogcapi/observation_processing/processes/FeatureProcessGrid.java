@@ -7,15 +7,22 @@
  */
 package de.ii.ldproxy.ogcapi.observation_processing.processes;
 
+import com.google.common.collect.ImmutableList;
 import de.ii.ldproxy.ogcapi.domain.ExtensionRegistry;
 import de.ii.ldproxy.ogcapi.domain.FeatureTypeConfigurationOgcApi;
 import de.ii.ldproxy.ogcapi.domain.OgcApiDataV2;
+import de.ii.ldproxy.ogcapi.observation_processing.api.GridTileCache;
+import de.ii.ldproxy.ogcapi.observation_processing.api.InterpolationStencilCache;
 import de.ii.ldproxy.ogcapi.observation_processing.api.ObservationProcess;
+import de.ii.ldproxy.ogcapi.observation_processing.api.RasterBufferPools;
 import de.ii.ldproxy.ogcapi.observation_processing.api.TemporalInterval;
 import de.ii.ldproxy.ogcapi.observation_processing.application.ObservationProcessingConfiguration;
+import de.ii.ldproxy.ogcapi.observation_processing.data.DataArrayGrid;
 import de.ii.ldproxy.ogcapi.observation_processing.data.DataArrayXyt;
+import de.ii.ldproxy.ogcapi.observation_processing.data.DataArrayXytBands;
 import de.ii.ldproxy.ogcapi.observation_processing.data.GeometryMultiPolygon;
 import de.ii.ldproxy.ogcapi.observation_processing.data.Observations;
+import de.ii.ldproxy.ogcapi.observation_processing.data.RasterBufferPool;
 import de.ii.ldproxy.ogcapi.observation_processing.parameters.PathParameterCollectionIdProcess;
 import org.apache.felix.ipojo.annotations.Component;
 import org.apache.felix.ipojo.annotations.Instantiate;
@@ -31,9 +38,18 @@ import java.util.stream.Collectors;
 public class FeatureProcessGrid implements ObservationProcess {
 
     private final ExtensionRegistry extensionRegistry;
-
-    public FeatureProcessGrid(@Requires ExtensionRegistry extensionRegistry) {
+    private final InterpolationStencilCache stencilCache;
+    private final GridTileCache tileCache;
+    private final RasterBufferPools bufferPools;
+
+    public FeatureProcessGrid(@Requires ExtensionRegistry extensionRegistry,
+                              @Requires InterpolationStencilCache stencilCache,
+                              @Requires GridTileCache tileCache,
+                              @Requires RasterBufferPools bufferPools) {
         this.extensionRegistry = extensionRegistry;
+        this.stencilCache = stencilCache;
+        this.tileCache = tileCache;
+        this.bufferPools = bufferPools;
     }
 
     @Override
@@ -74,23 +90,49 @@ public class FeatureProcessGrid implements ObservationProcess {
         }
         Observations observations = (Observations) data;
         GeometryMultiPolygon area = (GeometryMultiPolygon) processingParameters.get("area");
+        Optional<GeometryMultiPolygon> mask = Optional.ofNullable((GeometryMultiPolygon) processingParameters.get("mask"));
         TemporalInterval interval = (TemporalInterval) processingParameters.get("interval");
         OptionalInt gridWidth = (OptionalInt) processingParameters.get("width");
         OptionalInt gridHeight = (OptionalInt) processingParameters.get("height");
+        // exact interpolation of every cell, unless a tolerance has been provided
+        double tolerance = (Double) processingParameters.getOrDefault("tolerance", 0.0);
         OgcApiDataV2 apiData = (OgcApiDataV2) processingParameters.get("apiData");
         String collectionId = (String) processingParameters.get("collectionId");
 
         ObservationProcessingConfiguration config =
                 apiData.getCollections().get(collectionId).getExtension(ObservationProcessingConfiguration.class).get();
 
-        DataArrayXyt dataArray = observations.resampleToGrid(area.getBbox(), interval, gridWidth, gridHeight, OptionalInt.empty(),
-                config.getIdwCount(), config.getIdwDistanceKm(), config.getIdwPower());
+        String tile = (String) processingParameters.get("tile");
+        if (Objects.nonNull(tile) && tileCache.isEnabled(apiData, collectionId)) {
+            // a tile is resampled completely and cached, so that panning and zooming only resamples new tiles;
+            // the fingerprint of the observations covers filters and changes of the data
+            List<String> variables = (List<String>) processingParameters.getOrDefault("variables", ImmutableList.of());
+            String key = GridTileCache.getKey(tile, variables, interval, observations.getFingerprint(), config.getIdwCount(), config.getIdwDistanceKm(),
+                                              config.getIdwPower(), tolerance, config.getSpatialIndex(), config.getSpatialIndexErrorBound());
+            Optional<DataArrayXyt> cached = tileCache.getTile(apiData, collectionId, key);
+            if (cached.isPresent())
+                return cached.get();
+
+            // a cached tile is shared by requests, so its planes are not pooled
+            DataArrayXyt dataArray = observations.resampleToGrid(area.getBbox(), mask, interval, gridWidth, gridHeight, OptionalInt.empty(),
+                    config.getIdwCount(), config.getIdwDistanceKm(), config.getIdwPower(),
+                    config.getSpatialIndex(), config.getSpatialIndexErrorBound(), tolerance, stencilCache.getStencils(apiData, collectionId),
+                    RasterBufferPool.NONE);
+            tileCache.putTile(apiData, collectionId, key, dataArray);
+            return dataArray;
+        }
+
+        // the time steps of the grid are resampled when they are consumed
+        DataArrayXytBands dataArray = observations.resampleToGridBands(area.getBbox(), mask, interval, gridWidth, gridHeight, OptionalInt.empty(),
+                config.getIdwCount(), config.getIdwDistanceKm(), config.getIdwPower(),
+                config.getSpatialIndex(), config.getSpatialIndexErrorBound(), tolerance, stencilCache.getStencils(apiData, collectionId),
+                bufferPools.getPool(apiData));
         return dataArray;
     }
 
     @Override
     public Class<?> getOutputType() {
-        return DataArrayXyt.class;
+        return DataArrayGrid.class;
     }
 
     @Override
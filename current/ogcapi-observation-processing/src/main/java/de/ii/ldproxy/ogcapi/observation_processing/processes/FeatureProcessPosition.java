@@ -9,6 +9,7 @@ package de.ii.ldproxy.ogcapi.observation_processing.processes;
 
 import de.ii.ldproxy.ogcapi.domain.ExtensionRegistry;
 import de.ii.ldproxy.ogcapi.domain.OgcApiDataV2;
+import de.ii.ldproxy.ogcapi.observation_processing.api.InterpolationStencilCache;
 import de.ii.ldproxy.ogcapi.observation_processing.api.ObservationProcess;
 import de.ii.ldproxy.ogcapi.observation_processing.api.TemporalInterval;
 import de.ii.ldproxy.ogcapi.observation_processing.application.ObservationProcessingConfiguration;
@@ -33,9 +34,12 @@ import java.util.stream.Collectors;
 public class FeatureProcessPosition implements ObservationProcess {
 
     private final ExtensionRegistry extensionRegistry;
+    private final InterpolationStencilCache stencilCache;
 
-    public FeatureProcessPosition(@Requires ExtensionRegistry extensionRegistry) {
+    public FeatureProcessPosition(@Requires ExtensionRegistry extensionRegistry,
+                                  @Requires InterpolationStencilCache stencilCache) {
         this.extensionRegistry = extensionRegistry;
+        this.stencilCache = stencilCache;
     }
 
     @Override
@@ -80,7 +84,8 @@ public class FeatureProcessPosition implements ObservationProcess {
                 apiData.getCollections().get(collectionId).getExtension(ObservationProcessingConfiguration.class).get();
 
         ObservationCollectionPointTimeSeries position = observations.interpolate(point, interval,
-                config.getIdwCount(), config.getIdwDistanceKm(), config.getIdwPower());
+                config.getIdwCount(), config.getIdwDistanceKm(), config.getIdwPower(),
+                config.getSpatialIndex(), config.getSpatialIndexErrorBound(), stencilCache.getStencils(apiData, collectionId));
 
         return position;
     }
@@ -11,7 +11,7 @@ import de.ii.ldproxy.ogcapi.domain.ExtensionRegistry;
 import de.ii.ldproxy.ogcapi.domain.OgcApiDataV2;
 import de.ii.ldproxy.ogcapi.features.core.domain.processing.FeatureProcess;
 import de.ii.ldproxy.ogcapi.observation_processing.api.ObservationProcess;
-import de.ii.ldproxy.ogcapi.observation_processing.data.DataArrayXyt;
+import de.ii.ldproxy.ogcapi.observation_processing.data.DataArrayGrid;
 import org.apache.felix.ipojo.annotations.Component;
 import org.apache.felix.ipojo.annotations.Instantiate;
 import org.apache.felix.ipojo.annotations.Provides;
@@ -47,7 +47,7 @@ public class FeatureProcessRetrieveGrid implements ObservationProcess {
     @Override
     public Object execute(Object data, Map<String, Object> processingParameters) {
         validateProcessingParameters(processingParameters);
-        if (!(data instanceof DataArrayXyt)) {
+        if (!(data instanceof DataArrayGrid)) {
             throw new RuntimeException("Missing information for executing '" + getName() + "': No grid data has been provided.");
         }
         return data;
@@ -55,7 +55,7 @@ public class FeatureProcessRetrieveGrid implements ObservationProcess {
 
     @Override
     public Class<?> getOutputType() {
-        return DataArrayXyt.class;
+        return DataArrayGrid.class;
     }
 
     @Override
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2021 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.observation_processing.application
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.time.LocalDate
+
+/**
+ * Checks which requests may use observations that have not been fetched with their own feature query, and which
+ * requests share the observation cache.
+ */
+class FeatureQueryParametersSpec extends Specification {
+
+    @Unroll
+    def 'a request with the parameters #parameters is a snapshot request: #expected'() {
+
+        when: "the parameters of the request are checked"
+
+        def snapshotRequest = FeatureQueryParameters.isSnapshotRequest(parameters.collectEntries { [(it): 'value'] })
+
+        then: 'only the time, the variables, the area and the parameters of the processes may be restricted'
+
+        snapshotRequest == expected
+
+        where:
+
+        parameters                                                        || expected
+        []                                                                || true
+        ['datetime', 'variables', 'coords', 'functions', 'f']             || true
+        ['datetime', 'variables', 'bbox', 'width', 'height', 'tolerance'] || true
+        ['datetime', 'variables', 'tile', 'lang', 'limit']                || true
+        ['datetime', 'coordsRef']                                         || true
+        ['datetime', 'coords', 'filter']                                  || false
+        ['datetime', 'bbox', 'filter-lang']                               || false
+        ['datetime', 'coords', 'station']                                 || false
+    }
+
+    def 'the cache signature only has the parameters that restrict the features apart from the time and the variables'() {
+
+        when: "the signatures of requests of the same features with different parameters of the processes are determined"
+
+        def signatures = [[datetime: '2020-01-01/2020-01-31', variables: 'A,B', bbox: '6,47,14,54', width: '200', tolerance: '0.1'],
+                          [datetime: '2020-02-01/2020-02-28', variables: 'C', bbox: '6.0,47.0,14.0,54.0', height: '100', f: 'json'],
+                          [bbox: ' 6, 47, 14, 54', functions: 'mean', lang: 'de', limit: '10']]
+                .collect { FeatureQueryParameters.getCacheSignature('grid', it) }
+
+        then: 'the signatures are the same'
+
+        signatures.every { it == Optional.of('grid?bbox=6.0,47.0,14.0,54.0') }
+    }
+
+    @Unroll
+    def 'the requests #first and #second do not share the cache'() {
+
+        when: "the signatures of requests of different features are determined"
+
+        def firstSignature = FeatureQueryParameters.getCacheSignature(firstProcess, first)
+        def secondSignature = FeatureQueryParameters.getCacheSignature(secondProcess, second)
+
+        then: 'the signatures differ'
+
+        firstSignature.isPresent()
+        secondSignature.isPresent()
+        firstSignature != secondSignature
+
+        where:
+
+        firstProcess | first                                  | secondProcess | second
+        'grid'       | [bbox: '6,47,14,54']                   | 'grid'        | [bbox: '6,47,14,55']
+        'grid'       | [bbox: '6,47,14,54']                   | 'area'        | [bbox: '6,47,14,54']
+        'position'   | [coords: 'POINT(7 50)']                | 'position'    | [coords: 'POINT(7 51)']
+        'area'       | [coordsRef: 'a']                       | 'area'        | [coordsRef: 'b']
+        'area'       | [coords: 'POLYGON((0 0,1 0,1 1,0 0))'] | 'area'        | [coords: 'POLYGON((0 0,1 0,1 1,0 0))', filter: 'x=1']
+    }
+
+    def 'a request with a parameter that is not known is not cached'() {
+
+        when: "the signature of a request with a queryable is determined"
+
+        def signature = FeatureQueryParameters.getCacheSignature('area', [bbox: '6,47,14,54', station: 'S1'])
+
+        then: 'there is no signature'
+
+        !signature.isPresent()
+    }
+
+    @Unroll
+    def 'the feature query of the days from #firstDay to #lastDay with a buffer of #bufferDays days covers the whole last day'() {
+
+        when: "the datetime parameter is determined and the buffer is added, like the datetime parameter does"
+
+        def interval = FeatureQueryParameters.getFetchDatetime(firstDay, lastDay, bufferDays).split('/').collect { LocalDate.parse(it) }
+        def begin = interval[0].minusDays(bufferDays)
+        def end = interval[1].plusDays(bufferDays)
+
+        then: 'the query starts at the first day and ends at the start of the day after the last day'
+
+        begin == firstDay
+        end == lastDay.plusDays(1)
+
+        where:
+
+        firstDay                  | lastDay                  | bufferDays
+        LocalDate.of(2020, 1, 1)  | LocalDate.of(2020, 1, 1) | 0
+        LocalDate.of(2020, 1, 1)  | LocalDate.of(2020, 1, 9) | 2
+        LocalDate.of(2020, 2, 27) | LocalDate.of(2020, 3, 3) | 1
+    }
+}
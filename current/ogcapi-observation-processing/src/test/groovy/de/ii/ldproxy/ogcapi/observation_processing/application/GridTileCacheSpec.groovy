@@ -0,0 +1,107 @@
+/*
+ * Copyright 2021 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.observation_processing.application
+
+import de.ii.ldproxy.ogcapi.observation_processing.api.GridTileCache
+import de.ii.ldproxy.ogcapi.observation_processing.data.DataArrayXyt
+import de.ii.ldproxy.ogcapi.observation_processing.data.InterpolationStencils
+import de.ii.ldproxy.ogcapi.observation_processing.data.Observations
+import de.ii.ldproxy.ogcapi.observation_processing.data.RasterBufferPool
+import de.ii.ldproxy.ogcapi.observation_processing.data.SpatialIndex
+import de.ii.ldproxy.ogcapi.observation_processing.data.TemporalIntervalLocalDate
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.time.LocalDate
+
+/**
+ * Checks the keys of the grids of tiles and the hits and the size limit of the tile cache of a collection.
+ */
+class GridTileCacheSpec extends Specification {
+
+    static final LocalDate BEGIN = LocalDate.of(2020, 1, 1)
+    static final Map REQUEST = [tile: 'WebMercatorQuad/6/21/33', variables: ['A', 'B'], interval: new TemporalIntervalLocalDate(BEGIN, BEGIN.plusDays(3), 1),
+                                fingerprint: 0x1234L, idwCount: 8, idwDistanceKm: 300.0d, idwPower: 2.0d, tolerance: 0.0d,
+                                indexType: SpatialIndex.Type.AUTO, indexErrorBound: 0.0d]
+
+    def 'the same tile of the same request has the same key'() {
+
+        expect:
+
+        key(REQUEST) == key(new LinkedHashMap(REQUEST))
+    }
+
+    @Unroll
+    def 'a tile with another #parameter has another key'() {
+
+        expect:
+
+        key(REQUEST + [(parameter): value]) != key(REQUEST)
+
+        where:
+
+        parameter         | value
+        'tile'            | 'WebMercatorQuad/6/21/34'
+        'variables'       | ['A']
+        'interval'        | new TemporalIntervalLocalDate(BEGIN, BEGIN.plusDays(4), 1)
+        'interval'        | new TemporalIntervalLocalDate(BEGIN.minusDays(1), BEGIN.plusDays(3), 1)
+        'fingerprint'     | 0x1235L
+        'idwCount'        | 4
+        'idwDistanceKm'   | 100.0d
+        'idwPower'        | 3.0d
+        'tolerance'       | 0.1d
+        'indexType'       | SpatialIndex.Type.APPROXIMATE
+        'indexErrorBound' | 0.25d
+    }
+
+    def 'a cached tile is returned for its key, until tiles with more values than the maximum have been added'() {
+
+        given: "a cache for three tiles and the grids of tiles"
+
+        def tiles = (0..<10).collect { grid() }
+        long tileWeight = weight(tiles[0])
+        def cache = new GridTileCacheImpl.CollectionCache((int) (3 * tileWeight), 60)
+
+        when: "a tile is added and looked up, and then further tiles are added"
+
+        cache.tiles.put('tile 0', tiles[0])
+        def hit = cache.tiles.getIfPresent('tile 0')
+        def miss = cache.tiles.getIfPresent('tile 1')
+        (1..<10).each { cache.tiles.put("tile ${it}".toString(), tiles[it]) }
+
+        then: 'the lookup returns the cached tile, the cache never has more values than the maximum and keeps the last tiles'
+
+        hit.is(tiles[0])
+        miss == null
+        cache.tiles.asMap().values().sum { weight(it) } <= 3 * tileWeight
+        cache.tiles.asMap().keySet() == ['tile 7', 'tile 8', 'tile 9'].toSet()
+        cache.tiles.getIfPresent('tile 9').is(tiles[9])
+    }
+
+    static String key(Map request) {
+        GridTileCache.getKey(request.tile, request.variables, request.interval, request.fingerprint, request.idwCount, request.idwDistanceKm,
+                request.idwPower, request.tolerance, request.indexType, request.indexErrorBound)
+    }
+
+    // the grid of a tile of observations at two stations on two days
+    static DataArrayXyt grid() {
+        def observations = new Observations()
+        int var = observations.getOrAddVariable('A')
+        [[7.0d, 50.0d], [9.0d, 52.0d]].eachWithIndex { position, s ->
+            (0..<2).each { d -> observations.addValue(null, position[0], position[1], BEGIN.plusDays(d), var, (float) (s + d), "S${s}".toString(), "Station ${s}".toString()) }
+        }
+        return observations.resampleToGrid([6, 49, 10, 53] as double[], Optional.empty(), new TemporalIntervalLocalDate(BEGIN, BEGIN.plusDays(1), 1),
+                OptionalInt.of(8), OptionalInt.of(8), OptionalInt.empty(), 8, 300.0, 2.0, SpatialIndex.Type.AUTO, 0.0, 0.0, InterpolationStencils.NONE,
+                RasterBufferPool.NONE)
+    }
+
+    // the weight of a tile in the cache
+    static long weight(DataArrayXyt tile) {
+        tile.getWidth() * tile.getHeight() * tile.getSteps() * tile.getVars().size() + 1
+    }
+}
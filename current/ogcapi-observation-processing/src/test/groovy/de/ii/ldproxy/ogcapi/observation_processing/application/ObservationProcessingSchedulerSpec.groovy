@@ -0,0 +1,122 @@
+/*
+ * Copyright 2021 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.observation_processing.application
+
+import de.ii.ldproxy.ogcapi.observation_processing.api.ObservationProcessingScheduler.Priority
+import spock.lang.Specification
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+/**
+ * Checks the admission of the jobs of an API by priority and the release of their slots.
+ */
+class ObservationProcessingSchedulerSpec extends Specification {
+
+    ObservationProcessingSchedulerImpl.ApiScheduler scheduler
+
+    def setup() {
+        scheduler = new ObservationProcessingSchedulerImpl.ApiScheduler('api', 2, 1)
+    }
+
+    def cleanup() {
+        scheduler.pool.shutdownNow()
+    }
+
+    def 'the slot of a job is released when the job has stopped, not when its caller is interrupted'() {
+
+        given: "a running job that finishes only when it is told to, and a caller that waits for it"
+
+        def started = new CountDownLatch(1)
+        def finish = new CountDownLatch(1)
+        def interrupted = false
+        def first = caller(Priority.GRID) {
+            started.countDown()
+            while (true) {
+                try {
+                    finish.await()
+                    break
+                } catch (InterruptedException ignored) {
+                    interrupted = true
+                }
+            }
+            return 'first'
+        }
+        started.await(5, TimeUnit.SECONDS)
+
+        when: "the caller is interrupted and another job is submitted"
+
+        first.thread.interrupt()
+        first.thread.join(5000)
+        def secondStarted = new CountDownLatch(1)
+        def second = caller(Priority.POSITION) { secondStarted.countDown(); 'second' }
+        def admittedEarly = secondStarted.await(200, TimeUnit.MILLISECONDS)
+        finish.countDown()
+        def admitted = secondStarted.await(5, TimeUnit.SECONDS)
+        second.thread.join(5000)
+
+        then: 'the first job has been cancelled, the second job has only been admitted after the first job has stopped'
+
+        first.error instanceof IllegalStateException
+        interrupted
+        !admittedEarly
+        admitted
+        second.result == 'second'
+        scheduler.running == 0
+        scheduler.registered == 0
+    }
+
+    def 'waiting jobs are admitted by priority, jobs of the same priority in the order of arrival'() {
+
+        given: "a running job that occupies the only slot"
+
+        def started = new CountDownLatch(1)
+        def finish = new CountDownLatch(1)
+        def first = caller(Priority.GRID) { started.countDown(); finish.await(); 'first' }
+        started.await(5, TimeUnit.SECONDS)
+
+        when: "jobs of all priorities arrive while the slot is occupied, and the running job finishes"
+
+        def admitted = Collections.synchronizedList([])
+        def callers = [[Priority.GRID, 'grid 1'], [Priority.AREA, 'area 1'], [Priority.POSITION, 'position 1'], [Priority.GRID, 'grid 2'], [Priority.POSITION, 'position 2']].withIndex().collect { job, i ->
+            def call = caller(job[0]) { admitted << job[1]; job[1] }
+            waitUntil { synchronized (scheduler) { scheduler.waiting.size() == i + 1 } }
+            return call
+        }
+        finish.countDown()
+        ([first] + callers).each { it.thread.join(5000) }
+
+        then: 'the jobs have been admitted one at a time by priority and arrival'
+
+        admitted == ['position 1', 'position 2', 'area 1', 'grid 1', 'grid 2']
+        callers.every { it.error == null }
+        scheduler.running == 0
+        scheduler.registered == 0
+    }
+
+    // wait until a condition is met, at most five seconds
+    static void waitUntil(Closure<Boolean> condition) {
+        long end = System.currentTimeMillis() + 5000
+        while (!condition() && System.currentTimeMillis() < end)
+            Thread.sleep(5)
+    }
+
+    // a caller that registers and executes a job in its own thread
+    Map caller(Priority priority, Closure job) {
+        def call = [:]
+        scheduler.register()
+        call.thread = Thread.start {
+            try {
+                call.result = scheduler.execute(priority, job)
+            } catch (Exception e) {
+                call.error = e
+            }
+        }
+        return call
+    }
+}
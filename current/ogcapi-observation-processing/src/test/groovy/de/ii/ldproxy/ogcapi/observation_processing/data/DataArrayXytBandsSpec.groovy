@@ -0,0 +1,115 @@
+/*
+ * Copyright 2021 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.observation_processing.data
+
+import spock.lang.Specification
+
+import static de.ii.ldproxy.ogcapi.observation_processing.data.ObservationsInterpolationSpec.BBOX
+import static de.ii.ldproxy.ogcapi.observation_processing.data.ObservationsInterpolationSpec.BEGIN
+import static de.ii.ldproxy.ogcapi.observation_processing.data.ObservationsInterpolationSpec.DAYS
+import static de.ii.ldproxy.ogcapi.observation_processing.data.ObservationsInterpolationSpec.K
+import static de.ii.ldproxy.ogcapi.observation_processing.data.ObservationsInterpolationSpec.POWER
+import static de.ii.ldproxy.ogcapi.observation_processing.data.ObservationsInterpolationSpec.VARIABLES
+import static de.ii.ldproxy.ogcapi.observation_processing.data.ObservationsInterpolationSpec.observations
+
+/**
+ * Compares the bands of a grid that is resampled one time step at a time with the grid that is resampled as a whole.
+ */
+class DataArrayXytBandsSpec extends Specification {
+
+    static final int WIDTH = 16
+    static final int HEIGHT = 14
+
+    def 'the bands of a grid are the time steps of the whole grid'() {
+
+        given: "the observations of stations that report daily"
+
+        def rows = ObservationsInterpolationSpec.rows(new Random(1), 40)
+
+        when: "the observations are resampled to a grid as a whole and band by band"
+
+        def whole = bands(observations(rows), WIDTH, HEIGHT, RasterBufferPool.NONE).toDataArray()
+        def bands = bands(observations(rows), WIDTH, HEIGHT, RasterBufferPool.NONE).collect()
+
+        then: 'each band has a single time step with the time and the cells of the time step of the whole grid'
+
+        bands.size() == DAYS
+        bands.every { it.getSteps() == 1 && it.getVars().toSet() == whole.getVars().toSet() }
+        bands.withIndex().every { band, step -> band.time(0) == whole.time(step) }
+        bands.withIndex().collectMany { band, step -> compare(band, 0, whole, step) } == []
+    }
+
+    def 'after some bands the remaining time steps are resampled in a single array'() {
+
+        given: "a grid of the observations of stations that report daily"
+
+        def rows = ObservationsInterpolationSpec.rows(new Random(2), 40)
+        def whole = bands(observations(rows), WIDTH, HEIGHT, RasterBufferPool.NONE).toDataArray()
+        def grid = bands(observations(rows), WIDTH, HEIGHT, RasterBufferPool.NONE)
+
+        when: "the first band is requested and then the remaining time steps"
+
+        def first = grid.next()
+        def remaining = grid.toDataArray()
+        grid.next()
+
+        then: 'the remaining array has the other time steps of the whole grid, no further band is available'
+
+        thrown(NoSuchElementException)
+        !grid.hasNext()
+        remaining.getSteps() == DAYS - 1
+        remaining.time(0) == whole.time(1)
+        compare(first, 0, whole, 0) == []
+        (1..<DAYS).collectMany { step -> compare(remaining, step - 1, whole, step) } == []
+    }
+
+    def 'a consumer that releases each band only needs the planes of one band'() {
+
+        given: "a grid with planes that are large enough to be pooled"
+
+        def rows = ObservationsInterpolationSpec.rows(new Random(3), 40)
+        def pool = new RasterBufferPool(Long.MAX_VALUE)
+        def grid = bands(observations(rows), 64, 64, pool)
+
+        when: "each band is released before the next band is requested"
+
+        def planes = []
+        while (grid.hasNext()) {
+            def band = grid.next()
+            planes.addAll(VARIABLES.indices.collect { band.getPlane(0, it) })
+            band.release()
+        }
+
+        then: 'all bands have used the planes of the first band'
+
+        planes.size() == DAYS * VARIABLES.size()
+        planes.collect { System.identityHashCode(it) }.toSet().size() == VARIABLES.size()
+    }
+
+    static DataArrayXytBands bands(Observations observations, int width, int height, RasterBufferPool buffers) {
+        def interval = new TemporalIntervalLocalDate(BEGIN, BEGIN.plusDays(DAYS - 1), 1)
+        return observations.resampleToGridBands(BBOX, Optional.empty(), interval, OptionalInt.of(width), OptionalInt.of(height), OptionalInt.empty(),
+                K, 300.0, POWER, SpatialIndex.Type.AUTO, 0.0, 0.0, InterpolationStencils.NONE, buffers)
+    }
+
+    /**
+     * @return the cells of a time step, which differ from the cells of a time step of the expected grid
+     */
+    static List<String> compare(DataArrayXyt grid, int step, DataArrayXyt expected, int expectedStep) {
+        def failures = []
+        for (int row = 0; row < grid.getHeight(); row++)
+            for (int column = 0; column < grid.getWidth(); column++)
+                VARIABLES.each { variable ->
+                    float value = grid.get(step, row, column, grid.getVars().indexOf(variable))
+                    float expectedValue = expected.get(expectedStep, row, column, expected.getVars().indexOf(variable))
+                    if (Float.floatToIntBits(value) != Float.floatToIntBits(expectedValue))
+                        failures << "${variable} at step ${expectedStep}, row ${row}, column ${column}: ${value} instead of ${expectedValue}".toString()
+                }
+        return failures
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2021 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.observation_processing.data
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+/**
+ * Checks the cells and planes of the flat grids with a distinct value in each cell.
+ */
+class DataArrayXytSpec extends Specification {
+
+    static final Vector<String> VARS = new Vector<>(['A', 'B', 'C'])
+
+    @Unroll
+    def 'each cell of a grid with #width columns, #height rows and #steps steps is stored once, a plane is a time step and variable in row-major order'() {
+
+        given: "a grid"
+
+        def grid = new DataArrayXyt(width, height, steps, VARS, 6, 47, 0, 14, 54, steps, RasterBufferPool.NONE)
+
+        when: "each cell is set to a distinct value"
+
+        for (int step = 0; step < steps; step++)
+            for (int row = 0; row < height; row++)
+                for (int column = 0; column < width; column++)
+                    for (int var = 0; var < VARS.size(); var++)
+                        grid.set(step, row, column, var, value(step, row, column, var))
+
+        then: 'each cell has its value, the planes have the values of their time step and variable in row-major order'
+
+        def failures = []
+        for (int step = 0; step < steps; step++)
+            for (int var = 0; var < VARS.size(); var++) {
+                float[] plane = grid.getPlane(step, var)
+                if (plane.length != width * height)
+                    failures << "plane ${step}/${var}: ${plane.length} values".toString()
+                for (int row = 0; row < height; row++)
+                    for (int column = 0; column < width; column++)
+                        if (grid.get(step, row, column, var) != value(step, row, column, var) || plane[row * width + column] != value(step, row, column, var))
+                            failures << "step ${step}, row ${row}, column ${column}, variable ${var}".toString()
+            }
+        failures == []
+
+        where:
+
+        width | height | steps
+        1     | 1      | 1
+        7     | 3      | 2
+        3     | 7      | 4
+    }
+
+    @Unroll
+    def 'each cell of a grid with #width columns and #height rows is stored once, a plane is a variable in row-major order'() {
+
+        given: "a grid without a time axis"
+
+        def grid = new DataArrayXy(width, height, VARS, 6, 47, 14, 54, null)
+
+        when: "each cell is set to a distinct value"
+
+        for (int row = 0; row < height; row++)
+            for (int column = 0; column < width; column++)
+                for (int var = 0; var < VARS.size(); var++)
+                    grid.set(row, column, var, value(0, row, column, var))
+
+        then: 'each cell has its value, the planes have the values of their variable in row-major order'
+
+        def failures = []
+        for (int var = 0; var < VARS.size(); var++) {
+            float[] plane = grid.getPlane(var)
+            if (plane.length != width * height)
+                failures << "plane ${var}: ${plane.length} values".toString()
+            for (int row = 0; row < height; row++)
+                for (int column = 0; column < width; column++)
+                    if (grid.get(row, column, var) != value(0, row, column, var) || plane[row * width + column] != value(0, row, column, var))
+                        failures << "row ${row}, column ${column}, variable ${var}".toString()
+        }
+        failures == []
+
+        where:
+
+        width | height
+        1     | 1
+        7     | 3
+        3     | 7
+    }
+
+    // a distinct value per cell
+    static float value(int step, int row, int column, int var) {
+        1000 * step + 100 * row + 10 * column + var
+    }
+}
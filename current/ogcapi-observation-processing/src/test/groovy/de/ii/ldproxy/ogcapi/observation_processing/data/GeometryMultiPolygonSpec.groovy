@@ -0,0 +1,129 @@
+/*
+ * Copyright 2021 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.observation_processing.data
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import static de.ii.ldproxy.ogcapi.observation_processing.data.ObservationsInterpolationSpec.BBOX
+import static de.ii.ldproxy.ogcapi.observation_processing.data.ObservationsInterpolationSpec.BEGIN
+import static de.ii.ldproxy.ogcapi.observation_processing.data.ObservationsInterpolationSpec.DAYS
+import static de.ii.ldproxy.ogcapi.observation_processing.data.ObservationsInterpolationSpec.K
+import static de.ii.ldproxy.ogcapi.observation_processing.data.ObservationsInterpolationSpec.POWER
+import static de.ii.ldproxy.ogcapi.observation_processing.data.ObservationsInterpolationSpec.VARIABLES
+import static de.ii.ldproxy.ogcapi.observation_processing.data.ObservationsInterpolationSpec.observations
+
+/**
+ * Compares the rasterized mask of a multi-polygon with a point-in-polygon test of each cell centre.
+ */
+class GeometryMultiPolygonSpec extends Specification {
+
+    static final int WIDTH = 40
+    static final int HEIGHT = 35
+    static final Map<String, List> SHAPES = [
+            square : [[square(7, 48, 12, 53)]],
+            concave: [[[[7d, 48d], [13d, 48d], [13d, 50d], [9d, 50d], [9d, 53d], [7d, 53d], [7d, 48d]]]],
+            hole   : [[square(7, 48, 13, 53), square(9, 49.5, 11, 51.5)]],
+            two    : [[square(6.5, 47.5, 9, 50)], [square(10, 51, 13.5, 53.5)]],
+            centres: [[square(6.25, 47.25, 11.25, 52.25)]],
+            star   : [[star(new Random(1), 10, 50.5, 3.5, 40)]]
+    ]
+
+    @Unroll
+    def 'the cells of a #width x #height grid inside the #shape polygon are the cells with a centre inside the polygon'() {
+
+        given: "a multi-polygon and the boundaries of the columns and rows of a grid"
+
+        def polygon = new GeometryMultiPolygon(SHAPES[shape])
+        double diffLon = (BBOX[2] - BBOX[0]) / width
+        double diffLat = (BBOX[3] - BBOX[1]) / height
+        double[] lons = (0..<width).collect { BBOX[0] + it * diffLon } as double[]
+        double[] lats = (0..<height).collect { BBOX[3] - it * diffLat } as double[]
+
+        when: "the polygon is rasterized"
+
+        def cells = polygon.rasterize(lons, lats, diffLon, diffLat)
+
+        then: 'each cell is set, if and only if its centre is inside the polygon'
+
+        def failures = []
+        for (int row = 0; row < height; row++)
+            for (int column = 0; column < width; column++)
+                if (cells.get(row * width + column) != polygon.contains(lons[column] + diffLon / 2, lats[row] - diffLat / 2))
+                    failures << "row ${row}, column ${column}".toString()
+        failures == []
+        cells.length() <= width * height
+        cells.cardinality() > 0
+
+        where:
+
+        [shape, width, height] << [SHAPES.keySet(), [[16, 14], [37, 23], [5, 61]]].combinations().collect { [it[0], it[1][0], it[1][1]] }
+    }
+
+    @Unroll
+    def 'a grid that is resampled with the #shape mask and a tolerance of #tolerance has the cells of the grid without mask inside the mask and NaN outside'() {
+
+        given: "the observations of stations that report daily and a mask"
+
+        def rows = ObservationsInterpolationSpec.rows(new Random(1), 40)
+        def mask = new GeometryMultiPolygon(SHAPES[shape])
+
+        when: "the observations are resampled to a grid with and without the mask"
+
+        def masked = grid(observations(rows), Optional.of(mask), tolerance)
+        def all = grid(observations(rows), Optional.empty(), tolerance)
+
+        then: 'the cells with a centre inside the mask are the cells without mask, the other cells are NaN'
+
+        def failures = []
+        double diffLon = (BBOX[2] - BBOX[0]) / WIDTH
+        double diffLat = (BBOX[3] - BBOX[1]) / HEIGHT
+        for (int step = 0; step < DAYS; step++)
+            for (int row = 0; row < HEIGHT; row++)
+                for (int column = 0; column < WIDTH; column++) {
+                    boolean inside = mask.contains(BBOX[0] + (column + 0.5) * diffLon, BBOX[3] - (row + 0.5) * diffLat)
+                    VARIABLES.each { variable ->
+                        float value = masked.get(step, row, column, masked.getVars().indexOf(variable))
+                        float expectedValue = inside ? all.get(step, row, column, all.getVars().indexOf(variable)) : Float.NaN
+                        if (!ObservationsInterpolationSpec.close(value, expectedValue))
+                            failures << "${variable} at step ${step}, row ${row}, column ${column}: ${value} instead of ${expectedValue}".toString()
+                    }
+                }
+        failures == []
+
+        where:
+
+        shape     | tolerance
+        'concave' | 0.0
+        'hole'    | 0.0
+        'two'     | 0.0
+        'concave' | 0.05
+        'hole'    | 0.05
+    }
+
+    static DataArrayXyt grid(Observations observations, Optional<GeometryMultiPolygon> mask, double tolerance) {
+        def interval = new TemporalIntervalLocalDate(BEGIN, BEGIN.plusDays(DAYS - 1), 1)
+        return observations.resampleToGrid(BBOX, mask, interval, OptionalInt.of(WIDTH), OptionalInt.of(HEIGHT), OptionalInt.empty(),
+                K, 300.0, POWER, SpatialIndex.Type.AUTO, 0.0, tolerance, InterpolationStencils.NONE, RasterBufferPool.NONE)
+    }
+
+    // a closed ring with the corners of a rectangle
+    static List<List<Double>> square(double minLon, double minLat, double maxLon, double maxLat) {
+        [[minLon, minLat], [maxLon, minLat], [maxLon, maxLat], [minLon, maxLat], [minLon, minLat]]
+    }
+
+    // a closed ring around a centre with random radii, it is not convex
+    static List<List<Double>> star(Random random, double lon, double lat, double radius, int vertices) {
+        def ring = (0..<vertices).collect {
+            double angle = 2 * Math.PI * it / vertices
+            double r = radius * (0.3 + 0.7 * random.nextDouble())
+            [lon + r * Math.cos(angle), lat + r * Math.sin(angle)]
+        }
+        return ring + [ring[0]]
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2021 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.observation_processing.data
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+/**
+ * Compares the inverse distance weighting of the batched kernel with the formula evaluated for each target.
+ */
+class IdwKernelSpec extends Specification {
+
+    static final int STRIDE = 8
+
+    @Unroll
+    def 'the weights with power #power are the inverse distances to the power'() {
+
+        given: "distances between 0.1 and 300 km"
+
+        def random = new Random(1)
+        float[] distances = (0..<100).collect { (float) (0.1 + 300 * random.nextDouble()) } as float[]
+        float[] weights = new float[distances.length]
+
+        when: "the weights are computed"
+
+        new IdwKernel(power).weights(distances, weights, distances.length)
+
+        then: 'each weight is the distance to the negative power'
+
+        (0..<distances.length).findAll { Math.abs(weights[it] - Math.pow(distances[it], -power)) > 1e-5 * Math.pow(distances[it], -power) } == []
+
+        where:
+
+        power << [1.0, 2.0, 3.0, 1.5, 0.5]
+    }
+
+    @Unroll
+    def 'the interpolation of a batch of targets with power #power is the inverse distance weighting of each target'() {
+
+        given: "targets with up to eight neighbours, some without neighbours, and other entries in the unused slots of a target"
+
+        def random = new Random(2)
+        int targets = 50
+        int[] counts = (0..<targets).collect { it % 10 == 0 ? 0 : 1 + random.nextInt(STRIDE) } as int[]
+        float[] distances = (0..<targets * STRIDE).collect { (float) (0.1 + 300 * random.nextDouble()) } as float[]
+        float[] values = (0..<targets * STRIDE).collect { (float) (10 * random.nextGaussian()) } as float[]
+        for (int target = 0; target < targets; target++)
+            for (int i = target * STRIDE + counts[target]; i < (target + 1) * STRIDE; i++) {
+                distances[i] = 0f
+                values[i] = Float.NaN
+            }
+        float[] results = new float[targets]
+
+        when: "the batch is interpolated"
+
+        new IdwKernel(power).interpolate(distances, values, counts, STRIDE, targets, new float[targets * STRIDE], results)
+
+        then: 'each result is the weighted mean of the values of the neighbours of the target, NaN without neighbours'
+
+        def failures = (0..<targets).findAll { target ->
+            def neighbours = (target * STRIDE..<target * STRIDE + counts[target])
+            double expected = neighbours.sum(0d) { Math.pow(distances[it], -power) * values[it] } / neighbours.sum(0d) { Math.pow(distances[it], -power) }
+            !close(results[target], expected)
+        }
+        failures == []
+
+        where:
+
+        power << [1.0, 2.0, 3.0, 2.5]
+    }
+
+    static boolean close(float value, double expected) {
+        Double.isNaN(expected) ? Float.isNaN(value) : Math.abs(value - expected) <= 1e-4 * Math.max(1e-3, Math.abs(expected))
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2021 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.observation_processing.data
+
+import groovy.transform.CompileStatic
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.lang.management.ManagementFactory
+
+/**
+ * Compares the neighbour heap with sorting all candidates and checks that the neighbour search does not allocate.
+ */
+class NeighbourHeapSpec extends Specification {
+
+    @Unroll
+    def 'the heap keeps the #k closest of #count candidates in ascending order'() {
+
+        given: "candidates at random distances, some at the same distance"
+
+        def random = new Random(count)
+        def candidates = (0..<count).collect { [(float) random.nextInt(count), it] }
+        def heap = new NeighbourHeap()
+        heap.reset(k)
+
+        when: "all candidates are offered and the heap is drained"
+
+        candidates.each { heap.offer(it[0], it[1]) }
+        int[] indices = new int[k]
+        float[] distances = new float[k]
+        int found = heap.drainTo(indices, distances)
+
+        then: 'the heap has the k closest candidates ordered by distance'
+
+        found == Math.min(k, count)
+        (0..<found).collect { distances[it] } == candidates.collect { it[0] }.sort().take(k)
+        (0..<found).every { candidates[indices[it]][0] == distances[it] }
+        (indices as List).take(found).toSet().size() == found
+
+        where:
+
+        k  | count
+        1  | 50
+        8  | 50
+        8  | 5
+        32 | 1000
+    }
+
+    def 'a heap that is reused for queries with different k finds the neighbours of a new heap'() {
+
+        given: "a heap that is reused and the candidates of several queries"
+
+        def random = new Random(1)
+        def reused = new NeighbourHeap()
+
+        when: "the queries with increasing and decreasing k are run with the reused heap and with a new heap"
+
+        def failures = [4, 16, 2, 8, 1, 24].collectMany { k ->
+            def candidates = (0..<100).collect { random.nextFloat() }
+            def fresh = new NeighbourHeap()
+            [reused, fresh].each { heap ->
+                heap.reset(k)
+                candidates.eachWithIndex { distance, i -> heap.offer(distance, i) }
+            }
+            def result = [reused, fresh].collect { heap ->
+                int[] indices = new int[k]
+                float[] distances = new float[k]
+                int found = heap.drainTo(indices, distances)
+                [(indices as List).take(found), (distances as List).take(found)]
+            }
+            result[0] == result[1] ? [] : ["k = ${k}: ${result[0]} instead of ${result[1]}".toString()]
+        }
+
+        then: 'the neighbours are the same'
+
+        failures == []
+    }
+
+    def 'the neighbour search of the k-d tree does not allocate memory per query'() {
+
+        given: "a tree of observations and the arrays of the results"
+
+        def cells = SpatialIndexSpec.observations(new Random(2), 200, 6, 300)
+        def tree = new KdTree(cells, 0, cells[0].length)
+        def threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()
+
+        when: "many queries are run after a warm-up"
+
+        search(tree, 20_000)
+        long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId())
+        search(tree, 100_000)
+        long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before
+
+        then: 'the queries have allocated less than a byte per query'
+
+        allocated < 100_000
+    }
+
+    // queries at positions and times on a regular pattern, with the same result arrays
+    @CompileStatic
+    static int search(KdTree tree, int queries) {
+        int[] indices = new int[SpatialIndexSpec.K]
+        float[] distances = new float[SpatialIndexSpec.K]
+        int found = 0
+        for (int i = 0; i < queries; i++)
+            found += tree.nearestNeighbours((float) (10 + (i % 100) / 10f), (float) (50 + (i % 97) / 10f), (float) (i % 6), SpatialIndexSpec.K, 150f, indices, distances)
+        return found
+    }
+}
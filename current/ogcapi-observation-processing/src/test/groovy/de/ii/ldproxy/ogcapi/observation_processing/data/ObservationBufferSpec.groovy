@@ -0,0 +1,81 @@
+/*
+ * Copyright 2021 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.observation_processing.data
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+/**
+ * Checks the growth of the chunks of the ingest buffer and compares the buffered rows with the added rows.
+ */
+class ObservationBufferSpec extends Specification {
+
+    @Unroll
+    def 'with #expectedCount expected rows the chunks of #rows rows start at #first rows and double up to the maximum chunk size'() {
+
+        given: "a buffer without a memory limit"
+
+        def buffer = new ObservationBuffer(expectedCount, 0)
+
+        when: "rows are added"
+
+        for (int i = 0; i < rows; i++)
+            buffer.add(i, i, i, i, 0, -1)
+        def capacities = (0..<buffer.getChunkCount()).collect { buffer.getChunk(it).cells[0].length }
+        def sizes = (0..<buffer.getChunkCount()).collect { buffer.getChunkSize(it) }
+
+        then: 'the first chunk is sized from the expected rows, every further chunk doubles the capacity, only the last chunk is not full'
+
+        capacities[0] == first
+        (1..<capacities.size()).every { capacities[it] == Math.min(2 * capacities[it - 1], ObservationBuffer.MAX_CHUNK_SIZE) }
+        (0..<sizes.size() - 1).every { sizes[it] == capacities[it] }
+        sizes.last() > 0
+        sizes.sum() == rows
+        buffer.size() == rows
+
+        where:
+
+        expectedCount | rows    || first
+        0             | 100     || ObservationBuffer.MIN_CHUNK_SIZE
+        0             | 300_000 || ObservationBuffer.MIN_CHUNK_SIZE
+        5000          | 5000    || 5000
+        5000          | 300_000 || 5000
+        1_000_000     | 300_000 || ObservationBuffer.MAX_CHUNK_SIZE
+    }
+
+    def 'the buffered rows are the added rows in the order added, the rows of each variable and station are counted'() {
+
+        given: "a buffer and rows of random variables and stations, some without a station"
+
+        def buffer = new ObservationBuffer(0, 0)
+        def random = new Random(1)
+        def rows = (0..<20_000).collect { [random.nextFloat(), random.nextFloat(), random.nextFloat(), random.nextFloat(), random.nextInt(3), random.nextInt(40) - 1] }
+
+        when: "the rows are added"
+
+        rows.each { buffer.add(it[0], it[1], it[2], it[3], it[4], it[5]) }
+
+        then: 'the chunks have the rows in the order added and the counts of the rows of each variable and station'
+
+        chunkRows(buffer) == rows
+        (0..<4).every { var -> (-1..<40).every { station -> buffer.getCount(var, station) == rows.count { it[4] == var && it[5] == station } } }
+    }
+
+    // the rows of all chunks
+    static List<List> chunkRows(ObservationBuffer buffer) {
+        def rows = []
+        for (int c = 0; c < buffer.getChunkCount(); c++) {
+            def chunk = buffer.getChunk(c)
+            def cells = (0..<4).collect { chunk.getCells(it) }
+            def indices = (0..<2).collect { chunk.getIndices(it) }
+            for (int i = 0; i < chunk.size; i++)
+                rows << [cells[0].get(i), cells[1].get(i), cells[2].get(i), cells[3].get(i), indices[0].get(i), indices[1].get(i)]
+        }
+        return rows
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2021 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.observation_processing.data
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.time.LocalDate
+import java.time.OffsetDateTime
+import java.time.ZoneOffset
+
+import static de.ii.ldproxy.ogcapi.observation_processing.data.ObservationSnapshotSpec.selectedRows
+import static de.ii.ldproxy.ogcapi.observation_processing.data.ObservationSnapshotSpec.sorted
+import static de.ii.ldproxy.ogcapi.observation_processing.data.ObservationsInterpolationSpec.VARIABLES
+import static de.ii.ldproxy.ogcapi.observation_processing.data.ObservationsInterpolationSpec.observations
+
+/**
+ * Compares the observations assembled from the day chunks of the observation cache with the observations selected from
+ * the received rows.
+ */
+class ObservationChunkSpec extends Specification {
+
+    static final LocalDate BEGIN = ObservationsInterpolationSpec.BEGIN
+    static final int DAYS = 6
+
+    def 'the observations are split into a chunk per variable and day with the observations of the day'() {
+
+        given: "observations of stations and of positions without a station, the variable C only on the first days"
+
+        def rows = ObservationsInterpolationSpec.rows(new Random(1), 30, 10, DAYS).findAll { it.variable != 'C' || it.time < day(2) }
+
+        when: "the observations are split into the chunks of the days, without the first and the last day"
+
+        def chunks = ObservationChunk.split(observations(rows), BEGIN.plusDays(1), BEGIN.plusDays(DAYS - 2))
+
+        then: 'each variable has a chunk for each of the days, the chunk of a day without observations is empty'
+
+        chunks.keySet() == VARIABLES.toSet()
+        chunks.values().every { it.keySet() == (1..DAYS - 2).collect { BEGIN.plusDays(it) }.toSet() }
+        VARIABLES.every { variable ->
+            (1..DAYS - 2).every { d -> chunks[variable][BEGIN.plusDays(d)].size() == rows.count { it.variable == variable && it.time >= day(d) && it.time < day(d + 1) } }
+        }
+        chunks['C'][BEGIN.plusDays(DAYS - 2)].size() == 0
+    }
+
+    @Unroll
+    def 'the observations assembled from cached and fetched chunks are the observations from #from to #to'() {
+
+        given: "the chunks of the first days from an earlier request and the chunks of the other days from the current request"
+
+        def rows = ObservationsInterpolationSpec.rows(new Random(2), 30, 10, DAYS)
+        def cached = ObservationChunk.split(observations(rows), BEGIN.minusDays(1), BEGIN.plusDays(2))
+        def fetched = ObservationChunk.split(observations(rows.findAll { it.time >= day(3) }), BEGIN.plusDays(3), BEGIN.plusDays(DAYS - 1))
+
+        when: "the observations in the time window are added from the chunks of all days"
+
+        def assembled = new Observations()
+        [cached, fetched].each { chunks ->
+            chunks.each { variable, varChunks -> varChunks.values().each { it.addTo(assembled, variable, from, to) } }
+        }
+
+        then: 'the assembled observations are the observations in the time window, with their stations'
+
+        def expected = rows.findAll { it.time >= Observations.temporalToDouble(from) && it.time < end }
+        !expected.isEmpty()
+        selectedRows(assembled) == sorted(expected)
+
+        where:
+
+        from                                                       | to                                                        || end
+        BEGIN.minusDays(1)                                         | BEGIN.plusDays(DAYS - 1)                                  || day(DAYS)
+        BEGIN.plusDays(1)                                          | BEGIN.plusDays(4)                                         || day(5)
+        OffsetDateTime.of(2020, 1, 2, 12, 0, 0, 0, ZoneOffset.UTC) | OffsetDateTime.of(2020, 1, 5, 6, 0, 0, 0, ZoneOffset.UTC) || Math.nextUp((float) Observations.temporalToDouble(to))
+    }
+
+    // the time of the start of a day
+    static float day(int day) {
+        (float) Observations.temporalToDouble(BEGIN.plusDays(day))
+    }
+}
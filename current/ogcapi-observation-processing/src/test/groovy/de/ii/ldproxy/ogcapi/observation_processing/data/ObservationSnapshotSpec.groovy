@@ -0,0 +1,159 @@
+/*
+ * Copyright 2021 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.observation_processing.data
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.time.LocalDate
+import java.time.OffsetDateTime
+import java.time.ZoneOffset
+
+import static de.ii.ldproxy.ogcapi.observation_processing.data.ObservationsInterpolationSpec.VARIABLES
+import static de.ii.ldproxy.ogcapi.observation_processing.data.ObservationsInterpolationSpec.observations
+
+/**
+ * Compares the observations selected from a snapshot with the selection of the written observations.
+ */
+class ObservationSnapshotSpec extends Specification {
+
+    static final LocalDate BEGIN = ObservationsInterpolationSpec.BEGIN
+    static final int DAYS = 10
+
+    Path directory
+
+    def setup() {
+        directory = Files.createTempDirectory("snapshots")
+    }
+
+    def cleanup() {
+        directory.toFile().deleteDir()
+    }
+
+    def 'all observations are read back from a snapshot'() {
+
+        given: "observations of stations and observations without a station"
+
+        def rows = rows(new Random(1), 80)
+        def path = directory.resolve("observations.obs")
+
+        when: "the observations are written to a snapshot and all of them are selected"
+
+        ObservationSnapshot.write(observations(rows), path)
+        def snapshot = ObservationSnapshot.open(path)
+        def selected = snapshot.select(VARIABLES, BEGIN.minusDays(1), BEGIN.plusDays(DAYS - 1), null, null)
+
+        then: 'the selected observations are the written observations'
+
+        snapshot.size() == rows.size()
+        selectedRows(selected) == sorted(rows)
+    }
+
+    def 'the observations of variables, days and a bounding box are selected from a snapshot'() {
+
+        given: "observations of stations and observations without a station in a snapshot"
+
+        def rows = rows(new Random(2), 80)
+        def path = directory.resolve("observations.obs")
+        ObservationSnapshot.write(observations(rows), path)
+        def snapshot = ObservationSnapshot.open(path)
+        double[] bbox = [8, 48, 12, 52] as double[]
+
+        when: "some variables on some days in the bounding box are selected"
+
+        def selected = snapshot.select(['A', 'C'], BEGIN.plusDays(2), BEGIN.plusDays(5), bbox, null)
+
+        then: 'the selected observations are the written observations that match'
+
+        float min = (float) Observations.temporalToDouble(BEGIN.plusDays(2))
+        float max = (float) Observations.temporalToDouble(BEGIN.plusDays(6))
+        def expected = rows.findAll {
+            it.variable in ['A', 'C'] && it.time >= min && it.time < max && it.lon >= bbox[0] && it.lon <= bbox[2] && it.lat >= bbox[1] && it.lat <= bbox[3]
+        }
+        !expected.isEmpty()
+        selectedRows(selected) == sorted(expected)
+    }
+
+    def 'a snapshot that is open is not changed, when the snapshot is replaced'() {
+
+        given: "an open snapshot"
+
+        def first = rows(new Random(3), 40)
+        def second = rows(new Random(4), 60)
+        def path = directory.resolve("observations.obs")
+        ObservationSnapshot.write(observations(first), path)
+        def snapshot = ObservationSnapshot.open(path)
+
+        when: "other observations are written to the same file"
+
+        ObservationSnapshot.write(observations(second), path)
+        def replaced = ObservationSnapshot.open(path)
+
+        then: 'the open snapshot has the first observations, the snapshot that is opened again has the second observations'
+
+        selectedRows(snapshot.select(VARIABLES, BEGIN.minusDays(1), BEGIN.plusDays(DAYS - 1), null, null)) == sorted(first)
+        selectedRows(replaced.select(VARIABLES, BEGIN.minusDays(1), BEGIN.plusDays(DAYS - 1), null, null)) == sorted(second)
+    }
+
+    @Unroll
+    def 'a snapshot that is #description covers the time windows that end before its creation: #expected'() {
+
+        given: "a snapshot of observations that have been queried at noon"
+
+        def path = directory.resolve("observations.obs")
+        def created = OffsetDateTime.of(2020, 1, 10, 12, 0, 0, 0, ZoneOffset.UTC)
+        ObservationSnapshot.write(observations(rows(new Random(5), 4)), path, created.toInstant(), complete)
+
+        when: "the snapshot is opened"
+
+        def snapshot = ObservationSnapshot.open(path)
+
+        then: 'a time window is covered, if the snapshot is complete and the window ends before the snapshot has been queried'
+
+        snapshot.isComplete() == complete
+        snapshot.getCreated() == created.toInstant()
+        [LocalDate.of(2020, 1, 9), LocalDate.of(2020, 1, 10), created.minusHours(1), created, created.plusSeconds(1)].collect { snapshot.covers(it) } == expected
+
+        where:
+
+        description  | complete || expected
+        "complete"   | true     || [true, false, true, true, false]
+        "incomplete" | false    || [false, false, false, false, false]
+    }
+
+    // the observations of stations on each day and of positions without a station, from the evening before the first day to the last day
+    static List<Map> rows(Random random, int stations) {
+        ObservationsInterpolationSpec.rows(random, stations, stations.intdiv(4), DAYS)
+    }
+
+    // the rows of observations in a canonical order
+    static List<Map> selectedRows(Observations observations) {
+        observations.partition()
+        def rows = []
+        observations.index2variable.each { var, variable ->
+            def obsVar = observations.getObservations(var)
+            for (int row = obsVar.start; row < obsVar.start + obsVar.count; row++) {
+                int station = observations.stationIndex[row]
+                rows << [variable: variable,
+                         lon     : observations.cells[0][row],
+                         lat     : observations.cells[1][row],
+                         time    : observations.cells[2][row],
+                         value   : observations.cells[3][row],
+                         code    : station >= 0 ? observations.index2stationId.get(station) : null,
+                         name    : station >= 0 ? observations.index2stationName.get(station) : null]
+            }
+        }
+        return sorted(rows)
+    }
+
+    static List<Map> sorted(List<Map> rows) {
+        rows.sort(false) { a, b -> a.variable <=> b.variable ?: a.time <=> b.time ?: a.lon <=> b.lon ?: a.lat <=> b.lat ?: a.value <=> b.value }
+    }
+}
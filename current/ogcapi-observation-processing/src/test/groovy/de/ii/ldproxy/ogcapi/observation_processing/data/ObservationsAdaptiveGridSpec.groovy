@@ -0,0 +1,109 @@
+/*
+ * Copyright 2021 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.observation_processing.data
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.time.LocalDate
+
+import static de.ii.ldproxy.ogcapi.observation_processing.data.ObservationsInterpolationSpec.BBOX
+import static de.ii.ldproxy.ogcapi.observation_processing.data.ObservationsInterpolationSpec.VARIABLES
+
+/**
+ * Compares the adaptive resampling of a grid with the interpolation of all cells.
+ */
+class ObservationsAdaptiveGridSpec extends Specification {
+
+    static final LocalDate BEGIN = ObservationsInterpolationSpec.BEGIN
+    static final int DAYS = 2
+    static final int WIDTH = 40
+    static final int HEIGHT = 35
+
+    @Unroll
+    def 'with a tolerance of #tolerance the grid is the grid of the interpolation of all cells'() {
+
+        given: "the observations of stations that report daily"
+
+        def rows = ObservationsInterpolationSpec.rows(new Random(1), 10)
+
+        when: "the observations are resampled to a grid with and without the tolerance"
+
+        def exact = grid(ObservationsInterpolationSpec.observations(rows), 0.0)
+        def adaptive = grid(ObservationsInterpolationSpec.observations(rows), tolerance)
+        def failures = compare(adaptive, exact) { block, row, column -> true }
+
+        then: 'the cells are the same'
+
+        failures == []
+
+        where:
+
+        tolerance << [0.0, 1e-6]
+    }
+
+    def 'with a large tolerance only the blocks with a station and the corners of the blocks are interpolated'() {
+
+        given: "the observations of a few stations that report daily"
+
+        def rows = ObservationsInterpolationSpec.rows(new Random(2), 5)
+
+        when: "the observations are resampled to a grid with and without the tolerance"
+
+        def exact = grid(ObservationsInterpolationSpec.observations(rows), 0.0)
+        def adaptive = grid(ObservationsInterpolationSpec.observations(rows), 1e9)
+        def stations = stationBlocks(rows)
+        def interpolated = compare(adaptive, exact) { block, row, column -> stations.contains(block) || (row % Observations.GRID_BLOCK_SIZE == 0 && column % Observations.GRID_BLOCK_SIZE == 0) }
+        def filled = compare(adaptive, exact) { block, row, column -> !stations.contains(block) }
+
+        then: 'these cells are the same, the other cells are filled from the corners'
+
+        stations.size() > 0
+        interpolated == []
+        filled.size() > 0
+    }
+
+    static DataArrayXyt grid(Observations observations, double tolerance) {
+        def interval = new TemporalIntervalLocalDate(BEGIN, BEGIN.plusDays(DAYS - 1), 1)
+        return observations.resampleToGrid(BBOX, Optional.empty(), interval, OptionalInt.of(WIDTH), OptionalInt.of(HEIGHT), OptionalInt.empty(),
+                ObservationsInterpolationSpec.K, 300.0, ObservationsInterpolationSpec.POWER, SpatialIndex.Type.AUTO, 0.0, tolerance, InterpolationStencils.NONE,
+                RasterBufferPool.NONE)
+    }
+
+    // the blocks of grid cells with a station
+    static Set<Integer> stationBlocks(List<Map> rows) {
+        double diffLon = (BBOX[2] - BBOX[0]) / WIDTH
+        double diffLat = (BBOX[3] - BBOX[1]) / HEIGHT
+        rows.collect { block((int) Math.floor((BBOX[3] - it.lat) / diffLat), (int) Math.floor((it.lon - BBOX[0]) / diffLon)) }.toSet()
+    }
+
+    static int block(int row, int column) {
+        int columnBlocks = (WIDTH + Observations.GRID_BLOCK_SIZE - 1).intdiv(Observations.GRID_BLOCK_SIZE)
+        return row.intdiv(Observations.GRID_BLOCK_SIZE) * columnBlocks + column.intdiv(Observations.GRID_BLOCK_SIZE)
+    }
+
+    /**
+     * @return the selected cells, which differ between the grids
+     */
+    static List<String> compare(DataArrayXyt grid, DataArrayXyt expected, Closure<Boolean> selected) {
+        def failures = []
+        for (int step = 0; step < DAYS; step++)
+            for (int row = 0; row < HEIGHT; row++)
+                for (int column = 0; column < WIDTH; column++) {
+                    if (!selected(block(row, column), row, column))
+                        continue
+                    VARIABLES.each { variable ->
+                        float value = grid.get(step, row, column, grid.getVars().indexOf(variable))
+                        float expectedValue = expected.get(step, row, column, expected.getVars().indexOf(variable))
+                        if (!(Float.isNaN(expectedValue) ? Float.isNaN(value) : Math.abs(value - expectedValue) <= 1e-4 * Math.max(1.0, Math.abs(expectedValue))))
+                            failures << "${variable} at step ${step}, row ${row}, column ${column}: ${value} instead of ${expectedValue}".toString()
+                    }
+                }
+        return failures
+    }
+}
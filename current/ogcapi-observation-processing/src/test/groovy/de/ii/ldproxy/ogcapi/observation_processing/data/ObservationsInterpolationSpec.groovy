@@ -0,0 +1,323 @@
+/*
+ * Copyright 2021 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.observation_processing.data
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.time.LocalDate
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Compares the interpolation of the observations with the inverse distance weighting of each target on its own.
+ */
+class ObservationsInterpolationSpec extends Specification {
+
+    static final LocalDate BEGIN = LocalDate.of(2020, 1, 1)
+    static final int DAYS = 4
+    static final int K = 8
+    static final double POWER = 2
+    static final double[] BBOX = [6, 47, 14, 54] as double[]
+    static final int WIDTH = 16
+    static final int HEIGHT = 14
+
+    // the variables A and B have the same positions and times and share their stencils, C is only reported by some stations
+    static final List<String> VARIABLES = ['A', 'B', 'C']
+
+    @Unroll
+    def 'the grid is the inverse distance weighting of each cell within #maxDistance km without stencils'() {
+
+        given: "the observations of stations that report daily"
+
+        def rows = rows(new Random(1), 40)
+        def observations = observations(rows)
+
+        when: "the observations are resampled to a grid"
+
+        def grid = grid(observations, maxDistance, InterpolationStencils.NONE)
+        def failures = compareGrid(grid, rows, maxDistance)
+
+        then: 'each cell is the inverse distance weighting of its neighbours'
+
+        failures == []
+
+        where:
+
+        maxDistance << [300.0, 30.0]
+    }
+
+    @Unroll
+    def 'the grid is the inverse distance weighting of each cell within #maxDistance km with cached stencils'() {
+
+        given: "the observations of stations that report daily and a stencil cache"
+
+        def rows = rows(new Random(2), 40)
+        def stencils = new MapStencils()
+
+        when: "the observations are resampled to a grid twice"
+
+        def first = grid(observations(rows), maxDistance, stencils)
+        def cached = stencils.map.size()
+        def second = grid(observations(rows), maxDistance, stencils)
+        def failures = compareGrid(first, rows, maxDistance) + compareGrid(second, rows, maxDistance)
+
+        then: 'the second grid uses the stencils of the first grid, each cell is the inverse distance weighting of its neighbours'
+
+        cached == 2
+        stencils.hits.get() == 2
+        failures == []
+
+        where:
+
+        maxDistance << [300.0, 30.0]
+    }
+
+    def 'the grid is the inverse distance weighting of each cell, when the stencils do not fit into the cache'() {
+
+        given: "the observations of stations that report daily and a stencil cache that is smaller than a stencil of the grid"
+
+        def rows = rows(new Random(4), 40)
+        def stencils = new MapStencils(DAYS * WIDTH * HEIGHT * K)
+
+        when: "the observations are resampled to a grid"
+
+        def grid = grid(observations(rows), 300.0, stencils)
+        def failures = compareGrid(grid, rows, 300.0)
+
+        then: 'no stencil is cached, each cell is the inverse distance weighting of its neighbours'
+
+        stencils.map.isEmpty()
+        failures == []
+    }
+
+    def 'the variables with the same positions and times share their neighbours, the grid of each variable is its grid on its own'() {
+
+        given: "the observations of stations that report daily, the variables A and B at the same positions and times"
+
+        def rows = rows(new Random(5), 40)
+        def all = observations(rows)
+
+        when: "the variables are grouped by their positions and times and resampled to a grid together and each on its own"
+
+        def groups = Observations.groupByLayout(VARIABLES.collect { all.getObservations(all.variable2index.get(it)) })
+        def shared = grid(all, 300.0, InterpolationStencils.NONE)
+        def failures = VARIABLES.collectMany { variable ->
+            def separate = grid(observations(rows.findAll { it.variable == variable }), 300.0, InterpolationStencils.NONE)
+            compareGrids(shared, separate, variable)
+        }
+
+        then: 'A and B share a group, each cell of the shared grid is the cell of the grid of the variable on its own'
+
+        groups.collect { group -> group.collect { it.variable } } == [['A', 'B'], ['C']]
+        failures == []
+    }
+
+    @Unroll
+    def 'the time series at a position is the inverse distance weighting at each time step with #description'() {
+
+        given: "the observations of stations that report daily"
+
+        def rows = rows(new Random(3), 40)
+        def interval = new TemporalIntervalLocalDate(BEGIN, BEGIN.plusDays(DAYS - 1), 1)
+        def station = rows.find { it.code == 'S0' }
+
+        when: "the time series at a position between the stations and at a station are interpolated twice"
+
+        def failures = []
+        [[9.5f, 50.1f], [station.lon, station.lat]].each { position ->
+            2.times {
+                def timeSeries = observations(rows).interpolate(new GeometryPoint(position[0], position[1]), interval, K, 300.0, POWER,
+                        SpatialIndex.Type.AUTO, 0.0, stencils)
+                failures.addAll(compareTimeSeries(timeSeries, rows, position[0], position[1], 300.0))
+            }
+        }
+
+        then: 'each value is the inverse distance weighting of its neighbours, the value of the observation at the station'
+
+        failures == []
+
+        where:
+
+        description          | stencils
+        "no stencils"        | InterpolationStencils.NONE
+        "cached stencils"    | new MapStencils()
+    }
+
+    static class MapStencils implements InterpolationStencils {
+        final Map<String, InterpolationStencil> map = new ConcurrentHashMap<>()
+        final long maxNeighbours
+        final AtomicInteger hits = new AtomicInteger()
+
+        MapStencils(long maxNeighbours = Long.MAX_VALUE) {
+            this.maxNeighbours = maxNeighbours
+        }
+
+        @Override
+        boolean isEnabled() {
+            return true
+        }
+
+        @Override
+        boolean accepts(long neighbours) {
+            return neighbours < maxNeighbours
+        }
+
+        @Override
+        Optional<InterpolationStencil> get(String key) {
+            def stencil = Optional.ofNullable(map.get(key))
+            if (stencil.isPresent())
+                hits.incrementAndGet()
+            return stencil
+        }
+
+        @Override
+        void put(String key, InterpolationStencil stencil) {
+            map.put(key, stencil)
+        }
+    }
+
+    // the observations of stations at random positions in the bounding box on each day, the variable C is only reported by every third station;
+    // the first station reports at midnight on the first two days, so the time steps of these days are exact hits; otherwise the stations report at
+    // random times of the day, so the observations of a station are not at the same time distance from a time step; the observations without a
+    // station are at another random position on each day
+    static List<Map> rows(Random random, int stations, int withoutStation = 0, int days = DAYS) {
+        def rows = []
+        for (int s = 0; s < stations + withoutStation; s++) {
+            float lon = (float) (BBOX[0] + (BBOX[2] - BBOX[0]) * random.nextDouble())
+            float lat = (float) (BBOX[1] + (BBOX[3] - BBOX[1]) * random.nextDouble())
+            for (int d = 0; d < days; d++) {
+                if (s >= stations && d > 0) {
+                    lon = (float) (BBOX[0] + (BBOX[2] - BBOX[0]) * random.nextDouble())
+                    lat = (float) (BBOX[1] + (BBOX[3] - BBOX[1]) * random.nextDouble())
+                }
+                float time = (float) (Observations.temporalToDouble(BEGIN.plusDays(d)) + (s == 0 && d < 2 ? 0 : 0.5 - random.nextDouble()))
+                VARIABLES.each { variable ->
+                    if (variable != 'C' || s % 3 == 0)
+                        rows << [code    : s < stations ? "S${s}".toString() : null,
+                                 name    : s < stations ? "Station ${s}".toString() : null,
+                                 lon     : lon,
+                                 lat     : lat,
+                                 time    : time,
+                                 variable: variable,
+                                 value   : (float) (10 * random.nextGaussian())]
+                }
+            }
+        }
+        Collections.shuffle(rows, random)
+        return rows
+    }
+
+    static Observations observations(List<Map> rows) {
+        def observations = new Observations()
+        rows.each { row ->
+            observations.addValue(row.lon, row.lat, row.time, observations.getOrAddVariable(row.variable), row.value, row.code, row.name)
+        }
+        return observations
+    }
+
+    static DataArrayXyt grid(Observations observations, double maxDistance, InterpolationStencils stencils) {
+        def interval = new TemporalIntervalLocalDate(BEGIN, BEGIN.plusDays(DAYS - 1), 1)
+        return observations.resampleToGrid(BBOX, Optional.empty(), interval, OptionalInt.of(WIDTH), OptionalInt.of(HEIGHT), OptionalInt.empty(),
+                K, maxDistance, POWER, SpatialIndex.Type.AUTO, 0.0, 0.0, stencils, RasterBufferPool.NONE)
+    }
+
+    /**
+     * The inverse distance weighting of the k nearest observations of a variable within the maximum distance, the
+     * value of an observation at the target, NaN without observations in range.
+     */
+    static float idw(List<Map> rows, String variable, float lon, float lat, float time, double maxDistance) {
+        def observations = rows.findAll { it.variable == variable }
+        def hit = observations.find { it.lon == lon && it.lat == lat && it.time == time }
+        if (hit != null)
+            return hit.value
+
+        float[][] cells = new float[4][observations.size()]
+        observations.eachWithIndex { row, i ->
+            cells[0][i] = row.lon
+            cells[1][i] = row.lat
+            cells[2][i] = row.time
+            cells[3][i] = row.value
+        }
+        def neighbours = (0..<observations.size()).collect { [SpatialIndexSpec.distance(cells, it, lon, lat, time), cells[3][it]] }
+                                                 .findAll { it[0] <= maxDistance }
+                                                 .sort { it[0] }
+                                                 .take(K)
+        if (neighbours.isEmpty())
+            return Float.NaN
+        double a = 0
+        double b = 0
+        neighbours.each { neighbour ->
+            double weight = Math.pow(neighbour[0], -POWER)
+            a += weight * neighbour[1]
+            b += weight
+        }
+        return (float) (a / b)
+    }
+
+    static boolean close(float value, float expected) {
+        Float.isNaN(expected) ? Float.isNaN(value) : Math.abs(value - expected) <= 1e-3 * Math.max(1.0, Math.abs(expected))
+    }
+
+    /**
+     * @return the cells, which are not the inverse distance weighting of their neighbours
+     */
+    static List<String> compareGrid(DataArrayXyt grid, List<Map> rows, double maxDistance) {
+        def failures = []
+        double diffLon = (BBOX[2] - BBOX[0]) / WIDTH
+        double diffLat = (BBOX[3] - BBOX[1]) / HEIGHT
+        for (int step = 0; step < DAYS; step++) {
+            float time = (float) Observations.temporalToDouble(BEGIN.plusDays(step))
+            for (int row = 0; row < HEIGHT; row++)
+                for (int column = 0; column < WIDTH; column++) {
+                    float lon = (float) (BBOX[0] + column * diffLon + diffLon / 2)
+                    float lat = (float) (BBOX[3] - row * diffLat - diffLat / 2)
+                    VARIABLES.each { variable ->
+                        float value = grid.get(step, row, column, grid.getVars().indexOf(variable))
+                        float expected = idw(rows, variable, lon, lat, time, maxDistance)
+                        if (!close(value, expected))
+                            failures << "${variable} at step ${step}, row ${row}, column ${column}: ${value} instead of ${expected}".toString()
+                    }
+                }
+        }
+        return failures
+    }
+
+    /**
+     * @return the cells of a variable, which differ between the grids
+     */
+    static List<String> compareGrids(DataArrayXyt grid, DataArrayXyt expected, String variable) {
+        def failures = []
+        for (int step = 0; step < DAYS; step++)
+            for (int row = 0; row < HEIGHT; row++)
+                for (int column = 0; column < WIDTH; column++) {
+                    float value = grid.get(step, row, column, grid.getVars().indexOf(variable))
+                    float expectedValue = expected.get(step, row, column, expected.getVars().indexOf(variable))
+                    if (!close(value, expectedValue))
+                        failures << "${variable} at step ${step}, row ${row}, column ${column}: ${value} instead of ${expectedValue}".toString()
+                }
+        return failures
+    }
+
+    /**
+     * @return the time steps, which are not the inverse distance weighting of their neighbours
+     */
+    static List<String> compareTimeSeries(ObservationCollectionPointTimeSeries timeSeries, List<Map> rows, float lon, float lat, double maxDistance) {
+        def failures = []
+        for (int step = 0; step < DAYS; step++) {
+            def day = BEGIN.plusDays(step)
+            VARIABLES.each { variable ->
+                float value = timeSeries.getValues().get(day).get(variable)
+                float expected = idw(rows, variable, lon, lat, (float) Observations.temporalToDouble(day), maxDistance)
+                if (!close(value, expected))
+                    failures << "${variable} at ${lon}, ${lat} on ${day}: ${value} instead of ${expected}".toString()
+            }
+        }
+        return failures
+    }
+}
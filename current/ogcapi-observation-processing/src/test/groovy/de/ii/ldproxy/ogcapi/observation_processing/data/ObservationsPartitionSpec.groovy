@@ -0,0 +1,142 @@
+/*
+ * Copyright 2021 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.observation_processing.data
+
+import spock.lang.Specification
+
+import java.time.LocalDate
+
+/**
+ * Compares the partitioned columns of the observations and the time series of the stations with the received rows grouped by
+ * variable and station.
+ */
+class ObservationsPartitionSpec extends Specification {
+
+    static final List<String> VARIABLES = ['A', 'B', 'C']
+    static final int STATIONS = 20
+
+    def 'the rows of a variable at a station are in the partition of the offset table, ordered by time'() {
+
+        given: "observations of stations and observations without a station, with the same time at a station more than once"
+
+        def rows = rows(new Random(1), 3000)
+        def observations = observations(rows)
+
+        when: "the observations are partitioned"
+
+        observations.partition()
+
+        then: 'each partition has the rows of its variable and station in the order of their times, rows with the same time in the order received'
+
+        observations.stationSlots == STATIONS + 1
+        observations.offsets.length == VARIABLES.size() * (STATIONS + 1) + 1
+        observations.offsets[0] == 0
+        observations.offsets[observations.offsets.length - 1] == rows.size()
+        def failures = []
+        VARIABLES.eachWithIndex { variable, var ->
+            (-1..<STATIONS).each { station ->
+                def code = station >= 0 ? "S${station}".toString() : null
+                def expected = rows.findAll { it.variable == variable && it.code == code }.sort(false) { it.time }
+                def partition = observations.getObservations(var, station >= 0 ? observations.stationId2index.get(code) : -1)
+                if (partitionRows(partition) != expected)
+                    failures << "${variable} at ${code}".toString()
+            }
+        }
+        failures == []
+    }
+
+    def 'the observations of a variable are the partitions of all stations of the variable'() {
+
+        given: "observations of stations and observations without a station"
+
+        def rows = rows(new Random(2), 2000)
+        def observations = observations(rows)
+
+        when: "the observations of each variable are selected"
+
+        def selected = VARIABLES.indices.collect { observations.getObservations(it) }
+
+        then: 'the observations of a variable are consecutive and have all rows of the variable'
+
+        selected.collect { it.variable } == VARIABLES
+        selected.collect { it.start } == VARIABLES.indices.collect { observations.offsets[it * observations.stationSlots] }
+        selected.collect { it.count } == VARIABLES.collect { variable -> rows.count { it.variable == variable } }
+        selected.every { it.cells.is(observations.cells) }
+    }
+
+    def 'the time series of a station are interpolated from the observations of the station only'() {
+
+        given: "stations that report at midnight, two of them at the same position, and observations without a station at the positions of the stations"
+
+        def begin = LocalDate.of(2020, 1, 1)
+        def positions = [[7f, 50f], [7f, 50f], [8f, 51f], [9f, 52f]]
+        def observations = new Observations()
+        VARIABLES.each { observations.getOrAddVariable(it) }
+        for (int d = 0; d < 3; d++) {
+            float time = (float) Observations.temporalToDouble(begin.plusDays(d))
+            positions.eachWithIndex { position, s ->
+                VARIABLES.eachWithIndex { variable, var ->
+                    observations.addValue(position[0], position[1], time, var, (float) (100 * s + 10 * var + d), "S${s}".toString(), "Station ${s}".toString())
+                    observations.addValue(position[0], position[1], time, var, -1f, null, null)
+                }
+            }
+        }
+
+        when: "the time series of the stations are interpolated on each day"
+
+        def timeSeries = observations.interpolate(new TemporalIntervalLocalDate(begin, begin.plusDays(2), 1))
+
+        then: 'there is one time series per station in the order of the stations, each with the values of its station'
+
+        timeSeries.collect { it.getCode().get() } == ['S0', 'S1', 'S2', 'S3']
+        timeSeries.collect { it.getName().get() } == ['Station 0', 'Station 1', 'Station 2', 'Station 3']
+        timeSeries.collect { [it.getGeometry().getLon(), it.getGeometry().getLat()] } == positions.collect { [(double) it[0], (double) it[1]] }
+        timeSeries.withIndex().every { series, s ->
+            (0..<3).every { d ->
+                VARIABLES.withIndex().every { variable, var -> series.getValues().get(begin.plusDays(d)).get(variable) == 100 * s + 10 * var + d }
+            }
+        }
+    }
+
+    // observations of random variables at random stations, one in ten without a station, at few distinct times, each with a distinct value
+    static List<Map> rows(Random random, int count) {
+        def positions = (0..<STATIONS).collect { [(float) (6 + 8 * random.nextDouble()), (float) (47 + 7 * random.nextDouble())] }
+        (0..<count).collect { i ->
+            int station = random.nextInt(10) == 0 ? STATIONS : random.nextInt(STATIONS)
+            def position = station < STATIONS ? positions[station] : [(float) (6 + 8 * random.nextDouble()), (float) (47 + 7 * random.nextDouble())]
+            [variable: VARIABLES[random.nextInt(VARIABLES.size())],
+             lon     : position[0],
+             lat     : position[1],
+             time    : (float) random.nextInt(10),
+             value   : (float) i,
+             code    : station < STATIONS ? "S${station}".toString() : null]
+        }
+    }
+
+    static Observations observations(List<Map> rows) {
+        def observations = new Observations()
+        VARIABLES.each { observations.getOrAddVariable(it) }
+        rows.each { row ->
+            observations.addValue(row.lon, row.lat, row.time, observations.getOrAddVariable(row.variable), row.value, row.code, row.code)
+        }
+        return observations
+    }
+
+    // the rows of a partition
+    static List<Map> partitionRows(Observations observations) {
+        (observations.start..<observations.start + observations.count).collect { row ->
+            int station = observations.stationIndex[row]
+            [variable: observations.variable,
+             lon     : observations.cells[0][row],
+             lat     : observations.cells[1][row],
+             time    : observations.cells[2][row],
+             value   : observations.cells[3][row],
+             code    : station >= 0 ? observations.index2stationId.get(station) : null]
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2021 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.observation_processing.data
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+/**
+ * Compares the observations that are spilled to temporary files during the ingest with the observations on the heap.
+ */
+class ObservationsSpillSpec extends Specification {
+
+    static final int ROWS = 300_000
+
+    @Unroll
+    def 'the spilled observations are partitioned like the observations on the heap with #expectedCount expected observations'() {
+
+        given: "observations without a memory limit and with the smallest memory budget"
+
+        def heap = new Observations(expectedCount, 0)
+        def spilled = new Observations(expectedCount, 1)
+
+        when: "the same observations are added to both and partitioned"
+
+        add(new Random(1), heap, spilled)
+        int spilledChunks = (0..<spilled.buffer.getChunkCount()).count { spilled.buffer.getChunk(it).cells == null }
+        heap.partition()
+        spilled.partition()
+
+        then: 'some chunks have been spilled, the partitioned observations are the same'
+
+        spilledChunks > 0
+        spilled.offsets == heap.offsets
+        spilled.stationIndex == heap.stationIndex
+        (0..<4).every { spilled.cells[it] == heap.cells[it] }
+        spilled.getFingerprint() == heap.getFingerprint()
+
+        where:
+
+        expectedCount << [0, ROWS]
+    }
+
+    // observations of three variables at random stations and times, some without a station
+    static void add(Random random, Observations... observations) {
+        observations.each { it.getOrAddVariable('A'); it.getOrAddVariable('B'); it.getOrAddVariable('C') }
+        for (int i = 0; i < ROWS; i++) {
+            int variable = random.nextInt(3)
+            int station = random.nextInt(50)
+            float time = random.nextInt(100) - 20
+            float value = random.nextFloat()
+            String code = station == 0 ? null : "S${station}".toString()
+            observations.each { it.addValue((float) station, (float) station, time, variable, value, code, code) }
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2021 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.observation_processing.data
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+
+/**
+ * Checks that released raster buffers are reused by length and that the pool retains at most its maximum size.
+ */
+class RasterBufferPoolSpec extends Specification {
+
+    static final int LENGTH = 64 * 64
+    static final long BYTES = LENGTH * Float.BYTES
+    static final Vector<String> VARS = new Vector<>(['A', 'B'])
+
+    def 'a released buffer is reused for a buffer of the same length, the most recently released buffer first'() {
+
+        given: "a pool and two released buffers"
+
+        def pool = new RasterBufferPool(10 * BYTES)
+        float[] first = pool.acquire(LENGTH)
+        float[] second = pool.acquire(LENGTH)
+        pool.release(first)
+        pool.release(second)
+
+        when: "buffers of the length and of another length are acquired"
+
+        float[] other = pool.acquire(2 * LENGTH)
+        float[] last = pool.acquire(LENGTH)
+        long retained = pool.getRetainedBytes()
+        float[] previous = pool.acquire(LENGTH)
+        float[] fresh = pool.acquire(LENGTH)
+
+        then: 'the released buffers are returned in reverse order, then new buffers are allocated'
+
+        other.length == 2 * LENGTH
+        last.is(second)
+        retained == BYTES
+        previous.is(first)
+        !fresh.is(first) && !fresh.is(second)
+        fresh.length == LENGTH
+        pool.getRetainedBytes() == 0
+    }
+
+    @Unroll
+    def 'a #description is not retained'() {
+
+        given: "a pool"
+
+        def pool = new RasterBufferPool(maxRetainedBytes)
+
+        when: "the buffer is released and a buffer of its length is acquired"
+
+        pool.release(buffer)
+        float[] acquired = buffer == null ? null : pool.acquire(buffer.length)
+
+        then: 'the pool has not retained the buffer'
+
+        pool.getRetainedBytes() == 0
+        acquired == null || !acquired.is(buffer)
+
+        where:
+
+        description                      | maxRetainedBytes | buffer
+        'missing buffer'                 | 10 * BYTES       | null
+        'small buffer'                   | 10 * BYTES       | new float[100]
+        'buffer larger than the maximum' | BYTES - 1        | new float[LENGTH]
+        'buffer of the pool NONE'        | 0                | new float[LENGTH]
+    }
+
+    def 'the pool retains released buffers up to the maximum size'() {
+
+        given: "a pool for three buffers and ten acquired buffers"
+
+        def pool = new RasterBufferPool(3 * BYTES)
+        def buffers = (0..<10).collect { pool.acquire(LENGTH) }
+
+        when: "all buffers are released and then acquired again"
+
+        buffers.each { pool.release(it) }
+        long retained = pool.getRetainedBytes()
+        def reused = (0..<10).collect { pool.acquire(LENGTH) }.findAll { buffer -> buffers.any { it.is(buffer) } }
+
+        then: 'the first three released buffers have been retained and are reused'
+
+        retained == 3 * BYTES
+        reused.size() == 3
+        reused.every { buffer -> buffers.take(3).any { it.is(buffer) } }
+        pool.getRetainedBytes() == 0
+    }
+
+    def 'concurrent releases do not exceed the maximum size'() {
+
+        given: "a pool for five buffers and threads that release buffers at the same time"
+
+        def pool = new RasterBufferPool(5 * BYTES)
+        def executor = Executors.newFixedThreadPool(8)
+
+        when: "each thread releases many buffers"
+
+        def released = Collections.synchronizedList([])
+        def futures = (0..<8).collect {
+            executor.submit({ (0..<50).each { float[] buffer = new float[LENGTH]; released << buffer; pool.release(buffer) } } as Callable)
+        }
+        futures.each { it.get() }
+        executor.shutdown()
+        long retained = pool.getRetainedBytes()
+        def reused = (0..<10).collect { pool.acquire(LENGTH) }.findAll { buffer -> released.any { it.is(buffer) } }
+
+        then: 'the pool has retained exactly five buffers'
+
+        retained == 5 * BYTES
+        reused.size() == 5
+        pool.getRetainedBytes() == 0
+    }
+
+    def 'the planes of a released grid are the planes of the next grid of the same size'() {
+
+        given: "a grid with pooled planes"
+
+        def pool = new RasterBufferPool(100 * BYTES)
+        def grid = new DataArrayXyt(64, 64, 3, VARS, 6, 47, 0, 14, 54, 3, pool)
+        def planes = (0..<3).collectMany { step -> (0..<VARS.size()).collect { grid.getPlane(step, it) } }
+
+        when: "the grid is released and grids of the same size are created"
+
+        grid.release()
+        long retained = pool.getRetainedBytes()
+        def next = new DataArrayXyt(64, 64, 3, VARS, 6, 47, 0, 14, 54, 3, pool)
+        def nextPlanes = (0..<3).collectMany { step -> (0..<VARS.size()).collect { next.getPlane(step, it) } }
+        def xy = new DataArrayXy(64, 64, VARS, 6, 47, 14, 54, null, pool)
+
+        then: 'the released grid has no planes, the next grid has all planes of the released grid'
+
+        retained == 6 * BYTES
+        grid.getPlane(0, 0) == null
+        nextPlanes.collect { System.identityHashCode(it) }.toSet() == planes.collect { System.identityHashCode(it) }.toSet()
+        pool.getRetainedBytes() == 0
+        !planes.any { it.is(xy.getPlane(0)) }
+
+        when: "the grid without time axis is released and a grid of the same size is created"
+
+        def plane = xy.getPlane(1)
+        xy.release()
+        def nextXy = new DataArrayXy(64, 64, VARS, 6, 47, 14, 54, null, pool)
+
+        then: 'the next grid reuses the planes'
+
+        nextXy.getPlane(0).is(plane) || nextXy.getPlane(1).is(plane)
+    }
+
+    def 'a grid without a pool, e.g. a cached tile, keeps its planes when it is released'() {
+
+        given: "a grid without a pool"
+
+        def grid = new DataArrayXyt(64, 64, 1, VARS, 6, 47, 0, 14, 54, 1, RasterBufferPool.NONE)
+        grid.set(0, 1, 2, 1, 42f)
+
+        when: "the grid is released"
+
+        grid.release()
+
+        then: 'the grid still has its values and the pool has not retained any buffer'
+
+        grid.get(0, 1, 2, 1) == 42f
+        RasterBufferPool.NONE.getRetainedBytes() == 0
+    }
+}
@@ -0,0 +1,343 @@
+/*
+ * Copyright 2021 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.observation_processing.data
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.util.concurrent.Callable
+import java.util.concurrent.ForkJoinPool
+
+/**
+ * Compares the neighbour search of the spatial indexes with a linear scan over all observations.
+ */
+class SpatialIndexSpec extends Specification {
+
+    static final int K = 8
+
+    @Unroll
+    def 'the neighbours of the #type index are the neighbours of a linear scan'() {
+
+        given: "stations that report repeatedly and single observations"
+
+        def cells = observations(new Random(1), 200, 6, 300)
+        def index = SpatialIndex.of(type, 0.0, cells, 0, cells[0].length)
+        def queries = queries(new Random(2), 200)
+
+        when: "the k nearest neighbours within 150 km are searched"
+
+        def failures = compare(index, cells, queries, K, 150f)
+
+        then: 'the index finds the neighbours of the linear scan'
+
+        failures == []
+
+        where:
+
+        type << [SpatialIndex.Type.KD_TREE, SpatialIndex.Type.STATION_TIME, SpatialIndex.Type.GRID_HASH, SpatialIndex.Type.APPROXIMATE]
+    }
+
+    @Unroll
+    def 'the #type index resolves ties like a linear scan'() {
+
+        given: "stations on a regular grid and queries in the middle of the grid cells"
+
+        def cells = regularGrid(10, 3)
+        def index = SpatialIndex.of(type, 0.0, cells, 0, cells[0].length)
+        def queries = []
+        for (int i = 0; i < 9; i++)
+            for (int j = 0; j < 9; j++)
+                queries << ([10.5f + i, 50.5f + j, 1f] as float[])
+
+        when: "fewer neighbours are searched than there are at the same distance, in space and in time"
+
+        def failures = [1, 3, 5].collectMany { k -> compare(index, cells, queries, k, 500f) }
+
+        then: 'the distances of the neighbours are the distances of the linear scan'
+
+        failures == []
+
+        where:
+
+        type << [SpatialIndex.Type.KD_TREE, SpatialIndex.Type.STATION_TIME, SpatialIndex.Type.GRID_HASH, SpatialIndex.Type.APPROXIMATE]
+    }
+
+    @Unroll
+    def 'the #type index only returns neighbours within the maximum distance'() {
+
+        given: "stations that report repeatedly and single observations"
+
+        def cells = observations(new Random(3), 200, 6, 300)
+        def index = SpatialIndex.of(type, 0.0, cells, 0, cells[0].length)
+        def queries = queries(new Random(4), 200)
+
+        when: "the maximum distance is small enough that fewer than k observations are in range"
+
+        def failures = compare(index, cells, queries, K, 40f)
+        def counts = queries.collect { query -> linearScan(cells, query[0], query[1], query[2], K, 40f).size() }
+
+        then: 'the index finds the neighbours of the linear scan'
+
+        failures == []
+        counts.count { it < K } > queries.size() / 2
+        counts.contains(0)
+
+        where:
+
+        type << [SpatialIndex.Type.KD_TREE, SpatialIndex.Type.STATION_TIME, SpatialIndex.Type.GRID_HASH, SpatialIndex.Type.APPROXIMATE]
+    }
+
+    @Unroll
+    def 'the candidates of a block of queries of the #type index contain the neighbours of the queries'() {
+
+        given: "stations that report repeatedly and single observations"
+
+        def cells = observations(new Random(6), 200, 6, 300)
+        def index = SpatialIndex.of(type, 0.0, cells, 0, cells[0].length)
+
+        when: "the neighbours of the cells of blocks of 8 x 8 grid cells are searched among the candidates of the block"
+
+        def failures = compareBlocks(index, cells, new Random(7), 10, K, 150f) + compareBlocks(index, cells, new Random(8), 10, K, 40f)
+
+        then: 'the index finds the neighbours of the linear scan'
+
+        failures == []
+
+        where:
+
+        type << [SpatialIndex.Type.KD_TREE, SpatialIndex.Type.STATION_TIME, SpatialIndex.Type.GRID_HASH, SpatialIndex.Type.APPROXIMATE]
+    }
+
+    @Unroll
+    def 'the #type index finds no neighbours, if there are no observations or none are requested'() {
+
+        given: "an empty index and an index with observations"
+
+        def empty = SpatialIndex.of(type, 0.0, new float[4][0], 0, 0)
+        def cells = observations(new Random(5), 10, 2, 10)
+        def index = SpatialIndex.of(type, 0.0, cells, 0, cells[0].length)
+        def indices = new int[K]
+        def distances = new float[K]
+
+        expect:
+
+        empty.nearestNeighbours(10f, 50f, 1f, K, 1000f, indices, distances) == 0
+        index.nearestNeighbours(10f, 50f, 1f, 0, 1000f, indices, distances) == 0
+
+        where:
+
+        type << [SpatialIndex.Type.KD_TREE, SpatialIndex.Type.STATION_TIME, SpatialIndex.Type.GRID_HASH, SpatialIndex.Type.APPROXIMATE]
+    }
+
+    def 'the neighbours of the approximate index are within the error bound of the neighbours of a linear scan'() {
+
+        given: "stations that report repeatedly and single observations"
+
+        def cells = observations(new Random(11), 200, 6, 300)
+        def index = SpatialIndex.of(SpatialIndex.Type.APPROXIMATE, 0.25, cells, 0, cells[0].length)
+        def queries = queries(new Random(12), 200)
+
+        when: "the k nearest neighbours are searched with and without observations beyond the maximum distance"
+
+        def failures = [150f, 40f].collectMany { maxDistance -> compareApproximate(index, cells, queries, K, maxDistance, 0.25) }
+
+        then: 'the index finds as many neighbours as the linear scan, each at most 25 % farther away'
+
+        failures == []
+    }
+
+    @Unroll
+    def 'a k-d tree that is partitioned in parallel finds the neighbours of a linear scan, when it is built #description'() {
+
+        given: "more single observations than a range that is partitioned in parallel"
+
+        def cells = observations(new Random(13), 0, 6, 20_000)
+        def queries = queries(new Random(14), 20)
+        def pool = new ForkJoinPool(4)
+
+        when: "the tree is built and the k nearest neighbours within 150 km are searched"
+
+        def tree = pooled ? pool.submit({ new KdTree(cells, 0, cells[0].length) } as Callable<KdTree>).get() : new KdTree(cells, 0, cells[0].length)
+        pool.shutdown()
+        def failures = compare(tree, cells, queries, K, 150f)
+
+        then: 'the tree finds the neighbours of the linear scan'
+
+        failures == []
+
+        where:
+
+        description                   | pooled
+        "in a fork/join pool"         | true
+        "outside of a fork/join pool" | false
+    }
+
+    def 'the station/time index is chosen automatically, if the stations report repeatedly'() {
+
+        given: "stations that report repeatedly and single observations"
+
+        def stations = observations(new Random(9), 50, StationTimeIndex.MIN_OBSERVATIONS_PER_STATION, 0)
+        def singles = observations(new Random(10), 0, 0, 200)
+
+        expect:
+
+        SpatialIndex.of(SpatialIndex.Type.AUTO, 0.0, stations, 0, stations[0].length) instanceof StationTimeIndex
+        SpatialIndex.of(SpatialIndex.Type.AUTO, 0.0, singles, 0, singles[0].length) instanceof KdTree
+    }
+
+    // stations at random positions in lon 10..20, lat 50..60 with observations at the times 0..reports-1, and single observations at random positions and times
+    static float[][] observations(Random random, int stations, int reports, int singles) {
+        def rows = []
+        for (int s = 0; s < stations; s++) {
+            float lon = 10 + 10 * random.nextFloat()
+            float lat = 50 + 10 * random.nextFloat()
+            for (int t = 0; t < reports; t++)
+                rows << [lon, lat, (float) t, random.nextFloat()]
+        }
+        for (int i = 0; i < singles; i++)
+            rows << [10 + 10 * random.nextFloat(), 50 + 10 * random.nextFloat(), (float) (reports * random.nextFloat()), random.nextFloat()]
+        Collections.shuffle(rows, random)
+        return columns(rows)
+    }
+
+    // stations at the integer positions of lon 10..10+size-1, lat 50..50+size-1 with observations at the times 0..reports-1
+    static float[][] regularGrid(int size, int reports) {
+        def rows = []
+        for (int i = 0; i < size; i++)
+            for (int j = 0; j < size; j++)
+                for (int t = 0; t < reports; t++)
+                    rows << [10f + i, 50f + j, (float) t, (float) (i * size + j)]
+        return columns(rows)
+    }
+
+    static float[][] columns(List rows) {
+        float[][] cells = new float[4][rows.size()]
+        rows.eachWithIndex { row, i ->
+            for (int j = 0; j < 4; j++)
+                cells[j][i] = row[j] as float
+        }
+        return cells
+    }
+
+    static List<float[]> queries(Random random, int count) {
+        (0..<count).collect { [10 + 10 * random.nextFloat(), 50 + 10 * random.nextFloat(), 6 * random.nextFloat()] as float[] }
+    }
+
+    /**
+     * @return the distances of the k nearest observations within the maximum distance in ascending order
+     */
+    static List<Double> linearScan(float[][] cells, float lon, float lat, float time, int k, float maxDistance) {
+        (0..<cells[0].length).collect { distance(cells, it, lon, lat, time) }
+                             .findAll { it <= maxDistance }
+                             .sort()
+                             .take(k)
+    }
+
+    // the great circle distance in km combined with the time difference, see SpatialIndex
+    static double distance(float[][] cells, int row, float lon, float lat, float time) {
+        float[] point = new float[KdTree.DIMENSIONS]
+        float[] query = new float[KdTree.DIMENSIONS]
+        KdTree.toPoint(cells[0][row], cells[1][row], 0, point)
+        KdTree.toPoint(lon, lat, 0, query)
+        double chordSquared = 0
+        for (int j = 0; j < 3; j++)
+            chordSquared += (point[j] - query[j]) * (point[j] - query[j])
+        double arc = KdTree.arc(chordSquared)
+        // the time difference of the float times, scaled in double
+        double dt = (cells[2][row] - time) * KdTree.TIME_SCALE
+        return Math.sqrt(arc * arc + dt * dt)
+    }
+
+    static boolean close(double distance1, double distance2) {
+        Math.abs(distance1 - distance2) <= 1e-3 * Math.max(1.0, distance2)
+    }
+
+    /**
+     * @return the queries, for which the index does not find the neighbours of a linear scan
+     */
+    static List<String> compare(SpatialIndex index, float[][] cells, List<float[]> queries, int k, float maxDistance) {
+        def failures = []
+        int[] indices = new int[k]
+        float[] distances = new float[k]
+        queries.each { query ->
+            def expected = linearScan(cells, query[0], query[1], query[2], k, maxDistance)
+            int count = index.nearestNeighbours(query[0], query[1], query[2], k, maxDistance, indices, distances)
+            def failure = check(index, cells, query, expected, count, indices, distances)
+            if (failure != null)
+                failures << "${query}: ${failure}".toString()
+        }
+        return failures
+    }
+
+    /**
+     * @return the queries, for which the index does not find approximate neighbours of a linear scan
+     */
+    static List<String> compareApproximate(SpatialIndex index, float[][] cells, List<float[]> queries, int k, float maxDistance, double errorBound) {
+        def failures = []
+        int[] indices = new int[k]
+        float[] distances = new float[k]
+        queries.each { query ->
+            def expected = linearScan(cells, query[0], query[1], query[2], k, maxDistance)
+            int count = index.nearestNeighbours(query[0], query[1], query[2], k, maxDistance, indices, distances)
+            if (count != expected.size())
+                failures << "${query}: ${count} neighbours instead of ${expected.size()}".toString()
+            else
+                for (int i = 0; i < count; i++)
+                    if (distances[i] < expected[i] * (1 - 1e-3) || distances[i] > expected[i] * (1 + errorBound) + 1e-3) {
+                        failures << "${query}: distance ${distances[i]} of neighbour ${i} is not within the error bound of ${expected[i]}".toString()
+                        break
+                    }
+        }
+        return failures
+    }
+
+    /**
+     * @return the queries of the blocks, for which the index does not find the neighbours of a linear scan among the candidates of the block
+     */
+    static List<String> compareBlocks(SpatialIndex index, float[][] cells, Random random, int blocks, int k, float maxDistance) {
+        def failures = []
+        int[] indices = new int[k]
+        float[] distances = new float[k]
+        for (int b = 0; b < blocks; b++) {
+            float minLon = 10 + 9 * random.nextFloat()
+            float minLat = 50 + 9 * random.nextFloat()
+            float time = 6 * random.nextFloat()
+            float maxLon = minLon + 0.8f
+            float maxLat = minLat + 0.8f
+            int[] candidates = index.candidates(minLon, minLat, maxLon, maxLat, time, k, maxDistance)
+            for (int i = 0; i <= 8; i++)
+                for (int j = 0; j <= 8; j++) {
+                    float[] query = [minLon + 0.1f * i, minLat + 0.1f * j, time] as float[]
+                    def expected = linearScan(cells, query[0], query[1], query[2], k, maxDistance)
+                    int count = index.nearestNeighbours(query[0], query[1], query[2], k, maxDistance, candidates, indices, distances)
+                    def failure = check(index, cells, query, expected, count, indices, distances)
+                    if (failure != null)
+                        failures << "${query}: ${failure}".toString()
+                }
+        }
+        return failures
+    }
+
+    // ties are resolved arbitrarily, so the points are only checked against their own rows and the distances against the linear scan
+    static String check(SpatialIndex index, float[][] cells, float[] query, List<Double> expected, int count, int[] indices, float[] distances) {
+        if (count != expected.size())
+            return "${count} neighbours instead of ${expected.size()}"
+        if ((0..<count).collect { indices[it] }.toSet().size() != count)
+            return "duplicate neighbours"
+        for (int i = 0; i < count; i++) {
+            int row = index.getRow(indices[i])
+            if (index.getValue(indices[i]) != cells[3][row])
+                return "value of neighbour ${i} is not the value of row ${row}"
+            if (!close(distances[i], distance(cells, row, query[0], query[1], query[2])))
+                return "distance ${distances[i]} of neighbour ${i} is not the distance of row ${row}"
+            if (!close(distances[i], expected[i]))
+                return "distance ${distances[i]} of neighbour ${i} instead of ${expected[i]}"
+        }
+        return null
+    }
+}
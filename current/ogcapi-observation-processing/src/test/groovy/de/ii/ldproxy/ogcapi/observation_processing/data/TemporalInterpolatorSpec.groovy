@@ -0,0 +1,244 @@
+/*
+ * Copyright 2021 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.observation_processing.data
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.time.LocalDate
+
+/**
+ * Compares the single pass of the temporal interpolation with the interpolation of each time step on its own and
+ * with the values of the spline of the baseline, where these are known exactly.
+ */
+class TemporalInterpolatorSpec extends Specification {
+
+    def 'a single pass over ascending steps is the interpolation of each step on its own'() {
+
+        given: "samples with duplicate times and ascending steps before, within and after the samples"
+
+        def random = new Random(1)
+        def samples = samples(random, 50)
+        double[] steps = steps(random, samples.times, 200)
+
+        when: "the steps are interpolated in a single pass and one at a time"
+
+        double[] results = new double[steps.length]
+        TemporalInterpolator.interpolate(samples.times, samples.values, 0, samples.times.length, steps, results)
+
+        then: 'the values are the same'
+
+        (0..<steps.length).every { results[it] == single(samples.times, samples.values, 0, samples.times.length, steps[it]) }
+    }
+
+    def 'the steps do not have to be in ascending order'() {
+
+        given: "samples and the same steps in ascending and in random order"
+
+        def random = new Random(2)
+        def samples = samples(random, 50)
+        double[] ascending = steps(random, samples.times, 200)
+        List<Double> shuffled = ascending.toList()
+        Collections.shuffle(shuffled, random)
+
+        when: "both are interpolated in a single pass"
+
+        double[] expected = new double[ascending.length]
+        TemporalInterpolator.interpolate(samples.times, samples.values, 0, samples.times.length, ascending, expected)
+        double[] results = new double[shuffled.size()]
+        TemporalInterpolator.interpolate(samples.times, samples.values, 0, samples.times.length, shuffled as double[], results)
+
+        then: 'each step has the same value'
+
+        (0..<shuffled.size()).every { results[it] == expected[Arrays.binarySearch(ascending, shuffled[it])] }
+    }
+
+    def 'only the samples of the range are interpolated'() {
+
+        given: "samples within other samples"
+
+        def random = new Random(3)
+        def range = samples(random, 30)
+        def before = samples(random, 10)
+        def after = samples(random, 10)
+        float[] times = (before.times.collect { it - 1000f } + range.times.toList() + after.times.collect { it + 1000f }) as float[]
+        float[] values = (before.values.toList() + range.values.toList() + after.values.toList()) as float[]
+        double[] steps = steps(random, range.times, 100)
+
+        when: "the range and the samples on their own are interpolated"
+
+        double[] results = new double[steps.length]
+        TemporalInterpolator.interpolate(times, values, 10, 40, steps, results)
+        double[] expected = new double[steps.length]
+        TemporalInterpolator.interpolate(range.times, range.values, 0, range.times.length, steps, expected)
+
+        then: 'the values are the same'
+
+        results == expected
+    }
+
+    @Unroll
+    def 'the value at #description is #expected'() {
+
+        given: "samples with duplicate times"
+
+        float[] times = [1, 1, 2, 3, 3, 4, 4] as float[]
+        float[] values = [10, 11, 12, 13, 14, 15, 16] as float[]
+
+        when: "a step is interpolated"
+
+        double result = single(times, values, 0, times.length, step)
+
+        then: 'the value is the one of the baseline'
+
+        result == expected
+
+        where:
+
+        description                      | step || expected
+        "the first time"                 | 1.0  || 10
+        "a time before the first sample" | 0.5  || 10
+        "the time of a sample"           | 2.0  || 12
+        "a duplicate time"               | 3.0  || 13
+        "the last time"                  | 4.0  || 15
+        "a time after the last sample"   | 4.5  || 16
+    }
+
+    def 'a single sample is constant'() {
+
+        when: "steps are interpolated with one sample"
+
+        double[] results = new double[3]
+        TemporalInterpolator.interpolate([5] as float[], [7] as float[], 0, 1, [4.0, 5.0, 6.0] as double[], results)
+
+        then: 'all steps have its value'
+
+        results == [7.0, 7.0, 7.0] as double[]
+    }
+
+    def 'two samples are interpolated linearly'() {
+
+        when: "steps between two samples are interpolated"
+
+        double[] results = new double[3]
+        TemporalInterpolator.interpolate([2, 6] as float[], [10, 30] as float[], 0, 2, [3.0, 4.0, 5.5] as double[], results)
+
+        then: 'the values are on the line through the samples'
+
+        results == [15.0, 20.0, 27.5] as double[]
+    }
+
+    def 'linear samples are interpolated exactly, like with the spline of the baseline'() {
+
+        given: "samples on a line at irregular times"
+
+        def random = new Random(4)
+        float[] times = irregularTimes(random, 20)
+        float[] values = times.collect { (float) (3 * it - 7) } as float[]
+        double[] steps = (0..<200).collect { times[0] + (times[-1] - times[0]) * random.nextDouble() } as double[]
+        Arrays.sort(steps)
+
+        when: "steps between the samples are interpolated"
+
+        double[] results = new double[steps.length]
+        TemporalInterpolator.interpolate(times, values, 0, times.length, steps, results)
+
+        then: 'the values are on the line'
+
+        (0..<steps.length).every { Math.abs(results[it] - (3 * steps[it] - 7)) <= 1e-3 }
+    }
+
+    def 'quadratic samples are interpolated exactly between the inner samples'() {
+
+        given: "samples on a parabola at irregular times"
+
+        def random = new Random(5)
+        float[] times = irregularTimes(random, 20)
+        float[] values = times.collect { (float) quadratic(it) } as float[]
+        double[] steps = (0..<200).collect { times[1] + (times[-2] - times[1]) * random.nextDouble() } as double[]
+        Arrays.sort(steps)
+
+        when: "steps between the second and the second last sample are interpolated"
+
+        double[] results = new double[steps.length]
+        TemporalInterpolator.interpolate(times, values, 0, times.length, steps, results)
+
+        then: 'the values are on the parabola'
+
+        (0..<steps.length).every { Math.abs(results[it] - quadratic(steps[it])) <= 1e-3 * Math.max(1.0, Math.abs(quadratic(steps[it]))) }
+    }
+
+    def 'the time series of the stations are interpolated from observations in any order'() {
+
+        given: "the observations of stations on a line in time, added in random order"
+
+        def random = new Random(6)
+        def begin = LocalDate.of(2020, 1, 1)
+        def rows = []
+        for (int s = 0; s < 5; s++)
+            for (int d = 0; d < 10; d++)
+                rows << [station: "S${s}".toString(), lon: (float) (7 + s), lat: 50f, time: (float) (Observations.temporalToDouble(begin.plusDays(d)) + random.nextDouble()), slope: s + 1]
+        Collections.shuffle(rows, random)
+        def observations = new Observations()
+        int variable = observations.getOrAddVariable('A')
+        rows.each { row ->
+            observations.addValue(row.lon, row.lat, row.time, variable, (float) (row.slope * (row.time - Observations.temporalToDouble(begin))), row.station, row.station)
+        }
+
+        when: "the time series at the days of the observations are interpolated"
+
+        def positions = observations.interpolate(new TemporalIntervalLocalDate(begin.plusDays(1), begin.plusDays(9), 1))
+
+        then: 'the values are on the line of each station'
+
+        positions.size() == 5
+        positions.every { position ->
+            int slope = (position.getCode().get().substring(1) as int) + 1
+            position.getValues().every { time, values ->
+                Math.abs(values.get('A') - slope * (Observations.temporalToDouble(time) - Observations.temporalToDouble(begin))) <= 1e-3 * slope * 20
+            }
+        }
+    }
+
+    static double quadratic(double t) {
+        0.5 * t * t - 3 * t + 2
+    }
+
+    // the interpolation of a single step
+    static double single(float[] times, float[] values, int from, int to, double step) {
+        double[] result = new double[1]
+        TemporalInterpolator.interpolate(times, values, from, to, [step] as double[], result)
+        return result[0]
+    }
+
+    static float[] irregularTimes(Random random, int count) {
+        float[] times = new float[count]
+        for (int i = 1; i < count; i++)
+            times[i] = (float) (times[i - 1] + 0.5 + random.nextDouble())
+        return times
+    }
+
+    // samples at ascending times, some of them with the same time
+    static Map samples(Random random, int count) {
+        float[] times = irregularTimes(random, count)
+        for (int i = 1; i < count; i++)
+            if (random.nextInt(5) == 0)
+                times[i] = times[i - 1]
+        float[] values = (0..<count).collect { (float) (10 * random.nextGaussian()) } as float[]
+        return [times: times, values: values]
+    }
+
+    // ascending steps before, within and after the samples, some of them at the times of samples
+    static double[] steps(Random random, float[] times, int count) {
+        double[] steps = (0..<count).collect {
+            random.nextInt(4) == 0 ? (double) times[random.nextInt(times.length)] : times[0] - 2 + (times[-1] - times[0] + 4) * random.nextDouble()
+        } as double[]
+        Arrays.sort(steps)
+        return steps
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2021 interactive instruments GmbH
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package de.ii.ldproxy.ogcapi.observation_processing.functions
+
+import de.ii.ldproxy.ogcapi.observation_processing.api.GridAccumulator
+import de.ii.ldproxy.ogcapi.observation_processing.api.ObservationProcessingStatisticalFunction
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.util.concurrent.CopyOnWriteArrayList
+
+/**
+ * Compares the grid accumulators of the statistical functions with the functions of the collected values of each cell.
+ */
+class StatisticalFunctionAccumulatorSpec extends Specification {
+
+    static final int CELLS = 500
+    static final int STEPS = 37
+    // a cell with a single value and a cell without values
+    static final int SINGLE = 13
+    static final int EMPTY = 14
+
+    @Unroll
+    def 'the #name accumulator is the function of the values of each cell'() {
+
+        given: "the planes of a grid with missing values"
+
+        def planes = planes(new Random(1))
+
+        when: "the planes are accumulated and the values of each cell are collected"
+
+        GridAccumulator accumulator = function.createGridAccumulator(CELLS)
+        planes.each { accumulator.add(it) }
+        float[] results = new float[CELLS]
+        accumulator.getValues(results)
+        def failures = compare(results, collect(function, planes))
+
+        then: 'the values are the same'
+
+        failures == []
+
+        where:
+
+        function << [new StatisticalFunctionCount(null), new StatisticalFunctionSum(null), new StatisticalFunctionMean(null),
+                     new StatisticalFunctionMin(null), new StatisticalFunctionMax(null), new StatisticalFunctionStandardDeviation(null)]
+        name = function.getName()
+    }
+
+    static List<float[]> planes(Random random) {
+        (0..<STEPS).collect { step ->
+            float[] plane = new float[CELLS]
+            for (int cell = 0; cell < CELLS; cell++)
+                plane[cell] = cell % 7 == 0 || (cell % 11 == 0 && random.nextBoolean()) ? Float.NaN : (float) (10 * random.nextGaussian() + 5)
+            plane[SINGLE] = step == 5 ? 3f : Float.NaN
+            plane[EMPTY] = Float.NaN
+            return plane
+        }
+    }
+
+    // the value of the function of the values of each cell, like before the accumulators, NaN without values
+    static float[] collect(ObservationProcessingStatisticalFunction function, List<float[]> planes) {
+        float[] results = new float[CELLS]
+        for (int cell = 0; cell < CELLS; cell++) {
+            def values = new CopyOnWriteArrayList<Number>(planes.collect { it[cell] }.findAll { !Float.isNaN(it) })
+            results[cell] = values.isEmpty() ? Float.NaN : function.getValue(values).floatValue()
+        }
+        return results
+    }
+
+    /**
+     * @return the cells with different values
+     */
+    static List<String> compare(float[] results, float[] expected) {
+        (0..<CELLS).findAll {
+            !(Float.isNaN(expected[it]) ? Float.isNaN(results[it]) : Math.abs(results[it] - expected[it]) <= 1e-5 * Math.max(1.0, Math.abs(expected[it])))
+        }.collect { "cell ${it}: ${results[it]} instead of ${expected[it]}".toString() }
+    }
+}